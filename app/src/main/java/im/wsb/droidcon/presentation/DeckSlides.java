@@ -0,0 +1,73 @@
+// Copyright 2004-present Facebook. All Rights Reserved.
+
+package im.wsb.droidcon.presentation;
+
+import im.wsb.droidcon.presentation.slides.Slide;
+import im.wsb.droidcon.timeline.Frame;
+import im.wsb.droidcon.timeline.Timeline;
+
+/**
+ * DeckSlides builds the key frames of a deck. Each slide is created the first time a key frame
+ * needs it and then kept, so every key frame showing a slide gets the layers of the same instance
+ * and the layers keep their names from one key frame to the next. Slides are not thread safe, so
+ * each thread building key frames needs DeckSlides of its own.
+ */
+public class DeckSlides implements Timeline.KeyFrameSource {
+
+  /**
+   * Creates the slides of a deck, like the generated DeckRegistry.
+   */
+  public interface Factory {
+    int size();
+
+    Slide create(int index);
+  }
+
+  private final Factory mFactory;
+  private final Slide[] mSlides;
+
+  public DeckSlides(Factory factory) {
+    mFactory = factory;
+    mSlides = new Slide[factory.size()];
+  }
+
+  public int size() {
+    return mSlides.length;
+  }
+
+  /**
+   * The number of key frames of the deck, one more on either side of the slides to bring the first
+   * one in and take the last one out.
+   */
+  public int getKeyFrameCount() {
+    return mSlides.length + 2;
+  }
+
+  public Slide get(int index) {
+    Slide slide = mSlides[index];
+    if (slide == null) {
+      slide = mFactory.create(index);
+      mSlides[index] = slide;
+    }
+    return slide;
+  }
+
+  /**
+   * Key frame i exits slide i - 2, presents slide i - 1 and brings in slide i.
+   * @param index the key frame to build
+   * @param frame the frame to add the layers to
+   */
+  @Override
+  public void buildKeyFrame(int index, Frame frame) {
+    int slideCount = mSlides.length;
+    if (index >= 2) {
+      frame.addLayerStates(get(index - 2).getExitedLayerStates());
+    }
+    if (index >= 1 && index - 1 < slideCount) {
+      frame.addLayerStates(get(index - 1).getPresentedLayerStates());
+    }
+    if (index < slideCount) {
+      frame.addLayerStates(get(index).getInitialLayerStates());
+    }
+  }
+}
@@ -1,8 +1,15 @@
 package im.wsb.droidcon.presentation;
 
 import android.app.Application;
+import android.content.pm.PackageManager;
 
+import java.io.File;
+
+import im.wsb.droidcon.timeline.BitmapCache;
+import im.wsb.droidcon.timeline.DiskPixelCache;
 import im.wsb.droidcon.timeline.LayerState;
+import im.wsb.droidcon.timeline.ResourceImageSource;
+import im.wsb.droidcon.timeline.TextLayoutCache;
 
 public class PresentationApplication extends Application {
 
@@ -12,7 +19,17 @@ public class PresentationApplication extends Application {
   public void onCreate() {
     super.onCreate();
     sInstance = this;
-    LayerState.RESOURCES = getResources();
+    LayerState.setImageSource(new ResourceImageSource(getResources()));
+    LayerState.setTextLayoutSource(TextLayoutCache.getInstance());
+
+    try {
+      // Decoded pixels are only valid for the resources of the installed build.
+      long stamp = getPackageManager().getPackageInfo(getPackageName(), 0).lastUpdateTime;
+      BitmapCache.getInstance().setDiskCache(
+          new DiskPixelCache(new File(getCacheDir(), "pixels"), stamp));
+    } catch (PackageManager.NameNotFoundException e) {
+      // Decode from resources every launch.
+    }
   }
 
   public static PresentationApplication getsInstance() {
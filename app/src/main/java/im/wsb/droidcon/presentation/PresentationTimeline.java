@@ -1,58 +1,137 @@
 package im.wsb.droidcon.presentation;
 
 import android.content.Context;
+import android.content.pm.PackageManager;
+import android.content.res.Resources;
 import android.graphics.Rect;
+import android.os.Process;
+import android.util.Log;
 
-import java.lang.reflect.Field;
-import java.util.ArrayList;
-import java.util.List;
+import java.io.File;
+import java.io.IOException;
 
-import im.wsb.droidcon.Deck;
+import im.wsb.droidcon.DeckRegistry;
 import im.wsb.droidcon.presentation.slides.Slide;
-import im.wsb.droidcon.timeline.Frame;
+import im.wsb.droidcon.timeline.CompiledTimeline;
 import im.wsb.droidcon.timeline.Timeline;
 
 public class PresentationTimeline extends Timeline {
 
+  private static final String TAG = PresentationTimeline.class.getSimpleName();
+  private static final boolean USE_COMPILED_TIMELINE = true;
+
+  // Decks with more key frames than this only build the key frames around the current slide.
+  private static final int WINDOWED_KEY_FRAME_THRESHOLD = 64;
+  private static final int KEY_FRAME_WINDOW_RADIUS = 2;
+  private static final int MAX_RESIDENT_KEY_FRAMES = 8;
+
+  private static final DeckSlides.Factory DECK = new DeckSlides.Factory() {
+    @Override
+    public int size() {
+      return DeckRegistry.size();
+    }
+
+    @Override
+    public Slide create(int index) {
+      return DeckRegistry.get(index);
+    }
+  };
+
+  private final DeckSlides mSlides = new DeckSlides(DECK);
+
   public PresentationTimeline(Context context) {
     super(context);
   }
 
   @Override
   public void configure(Rect bounds) {
-    List<Slide>  slides = new ArrayList<>();
-    for (Field field : Deck.class.getDeclaredFields()) {
-      try {
-        Object value = field.get(null);
-        if (value instanceof Slide) {
-          slides.add((Slide) value);
-        }
-      } catch (IllegalAccessException e) {
-        // ignore
-      }
+    if (USE_COMPILED_TIMELINE && configureCompiled(bounds)) {
+      return;
     }
 
-    Slide priorSlide = null;
-    Slide currentSlide = null;
+    int keyFrameCount = mSlides.getKeyFrameCount();
+    if (keyFrameCount > WINDOWED_KEY_FRAME_THRESHOLD) {
+      for (int i = 0; i < keyFrameCount; i++) {
+        makeLazyKeyFrame();
+      }
+      setKeyFrameWindow(mSlides, KEY_FRAME_WINDOW_RADIUS, MAX_RESIDENT_KEY_FRAMES);
+    } else {
+      for (int i = 0; i < keyFrameCount; i++) {
+        mSlides.buildKeyFrame(i, makeKeyFrame());
+      }
+    }
+  }
 
-    for (int i = 0; i < slides.size() + 2; i++) {
+  /**
+   * Open the deck compiled by a previous launch. If there is none for these bounds and this
+   * install, it is compiled in the background for the next launch and this one builds the deck.
+   * Only the key frames around the first slide are decoded.
+   * @return false if the compiled deck can't be used
+   */
+  private boolean configureCompiled(Rect bounds) {
+    Context context = getContext();
+    long stamp;
+    try {
+      stamp = context
+          .getPackageManager()
+          .getPackageInfo(context.getPackageName(), 0)
+          .lastUpdateTime;
+    } catch (PackageManager.NameNotFoundException e) {
+      return false;
+    }
+    Resources resources = context.getResources();
+    int width = bounds.width();
+    int height = bounds.height();
+    File file = new File(context.getCacheDir(), "deck_" + width + "x" + height + ".dctl");
 
-      Frame frame = makeKeyFrame();
-      if (priorSlide != null) {
-        frame.addLayerStates(priorSlide.getExitedLayerStates());
-      }
+    CompiledTimeline compiled =
+        CompiledTimeline.open(file, resources, width, height, stamp);
+    if (compiled == null) {
+      compileInBackground(file, resources, width, height, stamp);
+      return false;
+    }
 
-      if (currentSlide != null) {
-        frame.addLayerStates(currentSlide.getPresentedLayerStates());
-        priorSlide = currentSlide;
-      }
+    for (int i = 0; i < compiled.getKeyFrameCount(); i++) {
+      makeLazyKeyFrame().setDuration(compiled.getDuration(i));
+    }
+    setKeyFrameWindow(compiled, KEY_FRAME_WINDOW_RADIUS, MAX_RESIDENT_KEY_FRAMES);
+    return true;
+  }
 
-      Slide nextSlide = null;
-      if (i < slides.size()) {
-        nextSlide = slides.get(i);
-        frame.addLayerStates(nextSlide.getInitialLayerStates());
+  /**
+   * Compile the deck without blocking the main thread. The compiler builds the key frames from
+   * slides of its own, the timeline builds its key frames from its slides meanwhile.
+   */
+  private static void compileInBackground(
+      final File file,
+      final Resources resources,
+      final int width,
+      final int height,
+      final long stamp) {
+    new Thread(new Runnable() {
+      @Override
+      public void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        // Timelines configured at the same time share the file, only one of them compiles it.
+        synchronized (PresentationTimeline.class) {
+          if (CompiledTimeline.open(file, resources, width, height, stamp) != null) {
+            return;
+          }
+          DeckSlides slides = new DeckSlides(DECK);
+          try {
+            CompiledTimeline.write(
+                file,
+                resources,
+                width,
+                height,
+                stamp,
+                slides.getKeyFrameCount(),
+                slides);
+          } catch (IOException e) {
+            Log.w(TAG, "Unable to compile the deck", e);
+          }
+        }
       }
-      currentSlide = nextSlide;
-    }
+    }, "DeckCompiler").start();
   }
 }
@@ -7,26 +7,76 @@ import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Rect;
 import android.util.AttributeSet;
+import android.view.Display;
 import android.view.GestureDetector;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewTreeObserver;
 import android.widget.FrameLayout;
 
+import im.wsb.droidcon.timeline.BitmapCache;
+import im.wsb.droidcon.timeline.BitmapLoader;
+import im.wsb.droidcon.timeline.Frame;
+import im.wsb.droidcon.timeline.LayerRasterCache;
+import im.wsb.droidcon.timeline.PackedFrame;
+import im.wsb.droidcon.timeline.RenderCommandExecutor;
+import im.wsb.droidcon.timeline.RenderCommandList;
 import im.wsb.droidcon.timeline.Renderer;
+import im.wsb.droidcon.timeline.TextLayoutCache;
+import im.wsb.droidcon.timeline.TextRasterCache;
 import im.wsb.droidcon.timeline.Timeline;
+import im.wsb.droidcon.timeline.TweenPipeline;
 
 public class PresentationView extends FrameLayout implements
+    BitmapLoader.Listener,
     GestureDetector.OnGestureListener,
     Timeline.Listener,
+    TweenPipeline.Listener,
     View.OnClickListener {
 
   private static final double MAX_FLING_VELOCITY_RATIO = 3;
+  // Tween and render through the structure of arrays PackedFrame instead of LayerState objects.
+  private static final boolean USE_PACKED_FRAMES = false;
+  // Tween on a background thread and only draw the produced frames on the UI thread.
+  private static final boolean USE_TWEEN_PIPELINE = false;
+  // Only invalidate the bounds of layers that changed since the last progress update. Off since
+  // only software rendering benefits: with hardware acceleration on API 21+ invalidate(Rect)
+  // invalidates the whole view, so computing the bounds is wasted work on every frame.
+  private static final boolean USE_DIRTY_REGIONS = false;
+  // Record frames into command lists once per progress update, replaying them to draw and skipping
+  // unchanged frames.
+  private static final boolean USE_COMMAND_LISTS = false;
+  private static final long DEFAULT_FRAME_INTERVAL_MS = 16;
+  // How many key frames on either side of the current one have their bitmaps decoded ahead.
+  private static final int BITMAP_PREFETCH_RADIUS = 2;
+  // How many key frames on either side of the current one have their text laid out ahead.
+  private static final int TEXT_PREWARM_RADIUS = 2;
+  // Draw text layers as cached bitmaps, and how many bytes of them to keep.
+  private static final boolean RASTERIZE_TEXT = true;
+  private static final int TEXT_RASTER_CACHE_BYTES = 4 * 1024 * 1024;
+  // Composite layers with stable content from offscreen rasters, and how many bytes to keep.
+  private static final boolean RASTERIZE_LAYERS = true;
+  private static final int LAYER_RASTER_CACHE_BYTES = 8 * 1024 * 1024;
 
   private final PresentationTimeline mTimeline;
   private final GestureDetector mGestureDetector;
   private final Renderer mRenderer;
   private final MainActivity mActivity;
+  private final TweenPipeline mTweenPipeline;
+  private final BitmapCache mBitmapCache = BitmapCache.getInstance();
+  // Decodes while the view is attached, its threads are stopped on detach.
+  private BitmapLoader mBitmapLoader;
+  private final Rect mDirtyBounds = new Rect();
+  private final Rect mViewBounds = new Rect();
+  private final RenderCommandExecutor mCommandExecutor = new RenderCommandExecutor();
+  // Recorded on the last progress update and not drawn yet.
+  private RenderCommandList mRecordedCommands = new RenderCommandList();
+  private boolean mHasRecordedCommands;
+  // Drawn last, replayed as long as nothing else changed.
+  private RenderCommandList mDrawnCommands = new RenderCommandList();
+  private boolean mDrawnCommandsStale = true;
+  // Commands recorded before bitmaps were evicted may still draw them, so they are recorded again.
+  private int mRecordedEvictionCount;
   private float mLastVelocityX;
 
   public PresentationView(Context context) {
@@ -47,6 +97,13 @@ public class PresentationView extends FrameLayout implements
     mTimeline.addListener(this);
     mGestureDetector = new GestureDetector(context, this);
     mRenderer = new Renderer(context);
+    if (RASTERIZE_TEXT) {
+      mRenderer.setTextRasterCache(new TextRasterCache(TEXT_RASTER_CACHE_BYTES));
+    }
+    if (RASTERIZE_LAYERS) {
+      mRenderer.setLayerRasterCache(new LayerRasterCache(LAYER_RASTER_CACHE_BYTES));
+    }
+    mTweenPipeline = USE_TWEEN_PIPELINE ? new TweenPipeline(USE_PACKED_FRAMES, this) : null;
 
     getViewTreeObserver().addOnGlobalLayoutListener(
         new ViewTreeObserver.OnGlobalLayoutListener() {
@@ -55,17 +112,99 @@ public class PresentationView extends FrameLayout implements
             getViewTreeObserver().removeOnGlobalLayoutListener(this);
             Rect bounds = new Rect(0, 0, getWidth(), getHeight());
             mTimeline.configure(bounds);
+            attachCaches();
           }
         });
     setOnClickListener(this);
   }
 
+  @Override
+  protected void onAttachedToWindow() {
+    super.onAttachedToWindow();
+    if (mTweenPipeline != null) {
+      mTweenPipeline.start();
+    }
+    mBitmapLoader = new BitmapLoader(getContext().getResources(), mBitmapCache, this);
+    if (mTimeline.ready()) {
+      // Attached again after the first layout configured the timeline.
+      attachCaches();
+    }
+  }
+
+  @Override
+  protected void onDetachedFromWindow() {
+    if (mTweenPipeline != null) {
+      mTweenPipeline.stop();
+    }
+    mTimeline.setBitmapLoader(null, 0);
+    mTimeline.setTextLayoutCache(null, 0);
+    mBitmapLoader.shutdown();
+    mBitmapLoader = null;
+    super.onDetachedFromWindow();
+  }
+
+  private void attachCaches() {
+    if (mBitmapLoader != null) {
+      mTimeline.setBitmapLoader(mBitmapLoader, BITMAP_PREFETCH_RADIUS);
+    }
+    mTimeline.setTextLayoutCache(TextLayoutCache.getInstance(), TEXT_PREWARM_RADIUS);
+  }
+
   @Override
   protected void onDraw(Canvas canvas) {
     if (!mTimeline.ready()) {
       return;
     }
-    mRenderer.render(canvas, mTimeline.getTweenedFrame());
+    if (USE_COMMAND_LISTS) {
+      int evictionCount = mBitmapCache.evictionCount();
+      if (evictionCount != mRecordedEvictionCount) {
+        mRecordedEvictionCount = evictionCount;
+        mHasRecordedCommands = false;
+        mDrawnCommandsStale = true;
+      }
+      if (mHasRecordedCommands) {
+        // Keep what is drawn to compare the next frames against.
+        RenderCommandList drawnCommands = mDrawnCommands;
+        mDrawnCommands = mRecordedCommands;
+        mRecordedCommands = drawnCommands;
+        mHasRecordedCommands = false;
+      } else if (mDrawnCommandsStale) {
+        // Drawn for something other than a progress update, like a bitmap being loaded or evicted.
+        recordFrame(mDrawnCommands);
+      }
+      mDrawnCommandsStale = false;
+      mCommandExecutor.execute(mDrawnCommands, canvas);
+    } else if (USE_PACKED_FRAMES) {
+      PackedFrame frame = mTweenPipeline != null ? mTweenPipeline.acquirePackedFrame() : null;
+      mRenderer.render(canvas, frame != null ? frame : mTimeline.getPackedTweenedFrame());
+    } else {
+      Frame frame = mTweenPipeline != null ? mTweenPipeline.acquireFrame() : null;
+      mRenderer.render(canvas, frame != null ? frame : mTimeline.getTweenedFrame());
+    }
+    mBitmapCache.releaseEvicted();
+  }
+
+  private void recordFrame(RenderCommandList out) {
+    // Recorded for the whole view, the canvas clips whatever falls outside the dirty bounds.
+    mViewBounds.set(0, 0, getWidth(), getHeight());
+    if (USE_PACKED_FRAMES) {
+      PackedFrame frame = mTweenPipeline != null ? mTweenPipeline.acquirePackedFrame() : null;
+      mRenderer.record(
+          frame != null ? frame : mTimeline.getPackedTweenedFrame(),
+          mViewBounds,
+          out);
+    } else {
+      Frame frame = mTweenPipeline != null ? mTweenPipeline.acquireFrame() : null;
+      mRenderer.record(frame != null ? frame : mTimeline.getTweenedFrame(), mViewBounds, out);
+    }
+  }
+
+  private long getFrameIntervalMillis() {
+    Display display = mActivity.getWindowManager().getDefaultDisplay();
+    if (display == null || display.getRefreshRate() <= 0) {
+      return DEFAULT_FRAME_INTERVAL_MS;
+    }
+    return Math.round(1000 / display.getRefreshRate());
   }
 
   /* OnTouchListener */
@@ -86,7 +225,29 @@ public class PresentationView extends FrameLayout implements
   /* Timeline.Listener */
   @Override
   public void onProgressChanged(Timeline timeline) {
-    invalidate();
+    if (mTweenPipeline != null) {
+      // The frame drawn next is produced for the upcoming vsync, onFrameProduced invalidates.
+      mTimeline.requestTweenedFrame(mTweenPipeline, getFrameIntervalMillis());
+    } else if (USE_COMMAND_LISTS && !recordProgress()) {
+      // The progress changed without changing what is drawn, like while settled or clamped.
+    } else if (USE_DIRTY_REGIONS && mTimeline.getDirtyBounds(mDirtyBounds)) {
+      // The Renderer culls the layers outside of the clip the invalidated bounds end up as.
+      if (!mDirtyBounds.isEmpty()) {
+        invalidate(mDirtyBounds);
+      }
+    } else {
+      invalidate();
+    }
+  }
+
+  /**
+   * Record the frame at the new progress for the next draw.
+   * @return false if it draws the same as the frame already on screen
+   */
+  private boolean recordProgress() {
+    recordFrame(mRecordedCommands);
+    mHasRecordedCommands = mDrawnCommandsStale || !mRecordedCommands.contentEquals(mDrawnCommands);
+    return mHasRecordedCommands;
   }
 
   @Override
@@ -97,6 +258,20 @@ public class PresentationView extends FrameLayout implements
   public void onFinished(Timeline timeline) {
   }
 
+  /* BitmapLoader.Listener */
+  @Override
+  public void onBitmapLoaded(BitmapLoader loader) {
+    mDrawnCommandsStale = true;
+    invalidate();
+  }
+
+  /* TweenPipeline.Listener */
+  @Override
+  public void onFrameProduced(TweenPipeline pipeline) {
+    mDrawnCommandsStale = true;
+    postInvalidateOnAnimation();
+  }
+
   @Override
   public void onClick(View v) {
   }
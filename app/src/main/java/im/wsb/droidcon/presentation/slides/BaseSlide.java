@@ -1,11 +1,11 @@
 package im.wsb.droidcon.presentation.slides;
 
 import android.graphics.Color;
-import android.text.Layout;
 
 import java.util.Map;
 
 import im.wsb.droidcon.timeline.LayerState;
+import im.wsb.droidcon.timeline.TextAlignment;
 
 public abstract class BaseSlide extends Slide {
 
@@ -24,8 +24,9 @@ public abstract class BaseSlide extends Slide {
   @Override
   protected void defineLayers(Map<String, LayerState> layers) {
     if (mBackgroundResId != 0) {
+      // Decode for the slide size, the renderer center crops the background into the frame anyway.
       LayerState imageLayer = makeLayer("image")
-          .setBitmap(mBackgroundResId)
+          .setBitmap(mBackgroundResId, getWidth(), getHeight())
           .copyFrame(getFrameLayer());
       layers.put(imageLayer.name, imageLayer);
     }
@@ -36,7 +37,7 @@ public abstract class BaseSlide extends Slide {
         .setText(mTitle)
         .setColor(Color.WHITE)
         .setTextSize(px(48))
-        .setTextAlignment(Layout.Alignment.ALIGN_CENTER)
+        .setTextAlignment(TextAlignment.CENTER)
         .centerInLayer(getContentFrameLayer())
         .offsetTop(px(-24));
     layers.put(titleLayer.name, titleLayer);
@@ -46,7 +47,7 @@ public abstract class BaseSlide extends Slide {
         .setText(mSubtitle)
         .setColor(Color.WHITE)
         .setTextSize(px(24))
-        .setTextAlignment(Layout.Alignment.ALIGN_CENTER)
+        .setTextAlignment(TextAlignment.CENTER)
         .centerInLayer(getContentFrameLayer())
         .offsetTop(px(24));
     layers.put(subtitleLayer.name, subtitleLayer);
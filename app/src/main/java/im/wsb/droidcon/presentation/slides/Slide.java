@@ -20,10 +20,15 @@ public abstract class Slide {
   private final DisplayMetrics mDisplayMetrics;
   private final LayerState mContentFrame;
   private String mUid;
+  // Frozen copies of the defined layers shared by every state that doesn't change them.
+  private Map<String, LayerState> mSnapshots;
 
   public Slide() {
-    mDisplayMetrics =
-        PresentationApplication.getsInstance().getResources().getDisplayMetrics();
+    this(PresentationApplication.getsInstance().getResources().getDisplayMetrics());
+  }
+
+  protected Slide(DisplayMetrics displayMetrics) {
+    mDisplayMetrics = displayMetrics;
     mUid = UUID.randomUUID().toString();
     mWidth = mDisplayMetrics.widthPixels;
     mHeight = mDisplayMetrics.heightPixels;
@@ -48,33 +53,45 @@ public abstract class Slide {
   }
 
   private Map<String, LayerState> getLayers() {
-    Map<String, LayerState> copy = new LinkedHashMap<>();
-    for (LayerState layerState : mLayers.values()) {
-      copy.put(layerState.name.replace(mUid, ""), layerState.copy());
+    if (mSnapshots == null) {
+      mSnapshots = new LinkedHashMap<>();
+      for (LayerState layerState : mLayers.values()) {
+        mSnapshots.put(layerState.name.replace(mUid, ""), layerState.copy().freeze());
+      }
     }
-    return copy;
+    Map<String, LayerState> layers = new CopyOnWriteLayers();
+    layers.putAll(mSnapshots);
+    return layers;
   }
 
   public Slide defineLayers() {
     defineLayers(mLayers);
+    mSnapshots = null;
     return this;
   }
 
   public Collection<LayerState> getInitialLayerStates() {
     Map<String, LayerState> layers = getLayers();
     getInitialLayerStates(layers);
-    return layers.values();
+    return freeze(layers);
   }
 
   public Collection<LayerState> getPresentedLayerStates() {
     Map<String, LayerState> layers = getLayers();
     getPresentedLayerStates(layers);
-    return layers.values();
+    return freeze(layers);
   }
 
   public Collection<LayerState> getExitedLayerStates() {
     Map<String, LayerState> layers = getLayers();
     getExitedLayerStates(layers);
+    return freeze(layers);
+  }
+
+  private static Collection<LayerState> freeze(Map<String, LayerState> layers) {
+    for (LayerState layerState : layers.values()) {
+      layerState.freeze();
+    }
     return layers.values();
   }
 
@@ -106,4 +123,20 @@ public abstract class Slide {
   protected LayerState makeLayer() {
     return new LayerState(UUID.randomUUID().toString());
   }
+
+  /**
+   * Layers handed to the state callbacks. The first lookup of a layer swaps its shared snapshot for
+   * a private copy, so only the layers a state actually changes are copied.
+   */
+  private static class CopyOnWriteLayers extends LinkedHashMap<String, LayerState> {
+    @Override
+    public LayerState get(Object key) {
+      LayerState layerState = super.get(key);
+      if (layerState != null && layerState.isFrozen()) {
+        layerState = layerState.copy();
+        put((String) key, layerState);
+      }
+      return layerState;
+    }
+  }
 }
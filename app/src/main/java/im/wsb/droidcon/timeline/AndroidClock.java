@@ -0,0 +1,17 @@
+// Copyright 2004-present Facebook. All Rights Reserved.
+
+package im.wsb.droidcon.timeline;
+
+import android.os.SystemClock;
+
+/**
+ * A {@link Clock} reading {@link SystemClock#uptimeMillis()}, the time base of the Choreographer
+ * and of input events.
+ */
+public class AndroidClock implements Clock {
+
+  @Override
+  public long uptimeMillis() {
+    return SystemClock.uptimeMillis();
+  }
+}
@@ -0,0 +1,71 @@
+// Copyright 2004-present Facebook. All Rights Reserved.
+
+package im.wsb.droidcon.timeline;
+
+import android.graphics.Bitmap;
+import android.text.Layout;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+
+/**
+ * AndroidLayers reads the platform content of {@link LayerState}s as the Android types installed
+ * by {@link ResourceImageSource} and {@link TextLayoutCache}.
+ */
+public final class AndroidLayers {
+
+  private AndroidLayers() {
+  }
+
+  /**
+   * Get the bitmap to draw, see {@link LayerState#getBitmap()}.
+   * @return the bitmap or null if it is not decoded yet
+   */
+  public static Bitmap getBitmap(LayerState layerState) {
+    return (Bitmap) layerState.getBitmap();
+  }
+
+  /**
+   * Get the bitmap resampled for the size it is decoded for along with its mip chain, once a
+   * {@link BitmapLoader} has created them.
+   * @return the variants or null for full size bitmaps and bitmaps that are not loaded yet
+   */
+  public static BitmapVariants getBitmapVariants(LayerState layerState) {
+    if (layerState.bitmapResId == 0 ||
+        layerState.bitmapWidth <= 0 ||
+        layerState.bitmapHeight <= 0) {
+      return null;
+    }
+    return BitmapCache.getInstance().peekVariants(
+        layerState.bitmapResId,
+        layerState.bitmapWidth,
+        layerState.bitmapHeight);
+  }
+
+  /**
+   * Get the text layout of a layer, ready to draw in the color, alpha and text size of the layer.
+   * The layout is shared through the TextLayoutCache so the paint it draws with is updated, which
+   * must only happen on the main thread.
+   * @return the layout or null for layers without text
+   */
+  public static StaticLayout getTextLayout(LayerState layerState) {
+    StaticLayout textLayout = (StaticLayout) layerState.getTextLayout();
+    if (textLayout != null) {
+      TextPaint paint = textLayout.getPaint();
+      paint.setColor(layerState.color);
+      paint.setAlpha(Math.round(layerState.alpha * 255));
+      paint.setTextSize(layerState.textSize);
+    }
+    return textLayout;
+  }
+
+  public static Layout.Alignment toLayoutAlignment(TextAlignment alignment) {
+    switch (alignment) {
+      case NORMAL:
+        return Layout.Alignment.ALIGN_NORMAL;
+      case OPPOSITE:
+        return Layout.Alignment.ALIGN_OPPOSITE;
+      default:
+        return Layout.Alignment.ALIGN_CENTER;
+    }
+  }
+}
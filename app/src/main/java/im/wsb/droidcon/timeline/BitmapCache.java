@@ -0,0 +1,419 @@
+// Copyright 2004-present Facebook. All Rights Reserved.
+
+package im.wsb.droidcon.timeline;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.util.LruCache;
+
+/**
+ * BitmapCache is a process wide cache of decoded bitmap resources keyed by resource id and the
+ * size they were decoded for. Entries are weighed by their byte size and the least recently used
+ * are evicted once the byte budget is exceeded. Layers showing the same drawable share one decode.
+ * The {@link BitmapVariants} resampled for a frame size share the same budget.
+ *
+ * Entries that are not near the current key frame are additionally held to a smaller far budget by
+ * {@link #trimFar}, called at the end of each prefetch pass. The levels of variants it evicts go to
+ * a {@link BitmapPool} so resampling the bitmaps of the next slides reuses their memory. An evicted
+ * bitmap may still be drawn by a display list, a recorded command list or a produced frame, so it
+ * is only released to the pool by {@link #releaseEvicted()} once a whole frame was drawn since.
+ *
+ * Drawing looks entries up with {@link #peek} and {@link #peekVariants}, which read a mirror of the
+ * cache contents without locking it, reordering it or counting hits. Recency comes from the
+ * {@link BitmapLoader} requesting the bitmaps near the current key frame once per prefetch pass.
+ */
+public class BitmapCache {
+
+  // Fraction of the heap the default cache may use.
+  private static final int DEFAULT_HEAP_FRACTION = 8;
+  // Fractions of the budget far entries and pooled bitmaps may use.
+  private static final int DEFAULT_FAR_FRACTION = 4;
+  private static final int POOL_FRACTION = 4;
+  private static final int MAX_DIMENSION = 0x7fff;
+  // Set on the keys of BitmapVariants entries.
+  private static final long VARIANTS_FLAG = 1L << 31;
+
+  private static BitmapCache sInstance;
+
+  // Holds decoded Bitmaps and BitmapVariants.
+  private final LruCache<Long, Object> mCache;
+  // The entries of mCache, read by the draw path.
+  private final ConcurrentHashMap<Long, Object> mEntries = new ConcurrentHashMap<>();
+  private final BitmapPool mPool;
+  private volatile DiskPixelCache mDiskCache;
+  private volatile int mFarBudget;
+  private int mFarEvictionCount;
+  /* Guarded by this. Evicted by trimFar since the last releaseEvicted, and before it. */
+  private List<Object> mEvicted = new ArrayList<>();
+  private List<Object> mRetiring = new ArrayList<>();
+
+  /**
+   * Get the process wide cache, created with a budget of an eighth of the heap on first use.
+   * @return the shared cache
+   */
+  public static synchronized BitmapCache getInstance() {
+    if (sInstance == null) {
+      long maxMemory = Runtime.getRuntime().maxMemory();
+      sInstance = new BitmapCache((int) (maxMemory / DEFAULT_HEAP_FRACTION));
+    }
+    return sInstance;
+  }
+
+  /**
+   * @param maxBytes the byte budget of the cache
+   */
+  public BitmapCache(int maxBytes) {
+    mCache = new LruCache<Long, Object>(maxBytes) {
+      @Override
+      protected int sizeOf(Long key, Object value) {
+        return BitmapCache.sizeOf(value);
+      }
+
+      @Override
+      protected void entryRemoved(boolean evicted, Long key, Object oldValue, Object newValue) {
+        if (newValue != null) {
+          mEntries.put(key, newValue);
+        } else {
+          mEntries.remove(key, oldValue);
+        }
+      }
+    };
+    mPool = new BitmapPool(maxBytes / POOL_FRACTION);
+    mFarBudget = maxBytes / DEFAULT_FAR_FRACTION;
+  }
+
+  /**
+   * Get a bitmap resource, decoding it on a miss. With a requested size only the center crop
+   * matching its aspect ratio is decoded, subsampled by a power of two as long as the result still
+   * covers the requested size.
+   * @param resources the resources to decode from
+   * @param resId the drawable to decode
+   * @param reqWidth the width the bitmap will be drawn at or 0 for the full size
+   * @param reqHeight the height the bitmap will be drawn at or 0 for the full size
+   * @return the decoded bitmap or null if the resource can't be decoded
+   */
+  public Bitmap get(Resources resources, int resId, int reqWidth, int reqHeight) {
+    long key = key(resId, reqWidth, reqHeight);
+    Bitmap bitmap = (Bitmap) mCache.get(key);
+    if (bitmap != null) {
+      return bitmap;
+    }
+
+    bitmap = decode(resources, resId, reqWidth, reqHeight);
+    if (bitmap != null) {
+      bitmap = (Bitmap) putIfAbsent(key, bitmap);
+    }
+    return bitmap;
+  }
+
+  /**
+   * Get a bitmap resource only if it is already decoded, without marking it as used.
+   * @return the cached bitmap or null
+   */
+  public Bitmap peek(int resId, int reqWidth, int reqHeight) {
+    return (Bitmap) mEntries.get(key(resId, reqWidth, reqHeight));
+  }
+
+  /**
+   * Mark an entry as the most recently used.
+   * @param key the key of the entry, see {@link #key} and {@link #variantsKey}
+   * @return whether the entry is cached
+   */
+  boolean touch(long key) {
+    return mCache.get(key) != null;
+  }
+
+  /**
+   * Keep the pixels of resampled variants on disk so later launches don't decode them again.
+   * @param diskCache the disk cache or null to stop using one
+   */
+  public void setDiskCache(DiskPixelCache diskCache) {
+    mDiskCache = diskCache;
+  }
+
+  /**
+   * Get the variants of a bitmap resource resampled for a frame size, decoding and resampling it
+   * on a miss. The resampled pixels are loaded from the disk cache when there is one, and the
+   * decoded source is dropped from the cache once its variants exist.
+   * @param resources the resources to decode from
+   * @param resId the drawable to decode
+   * @param width the width of the frame
+   * @param height the height of the frame
+   * @return the variants or null if the resource can't be decoded
+   */
+  public BitmapVariants getVariants(Resources resources, int resId, int width, int height) {
+    long key = variantsKey(resId, width, height);
+    BitmapVariants variants = (BitmapVariants) mCache.get(key);
+    if (variants != null) {
+      return variants;
+    }
+
+    DiskPixelCache diskCache = mDiskCache;
+    Bitmap source = null;
+    if (diskCache != null) {
+      source = diskCache.load(resId, width, height, Bitmap.Config.ARGB_8888, mPool);
+    }
+    boolean decoded = source == null;
+    if (decoded) {
+      source = get(resources, resId, width, height);
+      if (source == null) {
+        return null;
+      }
+    }
+
+    variants = BitmapVariants.create(source, width, height, mPool);
+    if (decoded) {
+      if (diskCache != null) {
+        diskCache.save(resId, variants.getLevel(0));
+      }
+      mCache.remove(key(resId, width, height));
+    }
+    return (BitmapVariants) putIfAbsent(key, variants);
+  }
+
+  static long variantsKey(int resId, int width, int height) {
+    return key(resId, width, height) | VARIANTS_FLAG;
+  }
+
+  /**
+   * Get the variants of a bitmap resource only if they are already resampled, without marking them
+   * as used.
+   * @return the cached variants or null
+   */
+  public BitmapVariants peekVariants(int resId, int width, int height) {
+    return (BitmapVariants) mEntries.get(variantsKey(resId, width, height));
+  }
+
+  /**
+   * Set how many bytes entries that are not near the current key frame may use.
+   * @param farBudget the far budget in bytes
+   */
+  public void setFarBudget(int farBudget) {
+    mFarBudget = farBudget;
+  }
+
+  public int getFarBudget() {
+    return mFarBudget;
+  }
+
+  /**
+   * Evict the least recently used entries that are not near the current key frame until the rest
+   * fit the far budget. The evicted bitmaps are released to the pool by {@link #releaseEvicted()}
+   * once no frame draws them anymore.
+   * @param nearKeys the keys of the entries near the current key frame, see {@link #key}
+   */
+  public void trimFar(Set<Long> nearKeys) {
+    int farBudget = mFarBudget;
+    // The snapshot is ordered from least to most recently used.
+    Map<Long, Object> snapshot = mCache.snapshot();
+    int farBytes = 0;
+    for (Map.Entry<Long, Object> entry : snapshot.entrySet()) {
+      if (!nearKeys.contains(entry.getKey())) {
+        farBytes += sizeOf(entry.getValue());
+      }
+    }
+    for (Map.Entry<Long, Object> entry : snapshot.entrySet()) {
+      if (farBytes <= farBudget) {
+        break;
+      }
+      if (nearKeys.contains(entry.getKey())) {
+        continue;
+      }
+      Object value = mCache.remove(entry.getKey());
+      if (value == null) {
+        // Already evicted.
+        continue;
+      }
+      farBytes -= sizeOf(value);
+      synchronized (this) {
+        mFarEvictionCount++;
+        mEvicted.add(value);
+      }
+    }
+  }
+
+  /**
+   * Release the bitmaps evicted by {@link #trimFar} to the pool once a whole frame was drawn after
+   * their eviction, so no display list, command list or produced frame still draws them. Call it
+   * after every drawn frame: a bitmap evicted before a frame is released after the next one.
+   */
+  public void releaseEvicted() {
+    List<Object> released;
+    synchronized (this) {
+      if (mRetiring.isEmpty() && mEvicted.isEmpty()) {
+        return;
+      }
+      released = mRetiring;
+      mRetiring = mEvicted;
+      mEvicted = new ArrayList<>();
+    }
+    for (int i = 0; i < released.size(); i++) {
+      Object value = released.get(i);
+      if (value instanceof BitmapVariants) {
+        ((BitmapVariants) value).release(mPool);
+      } else {
+        mPool.release((Bitmap) value);
+      }
+    }
+  }
+
+  /**
+   * @return the pool evicted bitmaps are reused from
+   */
+  public BitmapPool getPool() {
+    return mPool;
+  }
+
+  public int hitCount() {
+    return mCache.hitCount();
+  }
+
+  public int missCount() {
+    return mCache.missCount();
+  }
+
+  /**
+   * @return the number of entries evicted over the budget or the far budget
+   */
+  public int evictionCount() {
+    synchronized (this) {
+      return mCache.evictionCount() + mFarEvictionCount;
+    }
+  }
+
+  /**
+   * @return the bytes used by the cached bitmaps
+   */
+  public int size() {
+    return mCache.size();
+  }
+
+  /**
+   * @return the byte budget of the cache
+   */
+  public int maxSize() {
+    return mCache.maxSize();
+  }
+
+  public void evictAll() {
+    mCache.evictAll();
+    synchronized (this) {
+      // Dropped rather than pooled, frames may still draw them.
+      mEvicted.clear();
+      mRetiring.clear();
+    }
+    mPool.clear();
+  }
+
+  @Override
+  public String toString() {
+    return "BitmapCache{bytes=" + size() + "/" + maxSize() +
+        ", hits=" + hitCount() +
+        ", misses=" + missCount() +
+        ", evictions=" + evictionCount() +
+        ", pooled=" + mPool.size() + "}";
+  }
+
+  private Object putIfAbsent(long key, Object value) {
+    // Mirrored before it is cached, so evicting it right away can't leave a stale mirror entry.
+    mEntries.put(key, value);
+    // Keep the value another thread may have created in the meantime so layers share one copy.
+    Object previous = mCache.put(key, value);
+    if (previous != null) {
+      mCache.put(key, previous);
+      return previous;
+    }
+    return value;
+  }
+
+  private static int sizeOf(Object value) {
+    return value instanceof BitmapVariants ?
+        ((BitmapVariants) value).getByteCount() :
+        ((Bitmap) value).getByteCount();
+  }
+
+  static long key(int resId, int width, int height) {
+    return ((long) resId << 32) |
+        ((long) Math.max(0, Math.min(width, MAX_DIMENSION)) << 16) |
+        Math.max(0, Math.min(height, MAX_DIMENSION));
+  }
+
+  /**
+   * Find the largest power of two sample size that keeps the bitmap at least as large as the
+   * requested size in both dimensions.
+   */
+  static int computeSampleSize(int width, int height, int reqWidth, int reqHeight) {
+    int sampleSize = 1;
+    if (reqWidth <= 0 || reqHeight <= 0) {
+      return sampleSize;
+    }
+    while (width / (sampleSize * 2) >= reqWidth && height / (sampleSize * 2) >= reqHeight) {
+      sampleSize *= 2;
+    }
+    return sampleSize;
+  }
+
+  private static Bitmap decode(Resources resources, int resId, int reqWidth, int reqHeight) {
+    BitmapFactory.Options options = new BitmapFactory.Options();
+    if (reqWidth > 0 && reqHeight > 0) {
+      Bitmap bitmap = decodeCrop(resources, resId, reqWidth, reqHeight);
+      if (bitmap != null) {
+        return bitmap;
+      }
+      options.inJustDecodeBounds = true;
+      BitmapFactory.decodeResource(resources, resId, options);
+      options.inSampleSize =
+          computeSampleSize(options.outWidth, options.outHeight, reqWidth, reqHeight);
+      options.inJustDecodeBounds = false;
+    }
+    return BitmapFactory.decodeResource(resources, resId, options);
+  }
+
+  /**
+   * Decode only the center crop of a resource that matches the aspect ratio of the requested size,
+   * subsampled to fit it. Everything outside the crop is never drawn, so there is no point in
+   * decoding it or keeping it in memory.
+   * @return the cropped bitmap or null if the resource can't be region decoded
+   */
+  private static Bitmap decodeCrop(Resources resources, int resId, int reqWidth, int reqHeight) {
+    InputStream in = null;
+    BitmapRegionDecoder decoder = null;
+    try {
+      in = resources.openRawResource(resId);
+      decoder = BitmapRegionDecoder.newInstance(in, false);
+      Rect crop = new Rect();
+      BitmapVariants.centerCrop(
+          decoder.getWidth(),
+          decoder.getHeight(),
+          (float) reqWidth / reqHeight,
+          crop);
+      BitmapFactory.Options options = new BitmapFactory.Options();
+      options.inSampleSize = computeSampleSize(crop.width(), crop.height(), reqWidth, reqHeight);
+      return decoder.decodeRegion(crop, options);
+    } catch (IOException | Resources.NotFoundException e) {
+      return null;
+    } finally {
+      if (decoder != null) {
+        decoder.recycle();
+      }
+      if (in != null) {
+        try {
+          in.close();
+        } catch (IOException e) {
+          // ignore
+        }
+      }
+    }
+  }
+}
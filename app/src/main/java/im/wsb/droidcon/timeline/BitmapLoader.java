@@ -0,0 +1,231 @@
+// Copyright 2004-present Facebook. All Rights Reserved.
+
+package im.wsb.droidcon.timeline;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import android.content.res.Resources;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+/**
+ * BitmapLoader decodes bitmap resources into the {@link BitmapCache} on background threads so
+ * drawing never waits for a decode. Bitmaps requested for a size are resampled into
+ * {@link BitmapVariants} on the same threads. Requests are made in prefetch passes by the
+ * {@link Timeline}: each request carries a priority, lower values are decoded first, and requests
+ * that are not repeated in the next pass are cancelled unless they are already decoding. Cached
+ * bitmaps that were not requested in a pass are far from the current key frame, and are trimmed to
+ * the far budget of the cache when the pass ends. The decode threads run until {@link #shutdown()},
+ * after which the loader can't be used anymore.
+ */
+public class BitmapLoader {
+
+  public interface Listener {
+    /**
+     * Called on the main thread whenever a requested bitmap has been decoded.
+     */
+    void onBitmapLoaded(BitmapLoader loader);
+  }
+
+  private static final int DECODE_THREADS = 2;
+
+  private final Resources mResources;
+  private final BitmapCache mCache;
+  private final Listener mListener;
+  private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+  private final ThreadPoolExecutor mExecutor;
+  private final Runnable mNotifyRunnable;
+
+  /* Guarded by this. */
+  private final Map<Long, DecodeTask> mTasks = new HashMap<>();
+  private final Set<Long> mNearKeys = new HashSet<>();
+  private int mPass;
+  private long mSequence;
+
+  /**
+   * @param resources the resources to decode from
+   * @param cache the cache decoded bitmaps are put in
+   * @param listener notified on the main thread when a bitmap is decoded
+   */
+  public BitmapLoader(Resources resources, BitmapCache cache, Listener listener) {
+    mResources = resources;
+    mCache = cache;
+    mListener = listener;
+    mExecutor = new ThreadPoolExecutor(
+        DECODE_THREADS,
+        DECODE_THREADS,
+        0L,
+        TimeUnit.MILLISECONDS,
+        new PriorityBlockingQueue<Runnable>(),
+        new ThreadFactory() {
+          @Override
+          public Thread newThread(final Runnable runnable) {
+            return new Thread(new Runnable() {
+              @Override
+              public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                runnable.run();
+              }
+            }, "BitmapLoader");
+          }
+        });
+    // Start every decode thread now. While the pool is below its core size an executor hands new
+    // tasks straight to a new thread, so the first requests would skip the priority queue.
+    mExecutor.prestartAllCoreThreads();
+    mNotifyRunnable = new Runnable() {
+      @Override
+      public void run() {
+        if (mListener != null) {
+          mListener.onBitmapLoaded(BitmapLoader.this);
+        }
+      }
+    };
+  }
+
+  /**
+   * Start a prefetch pass. Requests of the previous pass that are not made again before
+   * {@link #endPrefetch()} are cancelled.
+   */
+  public synchronized void beginPrefetch() {
+    mPass++;
+    mNearKeys.clear();
+  }
+
+  /**
+   * Ask for a bitmap resource to be decoded. Requesting a bitmap that is already queued only
+   * updates its priority, and requesting one that is already cached keeps it from being trimmed.
+   * @param resId the drawable to decode
+   * @param reqWidth the width the bitmap will be drawn at or 0 for the full size
+   * @param reqHeight the height the bitmap will be drawn at or 0 for the full size
+   * @param priority lower values are decoded first
+   */
+  public synchronized void request(int resId, int reqWidth, int reqHeight, int priority) {
+    long key = BitmapCache.key(resId, reqWidth, reqHeight);
+    boolean sized = reqWidth > 0 && reqHeight > 0;
+    mNearKeys.add(key);
+    if (sized) {
+      mNearKeys.add(BitmapCache.variantsKey(resId, reqWidth, reqHeight));
+      if (mCache.touch(BitmapCache.variantsKey(resId, reqWidth, reqHeight))) {
+        return;
+      }
+    } else if (mCache.touch(key)) {
+      return;
+    }
+    DecodeTask task = mTasks.get(key);
+    if (task == null) {
+      task = new DecodeTask(key, resId, reqWidth, reqHeight);
+      mTasks.put(key, task);
+    } else if (task.pass == mPass && task.priority <= priority) {
+      // Already requested at a higher priority in this pass.
+      return;
+    } else if (!mExecutor.remove(task)) {
+      // Already decoding.
+      task.pass = mPass;
+      return;
+    }
+    task.pass = mPass;
+    task.priority = priority;
+    task.sequence = mSequence++;
+    mExecutor.execute(task);
+  }
+
+  /**
+   * End a prefetch pass, cancelling the queued requests that were not made again and trimming the
+   * cached bitmaps that were not requested.
+   */
+  public synchronized void endPrefetch() {
+    List<Long> cancelled = null;
+    for (DecodeTask task : mTasks.values()) {
+      if (task.pass != mPass && mExecutor.remove(task)) {
+        if (cancelled == null) {
+          cancelled = new ArrayList<>();
+        }
+        cancelled.add(task.key);
+      }
+    }
+    if (cancelled != null) {
+      for (Long key : cancelled) {
+        mTasks.remove(key);
+      }
+    }
+    mCache.trimFar(mNearKeys);
+  }
+
+  /**
+   * Cancel every queued request. Decodes that already started still complete into the cache.
+   */
+  public synchronized void cancelAll() {
+    mExecutor.getQueue().clear();
+    mTasks.clear();
+    mMainHandler.removeCallbacks(mNotifyRunnable);
+  }
+
+  /**
+   * Cancel every queued request and stop the decode threads, so they don't keep the loader and its
+   * listener alive. Decodes that already started still complete into the cache, without notifying
+   * the listener.
+   */
+  public synchronized void shutdown() {
+    mExecutor.shutdownNow();
+    mTasks.clear();
+    mMainHandler.removeCallbacks(mNotifyRunnable);
+  }
+
+  private void onDecoded(DecodeTask task) {
+    synchronized (this) {
+      mTasks.remove(task.key);
+      if (mExecutor.isShutdown()) {
+        return;
+      }
+    }
+    mMainHandler.post(mNotifyRunnable);
+  }
+
+  private class DecodeTask implements Runnable, Comparable<DecodeTask> {
+
+    final long key;
+    final int resId;
+    final int reqWidth;
+    final int reqHeight;
+    /* Guarded by the loader. */
+    int pass;
+    int priority;
+    long sequence;
+
+    DecodeTask(long key, int resId, int reqWidth, int reqHeight) {
+      this.key = key;
+      this.resId = resId;
+      this.reqWidth = reqWidth;
+      this.reqHeight = reqHeight;
+    }
+
+    @Override
+    public void run() {
+      if (reqWidth > 0 && reqHeight > 0) {
+        mCache.getVariants(mResources, resId, reqWidth, reqHeight);
+      } else {
+        mCache.get(mResources, resId, reqWidth, reqHeight);
+      }
+      onDecoded(this);
+    }
+
+    @Override
+    public int compareTo(DecodeTask other) {
+      // The queue only holds tasks while they are not being reprioritized.
+      if (priority != other.priority) {
+        return priority < other.priority ? -1 : 1;
+      }
+      return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+    }
+  }
+}
@@ -0,0 +1,98 @@
+// Copyright 2004-present Facebook. All Rights Reserved.
+
+package im.wsb.droidcon.timeline;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+import android.graphics.Bitmap;
+
+/**
+ * BitmapPool holds mutable bitmaps that are no longer drawn so new bitmaps of the same size and
+ * config can be written into them instead of allocating. Slides mostly share one frame size, so
+ * the bitmaps of a slide that was left behind are exactly the allocations the next one needs.
+ */
+public class BitmapPool {
+
+  private final int mMaxBytes;
+  private final Map<Long, ArrayDeque<Bitmap>> mBitmaps = new HashMap<>();
+  private int mBytes;
+  private int mHits;
+  private int mMisses;
+
+  /**
+   * @param maxBytes how many bytes of bitmaps the pool may hold, further releases are dropped
+   */
+  public BitmapPool(int maxBytes) {
+    mMaxBytes = maxBytes;
+  }
+
+  /**
+   * Take a bitmap to overwrite. Its pixels are left as they are.
+   * @return a mutable bitmap of the provided size and config or null if there is none
+   */
+  public synchronized Bitmap acquire(int width, int height, Bitmap.Config config) {
+    ArrayDeque<Bitmap> bitmaps = mBitmaps.get(key(width, height, config));
+    Bitmap bitmap = bitmaps != null ? bitmaps.poll() : null;
+    if (bitmap == null) {
+      mMisses++;
+      return null;
+    }
+    mHits++;
+    mBytes -= bitmap.getByteCount();
+    return bitmap;
+  }
+
+  /**
+   * Take a bitmap to overwrite or allocate one.
+   * @return a mutable bitmap of the provided size and config
+   */
+  public Bitmap get(int width, int height, Bitmap.Config config) {
+    Bitmap bitmap = acquire(width, height, config);
+    return bitmap != null ? bitmap : Bitmap.createBitmap(width, height, config);
+  }
+
+  /**
+   * Hand a bitmap that will never be drawn again to the pool.
+   * @return true if the pool kept the bitmap
+   */
+  public synchronized boolean release(Bitmap bitmap) {
+    if (bitmap.isRecycled() ||
+        !bitmap.isMutable() ||
+        bitmap.getConfig() == null ||
+        mBytes + bitmap.getByteCount() > mMaxBytes) {
+      return false;
+    }
+    long key = key(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+    ArrayDeque<Bitmap> bitmaps = mBitmaps.get(key);
+    if (bitmaps == null) {
+      bitmaps = new ArrayDeque<>();
+      mBitmaps.put(key, bitmaps);
+    }
+    bitmaps.push(bitmap);
+    mBytes += bitmap.getByteCount();
+    return true;
+  }
+
+  public synchronized void clear() {
+    mBitmaps.clear();
+    mBytes = 0;
+  }
+
+  public synchronized int size() {
+    return mBytes;
+  }
+
+  public synchronized int hitCount() {
+    return mHits;
+  }
+
+  public synchronized int missCount() {
+    return mMisses;
+  }
+
+  private static long key(int width, int height, Bitmap.Config config) {
+    return ((long) config.ordinal() << 48) | ((long) width << 24) | height;
+  }
+}
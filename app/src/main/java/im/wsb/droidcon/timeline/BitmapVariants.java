@@ -0,0 +1,140 @@
+// Copyright 2004-present Facebook. All Rights Reserved.
+
+package im.wsb.droidcon.timeline;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+/**
+ * BitmapVariants holds a bitmap center cropped and resampled to exactly the size of the frame it
+ * is drawn in, followed by a small mip chain of half size levels for layers that scale down. The
+ * {@link Renderer} picks the smallest level covering the size a layer is drawn at, so images are
+ * drawn close to 1:1 instead of filter scaling the full source every frame.
+ */
+public class BitmapVariants {
+
+  private static final int MAX_LEVELS = 4;
+  // Levels smaller than this aren't worth the allocation.
+  private static final int MIN_LEVEL_SIZE = 32;
+
+  private final Bitmap[] mLevels;
+  private final int mByteCount;
+
+  private BitmapVariants(Bitmap[] levels) {
+    mLevels = levels;
+    int byteCount = 0;
+    for (Bitmap level : levels) {
+      byteCount += level.getByteCount();
+    }
+    mByteCount = byteCount;
+  }
+
+  /**
+   * Crop and resample a source bitmap for a frame.
+   * @param source the decoded source bitmap
+   * @param width the width of the frame
+   * @param height the height of the frame
+   * @param pool the pool to take the bitmaps of the levels from
+   * @return the variants of the source
+   */
+  public static BitmapVariants create(Bitmap source, int width, int height, BitmapPool pool) {
+    int levelCount = 1;
+    while (levelCount < MAX_LEVELS &&
+        (width >> levelCount) >= MIN_LEVEL_SIZE &&
+        (height >> levelCount) >= MIN_LEVEL_SIZE) {
+      levelCount++;
+    }
+
+    Bitmap[] levels = new Bitmap[levelCount];
+    if (source.getWidth() == width && source.getHeight() == height) {
+      levels[0] = source;
+    } else {
+      Rect crop = new Rect();
+      centerCrop(source.getWidth(), source.getHeight(), (float) width / height, crop);
+      levels[0] = resample(source, crop, width, height, pool);
+    }
+    for (int i = 1; i < levelCount; i++) {
+      levels[i] = resample(levels[i - 1], null, width >> i, height >> i, pool);
+    }
+    return new BitmapVariants(levels);
+  }
+
+  /**
+   * Find the aspect ratio matching center cropped rectangle of an image.
+   * @param imageWidth the width of the image
+   * @param imageHeight the height of the image
+   * @param frameAspect the aspect ratio of the frame the image fills
+   * @param out the rect to write the crop to
+   */
+  public static void centerCrop(int imageWidth, int imageHeight, float frameAspect, Rect out) {
+    float imageAspect = (float) imageWidth / (float) imageHeight;
+    if (imageAspect > frameAspect) {
+      // constrain width
+      int diff = Math.round((imageWidth - (imageHeight * frameAspect)) / 2f);
+      out.set(diff, 0, imageWidth - diff, imageHeight);
+    } else {
+      // constrain height
+      int diff = Math.round((imageHeight - (imageWidth / frameAspect)) / 2f);
+      out.set(0, diff, imageWidth, imageHeight - diff);
+    }
+  }
+
+  /**
+   * Pick the smallest level that still covers the size the image is drawn at.
+   * @param drawnWidth the width the image is drawn at, including its scale
+   * @param drawnHeight the height the image is drawn at, including its scale
+   * @return the level to draw
+   */
+  public Bitmap pick(float drawnWidth, float drawnHeight) {
+    int level = 0;
+    while (level + 1 < mLevels.length &&
+        mLevels[level + 1].getWidth() >= drawnWidth &&
+        mLevels[level + 1].getHeight() >= drawnHeight) {
+      level++;
+    }
+    return mLevels[level];
+  }
+
+  public int getLevelCount() {
+    return mLevels.length;
+  }
+
+  public Bitmap getLevel(int level) {
+    return mLevels[level];
+  }
+
+  public int getByteCount() {
+    return mByteCount;
+  }
+
+  /**
+   * Hand the levels to a pool once the variants will never be drawn again.
+   * @param pool the pool to release to
+   */
+  public void release(BitmapPool pool) {
+    for (Bitmap level : mLevels) {
+      pool.release(level);
+    }
+  }
+
+  private static Bitmap resample(
+      Bitmap source,
+      Rect crop,
+      int width,
+      int height,
+      BitmapPool pool) {
+    Bitmap.Config config =
+        source.getConfig() != null ? source.getConfig() : Bitmap.Config.ARGB_8888;
+    Bitmap bitmap = pool.get(width, height, config);
+    // Pooled bitmaps keep the pixels of their last use.
+    bitmap.eraseColor(Color.TRANSPARENT);
+    Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    new Canvas(bitmap).drawBitmap(source, crop, new Rect(0, 0, width, height), paint);
+    // Keep opaque sources opaque so the Renderer can cull what they cover.
+    bitmap.setHasAlpha(source.hasAlpha());
+    return bitmap;
+  }
+}
@@ -0,0 +1,436 @@
+// Copyright 2004-present Facebook. All Rights Reserved.
+
+package im.wsb.droidcon.timeline;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.content.res.Resources;
+
+/**
+ * CompiledTimeline is a {@link Timeline.KeyFrameSource} reading key frames from a compact binary
+ * file. The file is memory mapped and key frames are only decoded when the Timeline asks for them,
+ * so opening a compiled deck costs a header check no matter how many slides it has.
+ *
+ * All values are big endian. The file starts with a header, followed by:
+ * <ul>
+ *   <li>a key frame table of {@link #KEY_FRAME_ENTRY_SIZE} byte entries: the first entry of the
+ *   frame in the layer index, its layer count and its duration,</li>
+ *   <li>the layer index, one int record number per layer of every key frame in z order,</li>
+ *   <li>fixed size layer records of {@link #LAYER_RECORD_SIZE} bytes. Layers shared between key
+ *   frames are written once,</li>
+ *   <li>a string table of absolute offsets to length prefixed UTF-8 strings holding layer names,
+ *   text and resource names. Resources are stored by name since ids change between builds.</li>
+ * </ul>
+ */
+public class CompiledTimeline implements Timeline.KeyFrameSource {
+
+  private static final int MAGIC = 0x4443544C; // DCTL
+  private static final int FORMAT_VERSION = 2;
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final int NO_STRING = -1;
+
+  private static final int FLAG_FLIP = 1;
+  private static final int FLAG_MIRROR = 1 << 1;
+  private static final int ALIGNMENT_SHIFT = 2;
+  private static final int ALIGNMENT_MASK = 3;
+
+  /* Header */
+  private static final int HEADER_MAGIC = 0;
+  private static final int HEADER_FORMAT_VERSION = 4;
+  private static final int HEADER_WIDTH = 8;
+  private static final int HEADER_HEIGHT = 12;
+  private static final int HEADER_STAMP = 16;
+  private static final int HEADER_KEY_FRAME_COUNT = 24;
+  private static final int HEADER_LAYER_COUNT = 28;
+  private static final int HEADER_STRING_COUNT = 32;
+  private static final int HEADER_KEY_FRAME_TABLE = 36;
+  private static final int HEADER_LAYER_INDEX = 40;
+  private static final int HEADER_LAYER_RECORDS = 44;
+  private static final int HEADER_STRING_TABLE = 48;
+  private static final int HEADER_SIZE = 56;
+
+  /* Key frame table entry */
+  private static final int KEY_FRAME_FIRST_LAYER = 0;
+  private static final int KEY_FRAME_LAYER_COUNT = 4;
+  private static final int KEY_FRAME_DURATION = 8;
+  private static final int KEY_FRAME_ENTRY_SIZE = 16;
+
+  /* Layer record */
+  private static final int LAYER_NAME = 0;
+  private static final int LAYER_TEXT = 4;
+  private static final int LAYER_BITMAP = 8;
+  private static final int LAYER_FLAGS = 12;
+  private static final int LAYER_LEFT = 16;
+  private static final int LAYER_TOP = 20;
+  private static final int LAYER_RIGHT = 24;
+  private static final int LAYER_BOTTOM = 28;
+  private static final int LAYER_SCALE = 32;
+  private static final int LAYER_PX = 36;
+  private static final int LAYER_PY = 40;
+  private static final int LAYER_ROTATE = 44;
+  private static final int LAYER_ALPHA = 48;
+  private static final int LAYER_CORNER_RADIUS = 52;
+  private static final int LAYER_TEXT_SIZE = 56;
+  private static final int LAYER_COLOR = 60;
+  private static final int LAYER_BITMAP_WIDTH = 64;
+  private static final int LAYER_BITMAP_HEIGHT = 68;
+  private static final int LAYER_RECORD_SIZE = 72;
+
+  private static final TextAlignment[] ALIGNMENTS = TextAlignment.values();
+
+  private final ByteBuffer mBuffer;
+  private final Resources mResources;
+  private final int mKeyFrameCount;
+  private final int mKeyFrameTable;
+  private final int mLayerIndex;
+  private final int mLayerRecords;
+  private final int mStringTable;
+  // Strings are decoded the first time a key frame needs them.
+  private final String[] mStrings;
+  // Layers are decoded once and shared by every build of the key frames using them, so rebuilding
+  // an evicted key frame hands the Timeline the same frozen layers its tween plans skip over.
+  private final LayerState[] mLayers;
+
+  private CompiledTimeline(ByteBuffer buffer, Resources resources) {
+    mBuffer = buffer;
+    mResources = resources;
+    mKeyFrameCount = buffer.getInt(HEADER_KEY_FRAME_COUNT);
+    mKeyFrameTable = buffer.getInt(HEADER_KEY_FRAME_TABLE);
+    mLayerIndex = buffer.getInt(HEADER_LAYER_INDEX);
+    mLayerRecords = buffer.getInt(HEADER_LAYER_RECORDS);
+    mStringTable = buffer.getInt(HEADER_STRING_TABLE);
+    mStrings = new String[buffer.getInt(HEADER_STRING_COUNT)];
+    mLayers = new LayerState[buffer.getInt(HEADER_LAYER_COUNT)];
+  }
+
+  /**
+   * Map a compiled timeline file.
+   * @param file the file written by {@link #write}
+   * @param resources used to resolve bitmap resources by name
+   * @param width the width of the bounds the timeline must have been compiled for
+   * @param height the height of the bounds the timeline must have been compiled for
+   * @param stamp the stamp the timeline must have been compiled with
+   * @return the compiled timeline or null if the file is missing, unreadable or doesn't match
+   */
+  public static CompiledTimeline open(
+      File file,
+      Resources resources,
+      int width,
+      int height,
+      long stamp) {
+    if (!file.exists()) {
+      return null;
+    }
+    RandomAccessFile randomAccessFile = null;
+    try {
+      randomAccessFile = new RandomAccessFile(file, "r");
+      FileChannel channel = randomAccessFile.getChannel();
+      if (channel.size() < HEADER_SIZE) {
+        return null;
+      }
+      // The mapping stays valid after the file is closed.
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if (buffer.getInt(HEADER_MAGIC) != MAGIC ||
+          buffer.getInt(HEADER_FORMAT_VERSION) != FORMAT_VERSION ||
+          buffer.getInt(HEADER_WIDTH) != width ||
+          buffer.getInt(HEADER_HEIGHT) != height ||
+          buffer.getLong(HEADER_STAMP) != stamp) {
+        return null;
+      }
+      return new CompiledTimeline(buffer, resources);
+    } catch (IOException e) {
+      return null;
+    } finally {
+      if (randomAccessFile != null) {
+        try {
+          randomAccessFile.close();
+        } catch (IOException e) {
+          // ignore
+        }
+      }
+    }
+  }
+
+  /**
+   * Compile key frames into a file that can be opened with {@link #open}. The file is written next
+   * to the destination first and renamed, so a partially written file is never opened. Timing
+   * functions are code and can't be compiled, so key frames must keep the linear default.
+   * @param file the destination file
+   * @param resources used to look up the names of bitmap resources
+   * @param width the width of the bounds the key frames were configured for
+   * @param height the height of the bounds the key frames were configured for
+   * @param stamp identifies the build of the deck, like the install time of the app
+   * @param keyFrameCount the number of key frames to compile
+   * @param source builds each key frame
+   * @throws IOException if the file can't be written or a key frame sets a timing function
+   */
+  public static void write(
+      File file,
+      Resources resources,
+      int width,
+      int height,
+      long stamp,
+      int keyFrameCount,
+      Timeline.KeyFrameSource source) throws IOException {
+    Map<String, Integer> strings = new LinkedHashMap<>();
+    Map<LayerState, Integer> records = new IdentityHashMap<>();
+    List<LayerState> layers = new ArrayList<>();
+    List<Integer> layerIndex = new ArrayList<>();
+    long[] durations = new long[keyFrameCount];
+    int[] layerCounts = new int[keyFrameCount];
+
+    for (int i = 0; i < keyFrameCount; i++) {
+      Frame frame = new Frame();
+      source.buildKeyFrame(i, frame);
+      if (frame.timingFunction != TimingFunction.LINEAR) {
+        throw new IOException("Key frame " + i + " sets a timing function, it can't be compiled");
+      }
+      durations[i] = frame.duration;
+      layerCounts[i] = frame.layerStates.size();
+      for (LayerState layerState : frame.layerStates.values()) {
+        Integer record = records.get(layerState);
+        if (record == null) {
+          record = layers.size();
+          records.put(layerState, record);
+          layers.add(layerState);
+        }
+        layerIndex.add(record);
+      }
+    }
+
+    int keyFrameTable = HEADER_SIZE;
+    int layerIndexOffset = keyFrameTable + keyFrameCount * KEY_FRAME_ENTRY_SIZE;
+    int layerRecords = layerIndexOffset + layerIndex.size() * 4;
+    int stringTable = layerRecords + layers.size() * LAYER_RECORD_SIZE;
+
+    // Records reference strings by index, so intern them before sizing the string table.
+    int[] recordStrings = new int[layers.size() * 3];
+    for (int i = 0; i < layers.size(); i++) {
+      LayerState layerState = layers.get(i);
+      recordStrings[i * 3] = intern(strings, layerState.name);
+      recordStrings[i * 3 + 1] = intern(strings, layerState.text);
+      recordStrings[i * 3 + 2] = layerState.bitmapResId != 0 ?
+          intern(strings, resources.getResourceName(layerState.bitmapResId)) :
+          NO_STRING;
+    }
+    List<byte[]> encodedStrings = new ArrayList<>(strings.size());
+    int stringData = stringTable + strings.size() * 4;
+    int size = stringData;
+    for (String string : strings.keySet()) {
+      byte[] encoded = string.getBytes(UTF_8);
+      if (encoded.length > 0xffff) {
+        throw new IOException("String too long to compile: " + encoded.length + " bytes");
+      }
+      encodedStrings.add(encoded);
+      size += 2 + encoded.length;
+    }
+
+    ByteBuffer buffer = ByteBuffer.allocate(size);
+    buffer.putInt(HEADER_MAGIC, MAGIC);
+    buffer.putInt(HEADER_FORMAT_VERSION, FORMAT_VERSION);
+    buffer.putInt(HEADER_WIDTH, width);
+    buffer.putInt(HEADER_HEIGHT, height);
+    buffer.putLong(HEADER_STAMP, stamp);
+    buffer.putInt(HEADER_KEY_FRAME_COUNT, keyFrameCount);
+    buffer.putInt(HEADER_LAYER_COUNT, layers.size());
+    buffer.putInt(HEADER_STRING_COUNT, strings.size());
+    buffer.putInt(HEADER_KEY_FRAME_TABLE, keyFrameTable);
+    buffer.putInt(HEADER_LAYER_INDEX, layerIndexOffset);
+    buffer.putInt(HEADER_LAYER_RECORDS, layerRecords);
+    buffer.putInt(HEADER_STRING_TABLE, stringTable);
+
+    int firstLayer = 0;
+    for (int i = 0; i < keyFrameCount; i++) {
+      int entry = keyFrameTable + i * KEY_FRAME_ENTRY_SIZE;
+      buffer.putInt(entry + KEY_FRAME_FIRST_LAYER, firstLayer);
+      buffer.putInt(entry + KEY_FRAME_LAYER_COUNT, layerCounts[i]);
+      buffer.putLong(entry + KEY_FRAME_DURATION, durations[i]);
+      firstLayer += layerCounts[i];
+    }
+
+    for (int i = 0; i < layerIndex.size(); i++) {
+      buffer.putInt(layerIndexOffset + i * 4, layerIndex.get(i));
+    }
+
+    for (int i = 0; i < layers.size(); i++) {
+      writeLayer(
+          buffer,
+          layerRecords + i * LAYER_RECORD_SIZE,
+          layers.get(i),
+          recordStrings[i * 3],
+          recordStrings[i * 3 + 1],
+          recordStrings[i * 3 + 2]);
+    }
+
+    int offset = stringData;
+    for (int i = 0; i < encodedStrings.size(); i++) {
+      byte[] encoded = encodedStrings.get(i);
+      buffer.putInt(stringTable + i * 4, offset);
+      buffer.putShort(offset, (short) encoded.length);
+      buffer.position(offset + 2);
+      buffer.put(encoded);
+      offset += 2 + encoded.length;
+    }
+
+    File tmp = new File(file.getPath() + ".tmp");
+    FileOutputStream out = new FileOutputStream(tmp);
+    try {
+      out.write(buffer.array());
+      out.getFD().sync();
+    } finally {
+      out.close();
+    }
+    if (!tmp.renameTo(file)) {
+      tmp.delete();
+      throw new IOException("Unable to move compiled timeline to " + file);
+    }
+  }
+
+  public int getKeyFrameCount() {
+    return mKeyFrameCount;
+  }
+
+  /**
+   * The duration of a key frame, readable without building it.
+   * @param index the index of the key frame
+   * @return the duration of the key frame
+   */
+  public long getDuration(int index) {
+    return mBuffer.getLong(mKeyFrameTable + index * KEY_FRAME_ENTRY_SIZE + KEY_FRAME_DURATION);
+  }
+
+  @Override
+  public void buildKeyFrame(int index, Frame frame) {
+    int entry = mKeyFrameTable + index * KEY_FRAME_ENTRY_SIZE;
+    int firstLayer = mBuffer.getInt(entry + KEY_FRAME_FIRST_LAYER);
+    int layerCount = mBuffer.getInt(entry + KEY_FRAME_LAYER_COUNT);
+    for (int i = 0; i < layerCount; i++) {
+      int record = mBuffer.getInt(mLayerIndex + (firstLayer + i) * 4);
+      frame.addLayerState(getLayer(record));
+    }
+  }
+
+  private LayerState getLayer(int record) {
+    LayerState layerState = mLayers[record];
+    if (layerState == null) {
+      layerState = readLayer(mLayerRecords + record * LAYER_RECORD_SIZE);
+      mLayers[record] = layerState;
+    }
+    return layerState;
+  }
+
+  private LayerState readLayer(int offset) {
+    ByteBuffer buffer = mBuffer;
+    LayerState layerState = new LayerState(getString(buffer.getInt(offset + LAYER_NAME)));
+
+    int flags = buffer.getInt(offset + LAYER_FLAGS);
+    String text = getString(buffer.getInt(offset + LAYER_TEXT));
+    if (text != null) {
+      layerState
+          .setText(text)
+          .setTextSize(buffer.getFloat(offset + LAYER_TEXT_SIZE))
+          .setTextAlignment(ALIGNMENTS[(flags >> ALIGNMENT_SHIFT) & ALIGNMENT_MASK]);
+    } else {
+      layerState.textSize = buffer.getFloat(offset + LAYER_TEXT_SIZE);
+    }
+    layerState
+        .setColor(buffer.getInt(offset + LAYER_COLOR))
+        .setFlip((flags & FLAG_FLIP) != 0)
+        .setMirror((flags & FLAG_MIRROR) != 0)
+        .setFrame(
+            buffer.getFloat(offset + LAYER_LEFT),
+            buffer.getFloat(offset + LAYER_TOP),
+            buffer.getFloat(offset + LAYER_RIGHT),
+            buffer.getFloat(offset + LAYER_BOTTOM))
+        .setAlpha(buffer.getFloat(offset + LAYER_ALPHA))
+        .setCornerRadius(buffer.getFloat(offset + LAYER_CORNER_RADIUS));
+    layerState.scale = buffer.getFloat(offset + LAYER_SCALE);
+    layerState.px = buffer.getFloat(offset + LAYER_PX);
+    layerState.py = buffer.getFloat(offset + LAYER_PY);
+    layerState.rotate = buffer.getFloat(offset + LAYER_ROTATE);
+
+    String bitmapName = getString(buffer.getInt(offset + LAYER_BITMAP));
+    if (bitmapName != null) {
+      int resId = mResources.getIdentifier(bitmapName, null, null);
+      if (resId != 0) {
+        layerState.setBitmap(
+            resId,
+            buffer.getInt(offset + LAYER_BITMAP_WIDTH),
+            buffer.getInt(offset + LAYER_BITMAP_HEIGHT));
+      }
+    }
+    return layerState.freeze();
+  }
+
+  private static void writeLayer(
+      ByteBuffer buffer,
+      int offset,
+      LayerState layerState,
+      int name,
+      int text,
+      int bitmap) {
+    int flags = (layerState.flip ? FLAG_FLIP : 0) |
+        (layerState.mirror ? FLAG_MIRROR : 0) |
+        (layerState.textAlignment.ordinal() << ALIGNMENT_SHIFT);
+    buffer.putInt(offset + LAYER_NAME, name);
+    buffer.putInt(offset + LAYER_TEXT, text);
+    buffer.putInt(offset + LAYER_BITMAP, bitmap);
+    buffer.putInt(offset + LAYER_FLAGS, flags);
+    buffer.putFloat(offset + LAYER_LEFT, layerState.left);
+    buffer.putFloat(offset + LAYER_TOP, layerState.top);
+    buffer.putFloat(offset + LAYER_RIGHT, layerState.right);
+    buffer.putFloat(offset + LAYER_BOTTOM, layerState.bottom);
+    buffer.putFloat(offset + LAYER_SCALE, layerState.scale);
+    buffer.putFloat(offset + LAYER_PX, layerState.px);
+    buffer.putFloat(offset + LAYER_PY, layerState.py);
+    buffer.putFloat(offset + LAYER_ROTATE, layerState.rotate);
+    buffer.putFloat(offset + LAYER_ALPHA, layerState.alpha);
+    buffer.putFloat(offset + LAYER_CORNER_RADIUS, layerState.cornerRadius);
+    buffer.putFloat(offset + LAYER_TEXT_SIZE, layerState.textSize);
+    buffer.putInt(offset + LAYER_COLOR, layerState.color);
+    buffer.putInt(offset + LAYER_BITMAP_WIDTH, layerState.bitmapWidth);
+    buffer.putInt(offset + LAYER_BITMAP_HEIGHT, layerState.bitmapHeight);
+  }
+
+  private static int intern(Map<String, Integer> strings, String string) {
+    if (string == null) {
+      return NO_STRING;
+    }
+    Integer index = strings.get(string);
+    if (index == null) {
+      index = strings.size();
+      strings.put(string, index);
+    }
+    return index;
+  }
+
+  private String getString(int index) {
+    if (index == NO_STRING) {
+      return null;
+    }
+    String string = mStrings[index];
+    if (string == null) {
+      int offset = mBuffer.getInt(mStringTable + index * 4);
+      byte[] encoded = new byte[mBuffer.getShort(offset) & 0xffff];
+      // Read through a duplicate so the position of the shared buffer is never touched.
+      ByteBuffer buffer = mBuffer.duplicate();
+      buffer.position(offset + 2);
+      buffer.get(encoded);
+      string = new String(encoded, UTF_8);
+      mStrings[index] = string;
+    }
+    return string;
+  }
+}
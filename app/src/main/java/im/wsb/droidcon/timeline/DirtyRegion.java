@@ -0,0 +1,122 @@
+// Copyright 2004-present Facebook. All Rights Reserved.
+
+package im.wsb.droidcon.timeline;
+
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+/**
+ * DirtyRegion compares successive tweened frames of a {@link TweenContext} slot by slot and finds
+ * the area that changed between them: the union of the old and new drawn bounds of every layer
+ * whose properties differ. Slots follow {@link TweenPlan#order}, so the comparison only holds
+ * while the same plan is tweened.
+ */
+class DirtyRegion {
+
+  // Covers antialiased edges and glyphs reaching slightly outside their layout.
+  private static final int MARGIN = 2;
+
+  private final LayerBounds mLayerBounds = new LayerBounds();
+  private final RectF mDirty = new RectF();
+  private final RectF mTempRectF = new RectF();
+  private TweenPlan mPlan;
+  private boolean mShowsEntering;
+  /* The last seen state of each slot, null where the slot was not shown. */
+  private LayerState[] mSnapshots = new LayerState[0];
+  private RectF[] mBounds = new RectF[0];
+  private boolean[] mShown = new boolean[0];
+
+  /**
+   * Compare the tweened frame of a context with the one passed in last time.
+   * @param context the context holding the tweened frame
+   * @param out the rect to write the dirty bounds to, empty when nothing changed
+   * @return false if the slots can't be compared and the whole frame is dirty
+   */
+  boolean update(TweenContext context, Rect out) {
+    TweenPlan plan = context.plan;
+    int count = plan.order.length;
+    boolean comparable = plan == mPlan && context.showsEntering == mShowsEntering;
+    mPlan = plan;
+    mShowsEntering = context.showsEntering;
+    ensureCapacity(count);
+
+    mDirty.setEmpty();
+    for (int i = 0; i < count; i++) {
+      LayerState layerState = context.layers[i];
+      boolean shown = layerState != null;
+      if (comparable && shown == mShown[i] && (!shown || hasSameState(mSnapshots[i], layerState))) {
+        continue;
+      }
+      if (mShown[i]) {
+        mDirty.union(mBounds[i]);
+      }
+      mShown[i] = shown;
+      if (shown) {
+        layerState.copy(mSnapshots[i]);
+        mLayerBounds.getBounds(layerState, mBounds[i]);
+        mDirty.union(mBounds[i]);
+      }
+    }
+    if (!comparable) {
+      out.setEmpty();
+      return false;
+    }
+
+    if (mDirty.isEmpty()) {
+      out.setEmpty();
+    } else {
+      mDirty.roundOut(out);
+      out.set(out.left - MARGIN, out.top - MARGIN, out.right + MARGIN, out.bottom + MARGIN);
+    }
+    return true;
+  }
+
+  /**
+   * Forget the last seen frame so the next update reports the whole frame as dirty.
+   */
+  void reset() {
+    mPlan = null;
+  }
+
+  private void ensureCapacity(int count) {
+    if (mSnapshots.length >= count) {
+      return;
+    }
+    LayerState[] snapshots = new LayerState[count];
+    RectF[] bounds = new RectF[count];
+    boolean[] shown = new boolean[count];
+    System.arraycopy(mSnapshots, 0, snapshots, 0, mSnapshots.length);
+    System.arraycopy(mBounds, 0, bounds, 0, mBounds.length);
+    System.arraycopy(mShown, 0, shown, 0, mShown.length);
+    for (int i = mSnapshots.length; i < count; i++) {
+      snapshots[i] = new LayerState();
+      bounds[i] = new RectF();
+    }
+    mSnapshots = snapshots;
+    mBounds = bounds;
+    mShown = shown;
+  }
+
+  private static boolean hasSameState(LayerState a, LayerState b) {
+    return a.left == b.left &&
+        a.top == b.top &&
+        a.right == b.right &&
+        a.bottom == b.bottom &&
+        a.scale == b.scale &&
+        a.px == b.px &&
+        a.py == b.py &&
+        a.rotate == b.rotate &&
+        a.alpha == b.alpha &&
+        a.color == b.color &&
+        a.cornerRadius == b.cornerRadius &&
+        a.flip == b.flip &&
+        a.mirror == b.mirror &&
+        a.bitmap == b.bitmap &&
+        a.bitmapResId == b.bitmapResId &&
+        a.bitmapWidth == b.bitmapWidth &&
+        a.bitmapHeight == b.bitmapHeight &&
+        a.textSize == b.textSize &&
+        a.textAlignment == b.textAlignment &&
+        (a.text == null ? b.text == null : a.text.equals(b.text));
+  }
+}
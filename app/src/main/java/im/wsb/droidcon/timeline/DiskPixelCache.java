@@ -0,0 +1,175 @@
+// Copyright 2004-present Facebook. All Rights Reserved.
+
+package im.wsb.droidcon.timeline;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import android.graphics.Bitmap;
+
+/**
+ * DiskPixelCache keeps the raw pixels of decoded and resampled bitmaps on disk so later launches
+ * can skip decompressing them. Each bitmap is a file holding a small header followed by its pixels
+ * exactly as {@link Bitmap#copyPixelsToBuffer} lays them out. Files are written and read through
+ * memory mappings, so pixels are copied straight between the page cache and the bitmap.
+ *
+ * Entries are keyed by resource id, size and config, and validated against a stamp identifying
+ * the installed build since resource ids and contents change between builds.
+ */
+public class DiskPixelCache {
+
+  private static final int MAGIC = 0x44435058; // DCPX
+  private static final int FORMAT_VERSION = 1;
+
+  /* Header */
+  private static final int HEADER_MAGIC = 0;
+  private static final int HEADER_FORMAT_VERSION = 4;
+  private static final int HEADER_STAMP = 8;
+  private static final int HEADER_WIDTH = 16;
+  private static final int HEADER_HEIGHT = 20;
+  private static final int HEADER_CONFIG = 24;
+  private static final int HEADER_HAS_ALPHA = 28;
+  private static final int HEADER_BYTE_COUNT = 32;
+  private static final int HEADER_SIZE = 40;
+
+  private final File mDirectory;
+  private final long mStamp;
+
+  /**
+   * @param directory the directory holding the cached pixels, created if needed
+   * @param stamp identifies the build the pixels were decoded from, like the app's install time
+   */
+  public DiskPixelCache(File directory, long stamp) {
+    mDirectory = directory;
+    mStamp = stamp;
+    mDirectory.mkdirs();
+  }
+
+  /**
+   * Load cached pixels into a bitmap taken from the pool.
+   * @return the bitmap or null if there are no valid cached pixels
+   */
+  public Bitmap load(int resId, int width, int height, Bitmap.Config config, BitmapPool pool) {
+    File file = getFile(resId, width, height, config);
+    if (!file.exists()) {
+      return null;
+    }
+    RandomAccessFile randomAccessFile = null;
+    boolean stale = false;
+    try {
+      randomAccessFile = new RandomAccessFile(file, "r");
+      FileChannel channel = randomAccessFile.getChannel();
+      if (channel.size() < HEADER_SIZE) {
+        stale = true;
+        return null;
+      }
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      int byteCount = buffer.getInt(HEADER_BYTE_COUNT);
+      if (buffer.getInt(HEADER_MAGIC) != MAGIC ||
+          buffer.getInt(HEADER_FORMAT_VERSION) != FORMAT_VERSION ||
+          buffer.getLong(HEADER_STAMP) != mStamp ||
+          buffer.getInt(HEADER_WIDTH) != width ||
+          buffer.getInt(HEADER_HEIGHT) != height ||
+          buffer.getInt(HEADER_CONFIG) != config.ordinal() ||
+          channel.size() != HEADER_SIZE + (long) byteCount) {
+        stale = true;
+        return null;
+      }
+
+      Bitmap bitmap = pool.get(width, height, config);
+      if (bitmap.getByteCount() != byteCount) {
+        pool.release(bitmap);
+        stale = true;
+        return null;
+      }
+      buffer.position(HEADER_SIZE);
+      bitmap.copyPixelsFromBuffer(buffer.slice());
+      bitmap.setHasAlpha(buffer.getInt(HEADER_HAS_ALPHA) != 0);
+      return bitmap;
+    } catch (IOException e) {
+      return null;
+    } finally {
+      close(randomAccessFile);
+      if (stale) {
+        file.delete();
+      }
+    }
+  }
+
+  /**
+   * Write the pixels of a bitmap. The file is written next to its final name first and renamed,
+   * so a partially written file is never loaded.
+   * @return true if the pixels were written
+   */
+  public boolean save(int resId, Bitmap bitmap) {
+    int width = bitmap.getWidth();
+    int height = bitmap.getHeight();
+    Bitmap.Config config = bitmap.getConfig();
+    if (config == null) {
+      return false;
+    }
+    File file = getFile(resId, width, height, config);
+    File tmp = new File(file.getPath() + ".tmp");
+    int byteCount = bitmap.getByteCount();
+    RandomAccessFile randomAccessFile = null;
+    try {
+      randomAccessFile = new RandomAccessFile(tmp, "rw");
+      randomAccessFile.setLength(HEADER_SIZE + (long) byteCount);
+      MappedByteBuffer buffer = randomAccessFile
+          .getChannel()
+          .map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) byteCount);
+      buffer.putInt(HEADER_MAGIC, MAGIC);
+      buffer.putInt(HEADER_FORMAT_VERSION, FORMAT_VERSION);
+      buffer.putLong(HEADER_STAMP, mStamp);
+      buffer.putInt(HEADER_WIDTH, width);
+      buffer.putInt(HEADER_HEIGHT, height);
+      buffer.putInt(HEADER_CONFIG, config.ordinal());
+      buffer.putInt(HEADER_HAS_ALPHA, bitmap.hasAlpha() ? 1 : 0);
+      buffer.putInt(HEADER_BYTE_COUNT, byteCount);
+      buffer.position(HEADER_SIZE);
+      ByteBuffer pixels = buffer.slice();
+      bitmap.copyPixelsToBuffer(pixels);
+      buffer.force();
+    } catch (IOException e) {
+      close(randomAccessFile);
+      tmp.delete();
+      return false;
+    }
+    close(randomAccessFile);
+    if (!tmp.renameTo(file)) {
+      tmp.delete();
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Delete every cached file.
+   */
+  public void clear() {
+    File[] files = mDirectory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+  }
+
+  private File getFile(int resId, int width, int height, Bitmap.Config config) {
+    return new File(mDirectory, resId + "_" + width + "x" + height + "_" + config.name() + ".px");
+  }
+
+  private static void close(RandomAccessFile randomAccessFile) {
+    if (randomAccessFile != null) {
+      try {
+        randomAccessFile.close();
+      } catch (IOException e) {
+        // ignore
+      }
+    }
+  }
+}
@@ -0,0 +1,22 @@
+// Copyright 2004-present Facebook. All Rights Reserved.
+
+package im.wsb.droidcon.timeline;
+
+import android.view.animation.Interpolator;
+
+/**
+ * Uses an Android {@link Interpolator} as the {@link TimingFunction} of a {@link Frame}.
+ */
+public class InterpolatorTimingFunction implements TimingFunction {
+
+  private final Interpolator mInterpolator;
+
+  public InterpolatorTimingFunction(Interpolator interpolator) {
+    mInterpolator = interpolator;
+  }
+
+  @Override
+  public float getInterpolation(float input) {
+    return mInterpolator.getInterpolation(input);
+  }
+}
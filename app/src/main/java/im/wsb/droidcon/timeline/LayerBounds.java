@@ -0,0 +1,89 @@
+// Copyright 2004-present Facebook. All Rights Reserved.
+
+package im.wsb.droidcon.timeline;
+
+import android.graphics.Matrix;
+import android.graphics.RectF;
+import android.text.StaticLayout;
+
+/**
+ * LayerBounds finds the area a layer covers once the {@link Renderer} has transformed it. Rotated
+ * layers are bounded by the axis aligned box around them.
+ */
+class LayerBounds {
+
+  private final Matrix mMatrix = new Matrix();
+
+  /**
+   * Find the drawn bounds of a layer.
+   * @param layerState the layer
+   * @param out the rect to write the bounds to
+   */
+  void getBounds(LayerState layerState, RectF out) {
+    if (layerState.bitmapResId != 0 || layerState.bitmap != null) {
+      getImageBounds(
+          layerState.left,
+          layerState.top,
+          layerState.right,
+          layerState.bottom,
+          layerState.scale,
+          layerState.px,
+          layerState.py,
+          layerState.rotate,
+          out);
+    } else if (layerState.text != null) {
+      getTextBounds(
+          (StaticLayout) layerState.getTextLayout(),
+          layerState.left,
+          layerState.top,
+          layerState.scale,
+          layerState.px,
+          layerState.py,
+          layerState.rotate,
+          out);
+    } else {
+      // Color layers are drawn untransformed.
+      out.set(layerState.left, layerState.top, layerState.right, layerState.bottom);
+    }
+  }
+
+  /**
+   * Find the bounds of a frame scaled and rotated around a pivot, the way images and placeholders
+   * are drawn.
+   */
+  void getImageBounds(
+      float left,
+      float top,
+      float right,
+      float bottom,
+      float scale,
+      float px,
+      float py,
+      float rotate,
+      RectF out) {
+    mMatrix.setScale(scale, scale, px, py);
+    mMatrix.preRotate(rotate, px, py);
+    out.set(left, top, right, bottom);
+    mMatrix.mapRect(out);
+  }
+
+  /**
+   * Find the bounds of a text layout, which is vertically centered on the top of its frame before
+   * it is scaled and rotated.
+   */
+  void getTextBounds(
+      StaticLayout textLayout,
+      float left,
+      float top,
+      float scale,
+      float px,
+      float py,
+      float rotate,
+      RectF out) {
+    mMatrix.setTranslate(left, top - textLayout.getHeight() / 2f);
+    mMatrix.preScale(scale, scale, px, py);
+    mMatrix.preRotate(rotate, px, py);
+    out.set(0, 0, textLayout.getWidth(), textLayout.getHeight());
+    mMatrix.mapRect(out);
+  }
+}
@@ -0,0 +1,301 @@
+// Copyright 2004-present Facebook. All Rights Reserved.
+
+package im.wsb.droidcon.timeline;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.util.LruCache;
+
+/**
+ * LayerRasterCache renders the content of layers into offscreen bitmaps, much like hardware layers,
+ * so the {@link Renderer} only composites them with their transform and alpha while they animate.
+ *
+ * Rasters are keyed by the content properties of a layer: the resource and decode size of the
+ * bitmap, its crop, flip and mirror for image layers, and the color and corner radius for color
+ * layers, along with the frame size. Keys never reference bitmaps, so the {@link BitmapCache} can
+ * evict bitmaps that have been rasterized. Any change to them is a different key, so stale rasters
+ * are simply never looked up again and age out of the byte budget. A raster is only created the
+ * second time the same content is drawn, so layers whose content changes every frame keep being
+ * drawn directly.
+ *
+ * Rasters are only drawn and created on the main thread. Evicted and replaced rasters are never
+ * recycled, hardware display lists and recorded command lists may still draw them, so they are left
+ * to the garbage collector.
+ */
+public class LayerRasterCache {
+
+  public static final float MAX_RASTER_SCALE = 2;
+  // How many content keys drawn once are remembered while waiting to be drawn again.
+  private static final int MAX_CANDIDATES = 64;
+
+  private static final int KIND_IMAGE = 1;
+  private static final int KIND_ROUND_RECT = 2;
+
+  private final LruCache<Key, Bitmap> mRasters;
+  private final LinkedHashMap<Key, Key> mCandidates;
+  private final Key mProbe = new Key();
+  // The bitmap of the image layer being looked up, only held for the lookup.
+  private Bitmap mProbeBitmap;
+  private final Paint mPaint = new Paint();
+  private final Rect mTempRect = new Rect();
+  private final RectF mTempRectF = new RectF();
+
+  /**
+   * @param maxBytes how many bytes of rasters to keep before evicting the least recently used
+   */
+  public LayerRasterCache(int maxBytes) {
+    mRasters = new LruCache<Key, Bitmap>(maxBytes) {
+      @Override
+      protected int sizeOf(Key key, Bitmap value) {
+        return value.getByteCount();
+      }
+    };
+    mCandidates = new LinkedHashMap<Key, Key>(MAX_CANDIDATES + 1, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Key, Key> eldest) {
+        return size() > MAX_CANDIDATES;
+      }
+    };
+  }
+
+  /**
+   * Get the raster of an image layer, the center crop of the bitmap matching the aspect ratio of
+   * the frame. Bitmaps that are no larger than the raster would be, like the variants resampled for
+   * the frame, are as cheap to draw directly and are never rasterized.
+   * @param bitmap the bitmap the layer shows
+   * @param bitmapResId the resource the bitmap is decoded from
+   * @param bitmapWidth the width the bitmap is decoded for, 0 for the full size
+   * @param bitmapHeight the height the bitmap is decoded for, 0 for the full size
+   * @param width the width of the frame
+   * @param height the height of the frame
+   * @param flip whether the image is flipped vertically
+   * @param mirror whether the image is mirrored horizontally
+   * @param scale the scale the layer is drawn at
+   * @return the raster to draw over the frame or null to draw the layer directly
+   */
+  public Bitmap getImage(
+      Bitmap bitmap,
+      int bitmapResId,
+      int bitmapWidth,
+      int bitmapHeight,
+      float width,
+      float height,
+      boolean flip,
+      boolean mirror,
+      float scale) {
+    float rasterScale = rasterScale(scale);
+    if (bitmap.getWidth() <= Math.ceil(width * rasterScale) &&
+        bitmap.getHeight() <= Math.ceil(height * rasterScale)) {
+      return null;
+    }
+    mProbe.set(
+        KIND_IMAGE,
+        bitmapResId,
+        bitmapWidth,
+        bitmapHeight,
+        width,
+        height,
+        0,
+        0,
+        flip,
+        mirror);
+    mProbeBitmap = bitmap;
+    try {
+      return get(rasterScale);
+    } finally {
+      mProbeBitmap = null;
+    }
+  }
+
+  /**
+   * Get the raster of a color layer with rounded corners. The color is rasterized opaque, the alpha
+   * of the layer is applied when drawing.
+   * @param color the color of the layer
+   * @param width the width of the frame
+   * @param height the height of the frame
+   * @param cornerRadius the corner radius of the layer
+   * @return the raster to draw over the frame or null to draw the layer directly
+   */
+  public Bitmap getRoundRect(int color, float width, float height, float cornerRadius) {
+    mProbe.set(KIND_ROUND_RECT, 0, 0, 0, width, height, color, cornerRadius, false, false);
+    return get(1);
+  }
+
+  public int hitCount() {
+    return mRasters.hitCount();
+  }
+
+  public int missCount() {
+    return mRasters.missCount();
+  }
+
+  /**
+   * @return the bytes used by the cached rasters
+   */
+  public int size() {
+    return mRasters.size();
+  }
+
+  public void evictAll() {
+    mRasters.evictAll();
+    mCandidates.clear();
+  }
+
+  @Override
+  public String toString() {
+    return "LayerRasterCache{bytes=" + size() + "/" + mRasters.maxSize() +
+        ", hits=" + hitCount() +
+        ", misses=" + missCount() + "}";
+  }
+
+  private Bitmap get(float rasterScale) {
+    if (mProbe.width <= 0 || mProbe.height <= 0) {
+      return null;
+    }
+    int rasterWidth = (int) Math.ceil(mProbe.width * rasterScale);
+    int rasterHeight = (int) Math.ceil(mProbe.height * rasterScale);
+    Bitmap raster = mRasters.get(mProbe);
+    if (raster != null && raster.getWidth() >= rasterWidth) {
+      return raster;
+    }
+    if (raster == null && mCandidates.remove(mProbe) == null) {
+      // Only drawn once so far, its content may be changing every frame.
+      Key key = mProbe.copy();
+      mCandidates.put(key, key);
+      return null;
+    }
+    if ((long) rasterWidth * rasterHeight * 4 > mRasters.maxSize()) {
+      return null;
+    }
+
+    raster = Bitmap.createBitmap(rasterWidth, rasterHeight, Bitmap.Config.ARGB_8888);
+    Canvas canvas = new Canvas(raster);
+    canvas.scale(rasterScale, rasterScale);
+    mTempRectF.set(0, 0, mProbe.width, mProbe.height);
+    mPaint.reset();
+    mPaint.setAntiAlias(true);
+    if (mProbe.kind == KIND_IMAGE) {
+      Bitmap bitmap = mProbeBitmap;
+      BitmapVariants.centerCrop(
+          bitmap.getWidth(),
+          bitmap.getHeight(),
+          (float) mProbe.width / mProbe.height,
+          mTempRect);
+      if (mProbe.flip) {
+        mTempRect.set(mTempRect.left, mTempRect.bottom, mTempRect.right, mTempRect.top);
+      } else if (mProbe.mirror) {
+        mTempRect.set(mTempRect.right, mTempRect.top, mTempRect.left, mTempRect.bottom);
+      }
+      mPaint.setFilterBitmap(true);
+      canvas.drawBitmap(bitmap, mTempRect, mTempRectF, mPaint);
+    } else {
+      mPaint.setColor(mProbe.color | 0xff000000);
+      mPaint.setStyle(Paint.Style.FILL);
+      canvas.drawRoundRect(mTempRectF, mProbe.cornerRadius, mProbe.cornerRadius, mPaint);
+    }
+    mRasters.put(mProbe.copy(), raster);
+    return raster;
+  }
+
+  private static float rasterScale(float scale) {
+    float rasterScale = 1;
+    while (rasterScale < Math.abs(scale) && rasterScale < MAX_RASTER_SCALE) {
+      rasterScale *= 2;
+    }
+    return rasterScale;
+  }
+
+  private static final class Key {
+
+    int kind;
+    int bitmapResId;
+    int bitmapWidth;
+    int bitmapHeight;
+    int width;
+    int height;
+    int color;
+    float cornerRadius;
+    boolean flip;
+    boolean mirror;
+
+    void set(
+        int kind,
+        int bitmapResId,
+        int bitmapWidth,
+        int bitmapHeight,
+        float width,
+        float height,
+        int color,
+        float cornerRadius,
+        boolean flip,
+        boolean mirror) {
+      this.kind = kind;
+      this.bitmapResId = bitmapResId;
+      this.bitmapWidth = bitmapWidth;
+      this.bitmapHeight = bitmapHeight;
+      this.width = Math.round(width);
+      this.height = Math.round(height);
+      this.color = color;
+      this.cornerRadius = cornerRadius;
+      this.flip = flip;
+      this.mirror = mirror;
+    }
+
+    Key copy() {
+      Key copy = new Key();
+      copy.kind = kind;
+      copy.bitmapResId = bitmapResId;
+      copy.bitmapWidth = bitmapWidth;
+      copy.bitmapHeight = bitmapHeight;
+      copy.width = width;
+      copy.height = height;
+      copy.color = color;
+      copy.cornerRadius = cornerRadius;
+      copy.flip = flip;
+      copy.mirror = mirror;
+      return copy;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return kind == other.kind &&
+          bitmapResId == other.bitmapResId &&
+          bitmapWidth == other.bitmapWidth &&
+          bitmapHeight == other.bitmapHeight &&
+          width == other.width &&
+          height == other.height &&
+          color == other.color &&
+          cornerRadius == other.cornerRadius &&
+          flip == other.flip &&
+          mirror == other.mirror;
+    }
+
+    @Override
+    public int hashCode() {
+      int hashCode = kind;
+      hashCode = 31 * hashCode + bitmapResId;
+      hashCode = 31 * hashCode + bitmapWidth;
+      hashCode = 31 * hashCode + bitmapHeight;
+      hashCode = 31 * hashCode + width;
+      hashCode = 31 * hashCode + height;
+      hashCode = 31 * hashCode + color;
+      hashCode = 31 * hashCode + Float.floatToIntBits(cornerRadius);
+      hashCode = 31 * hashCode + (flip ? 1 : 0);
+      hashCode = 31 * hashCode + (mirror ? 1 : 0);
+      return hashCode;
+    }
+  }
+}
@@ -0,0 +1,141 @@
+// Copyright 2004-present Facebook. All Rights Reserved.
+
+package im.wsb.droidcon.timeline;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+
+/**
+ * RenderCommandExecutor plays a {@link RenderCommandList} onto a canvas, drawing exactly what the
+ * {@link Renderer} would have drawn directly.
+ */
+public class RenderCommandExecutor {
+
+  private final Paint mPaint = new Paint();
+  private final Matrix mMatrix = new Matrix();
+  private final float[] mCommandMatrix = new float[RenderCommandList.MATRIX_SIZE];
+  private final float[] mMatrixValues = new float[9];
+  private final Rect mTempRect = new Rect();
+  private final RectF mTempRectF = new RectF();
+
+  /**
+   * Draw every command of a list.
+   * @param commands the recorded commands
+   * @param canvas the canvas to draw to
+   */
+  public void execute(RenderCommandList commands, Canvas canvas) {
+    for (int i = 0; i < commands.size(); i++) {
+      boolean transformed = concat(commands, i, canvas);
+      switch (commands.getOp(i)) {
+        case RenderCommandList.OP_RECT:
+        case RenderCommandList.OP_ROUND_RECT:
+          drawRect(commands, i, canvas);
+          break;
+        case RenderCommandList.OP_BITMAP:
+          drawBitmap(commands, i, canvas);
+          break;
+        case RenderCommandList.OP_TEXT:
+          drawText(commands, i, canvas);
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown command " + commands.getOp(i));
+      }
+      if (transformed) {
+        canvas.restore();
+      }
+    }
+  }
+
+  /**
+   * Apply the matrix of a command unless it is the identity.
+   * @return true if the canvas was saved and needs to be restored
+   */
+  private boolean concat(RenderCommandList commands, int i, Canvas canvas) {
+    float[] m = mCommandMatrix;
+    commands.getMatrix(i, m);
+    if (m[RenderCommandList.MATRIX_A] == 1 &&
+        m[RenderCommandList.MATRIX_B] == 0 &&
+        m[RenderCommandList.MATRIX_C] == 0 &&
+        m[RenderCommandList.MATRIX_D] == 1 &&
+        m[RenderCommandList.MATRIX_E] == 0 &&
+        m[RenderCommandList.MATRIX_F] == 0) {
+      return false;
+    }
+    mMatrixValues[Matrix.MSCALE_X] = m[RenderCommandList.MATRIX_A];
+    mMatrixValues[Matrix.MSKEW_X] = m[RenderCommandList.MATRIX_C];
+    mMatrixValues[Matrix.MTRANS_X] = m[RenderCommandList.MATRIX_E];
+    mMatrixValues[Matrix.MSKEW_Y] = m[RenderCommandList.MATRIX_B];
+    mMatrixValues[Matrix.MSCALE_Y] = m[RenderCommandList.MATRIX_D];
+    mMatrixValues[Matrix.MTRANS_Y] = m[RenderCommandList.MATRIX_F];
+    mMatrixValues[Matrix.MPERSP_0] = 0;
+    mMatrixValues[Matrix.MPERSP_1] = 0;
+    mMatrixValues[Matrix.MPERSP_2] = 1;
+    mMatrix.setValues(mMatrixValues);
+    canvas.save();
+    canvas.concat(mMatrix);
+    return true;
+  }
+
+  private void drawRect(RenderCommandList commands, int i, Canvas canvas) {
+    mPaint.reset();
+    mPaint.setColor(commands.getColor(i));
+    mPaint.setStyle(Paint.Style.FILL);
+    mPaint.setAntiAlias(true);
+    mPaint.setAlpha(Math.round(commands.getAlpha(i) * 255));
+    if (commands.getOp(i) == RenderCommandList.OP_RECT) {
+      canvas.drawRect(
+          commands.getLeft(i),
+          commands.getTop(i),
+          commands.getRight(i),
+          commands.getBottom(i),
+          mPaint);
+    } else {
+      float cornerRadius = commands.getCornerRadius(i);
+      setRectF(commands, i);
+      canvas.drawRoundRect(mTempRectF, cornerRadius, cornerRadius, mPaint);
+    }
+  }
+
+  private void drawBitmap(RenderCommandList commands, int i, Canvas canvas) {
+    mPaint.reset();
+    mPaint.setFilterBitmap(true);
+    mPaint.setAntiAlias(true);
+    // Alpha bitmaps are drawn in the color of the paint.
+    mPaint.setColor(commands.getColor(i));
+    mPaint.setAlpha(Math.round(commands.getAlpha(i) * 255));
+    Rect source = null;
+    if ((commands.getFlags(i) & RenderCommandList.FLAG_SOURCE_RECT) != 0) {
+      mTempRect.set(
+          (int) commands.getSourceLeft(i),
+          (int) commands.getSourceTop(i),
+          (int) commands.getSourceRight(i),
+          (int) commands.getSourceBottom(i));
+      source = mTempRect;
+    }
+    setRectF(commands, i);
+    canvas.drawBitmap((Bitmap) commands.getPayload(i), source, mTempRectF, mPaint);
+  }
+
+  private void drawText(RenderCommandList commands, int i, Canvas canvas) {
+    StaticLayout textLayout = (StaticLayout) commands.getPayload(i);
+    TextPaint paint = textLayout.getPaint();
+    paint.setColor(commands.getColor(i));
+    paint.setAlpha(Math.round(commands.getAlpha(i) * 255));
+    paint.setTextSize(commands.getTextSize(i));
+    textLayout.draw(canvas);
+  }
+
+  private void setRectF(RenderCommandList commands, int i) {
+    mTempRectF.set(
+        commands.getLeft(i),
+        commands.getTop(i),
+        commands.getRight(i),
+        commands.getBottom(i));
+  }
+}
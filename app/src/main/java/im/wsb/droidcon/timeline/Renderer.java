@@ -2,21 +2,55 @@
 
 package im.wsb.droidcon.timeline;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Rect;
 import android.graphics.RectF;
+import android.text.Layout;
+import android.text.StaticLayout;
+import android.text.TextPaint;
 
 /**
- * Renderer draws to the provided canvas every {@link LayerState} in the provided {@link Frame}.
+ * Renderer draws to the provided canvas every {@link LayerState} in the provided {@link Frame}, or
+ * every slot of a {@link PackedFrame}.
+ *
+ * Layers that can't be seen are culled before drawing: layers at zero alpha, layers outside the
+ * clip bounds of the canvas, and every layer beneath the topmost opaque, untransformed layer that
+ * covers the clip bounds. The counts of the last render are kept for inspection.
+ *
+ * Instead of drawing, a frame can be recorded into a {@link RenderCommandList} and played onto a
+ * canvas later by a {@link RenderCommandExecutor}.
  */
 public class Renderer {
 
+  private static final int DEFAULT_PLACEHOLDER_COLOR = 0xff202020;
+
   private final Paint mPaint;
   private final Context mContext;
   private final Rect mTempRect;
   private final RectF mTempRectF;
+  private int mPlaceholderColor = DEFAULT_PLACEHOLDER_COLOR;
+  private TextRasterCache mTextRasterCache;
+  private LayerRasterCache mLayerRasterCache;
+
+  /* Culling */
+  private boolean mCullingEnabled = true;
+  private final LayerBounds mLayerBounds = new LayerBounds();
+  private final Rect mClipBounds = new Rect();
+  private final List<LayerState> mLayers = new ArrayList<>();
+  private int mDrawnCount;
+  private int mInvisibleCount;
+  private int mOffBoundsCount;
+  private int mOccludedCount;
+
+  /* The list being recorded into instead of drawing, see record. */
+  private RenderCommandList mRecording;
 
   public Renderer(Context context) {
     mContext = context;
@@ -25,15 +59,414 @@ public class Renderer {
     mTempRectF = new RectF();
   }
 
+  /**
+   * Set the color drawn in place of images that are not decoded yet.
+   * @param placeholderColor the color to draw
+   * @return the Renderer for chaining
+   */
+  public Renderer setPlaceholderColor(int placeholderColor) {
+    mPlaceholderColor = placeholderColor;
+    return this;
+  }
+
+  /**
+   * Draw text layers as rasterized bitmaps instead of laying out their glyphs every frame. Text
+   * whose size is changing is still drawn from its layout.
+   * @param textRasterCache the cache holding the rasters or null to draw text directly
+   * @return the Renderer for chaining
+   */
+  public Renderer setTextRasterCache(TextRasterCache textRasterCache) {
+    mTextRasterCache = textRasterCache;
+    return this;
+  }
+
+  /**
+   * Draw the content of image and rounded color layers into offscreen rasters once it is stable,
+   * and only composite the rasters with the transform and alpha of the layers after that.
+   * @param layerRasterCache the cache holding the rasters or null to draw layers directly
+   * @return the Renderer for chaining
+   */
+  public Renderer setLayerRasterCache(LayerRasterCache layerRasterCache) {
+    mLayerRasterCache = layerRasterCache;
+    return this;
+  }
+
+  /**
+   * Skip drawing layers that can't be seen, on by default.
+   * @param cullingEnabled whether to cull layers
+   * @return the Renderer for chaining
+   */
+  public Renderer setCullingEnabled(boolean cullingEnabled) {
+    mCullingEnabled = cullingEnabled;
+    return this;
+  }
+
+  /**
+   * @return the number of layers drawn by the last render
+   */
+  public int getDrawnLayerCount() {
+    return mDrawnCount;
+  }
+
+  /**
+   * @return the number of layers the last render culled for any reason
+   */
+  public int getCulledLayerCount() {
+    return mInvisibleCount + mOffBoundsCount + mOccludedCount;
+  }
+
+  /**
+   * @return the number of layers the last render culled for being fully transparent
+   */
+  public int getInvisibleLayerCount() {
+    return mInvisibleCount;
+  }
+
+  /**
+   * @return the number of layers the last render culled for being outside the clip bounds
+   */
+  public int getOffBoundsLayerCount() {
+    return mOffBoundsCount;
+  }
+
+  /**
+   * @return the number of layers the last render culled for being beneath an opaque layer
+   */
+  public int getOccludedLayerCount() {
+    return mOccludedCount;
+  }
+
+  /**
+   * Record the draws of a frame instead of issuing them.
+   * @param frame the frame to record
+   * @param clipBounds the bounds to cull layers against, those of the canvas the list is for
+   * @param out the list to record into, it is cleared first
+   */
+  public void record(Frame frame, Rect clipBounds, RenderCommandList out) {
+    out.clear();
+    mRecording = out;
+    mClipBounds.set(clipBounds);
+    try {
+      render(null, frame);
+    } finally {
+      mRecording = null;
+    }
+  }
+
+  /**
+   * Record the draws of a packed frame instead of issuing them.
+   * @param frame the packed frame to record
+   * @param clipBounds the bounds to cull layers against, those of the canvas the list is for
+   * @param out the list to record into, it is cleared first
+   */
+  public void record(PackedFrame frame, Rect clipBounds, RenderCommandList out) {
+    out.clear();
+    mRecording = out;
+    mClipBounds.set(clipBounds);
+    try {
+      render(null, frame);
+    } finally {
+      mRecording = null;
+    }
+  }
+
   public void render(Canvas canvas, Frame frame) {
-    for (LayerState layerState : frame.layerStates.values()) {
+    beginRender(canvas);
+    mLayers.addAll(frame.layerStates.values());
+    int first = mCullingEnabled ? findOccluder() : 0;
+    mOccludedCount = first;
+    for (int i = first; i < mLayers.size(); i++) {
+      LayerState layerState = mLayers.get(i);
+      if (mCullingEnabled && isCulled(layerState)) {
+        continue;
+      }
+      mDrawnCount++;
       renderLayerState(canvas, layerState);
     }
+    mLayers.clear();
+  }
+
+  /**
+   * Draw every slot of a {@link PackedFrame}, reading the layer properties from its columns.
+   * @param canvas the canvas to draw to
+   * @param frame the packed frame
+   */
+  public void render(Canvas canvas, PackedFrame frame) {
+    beginRender(canvas);
+    int first = mCullingEnabled ? findOccluder(frame) : 0;
+    mOccludedCount = first;
+    for (int i = first; i < frame.size; i++) {
+      if (mCullingEnabled && isCulled(frame, i)) {
+        continue;
+      }
+      mDrawnCount++;
+      Bitmap bitmap = pickBitmap(
+          frame.image[i],
+          (Bitmap) frame.bitmap[i],
+          frame.width(i) * frame.scale[i],
+          frame.height(i) * frame.scale[i]);
+      if (bitmap != null) {
+        renderImage(
+            canvas,
+            bitmap,
+            frame.image[i],
+            frame.left[i],
+            frame.top[i],
+            frame.right[i],
+            frame.bottom[i],
+            frame.alpha[i],
+            frame.scale[i],
+            frame.px[i],
+            frame.py[i],
+            frame.rotate[i],
+            (frame.flags[i] & PackedFrame.FLAG_FLIP) != 0,
+            (frame.flags[i] & PackedFrame.FLAG_MIRROR) != 0);
+      } else if (frame.image[i] != null) {
+        renderPlaceholder(
+            canvas,
+            frame.left[i],
+            frame.top[i],
+            frame.right[i],
+            frame.bottom[i],
+            frame.alpha[i],
+            frame.cornerRadius[i],
+            frame.scale[i],
+            frame.px[i],
+            frame.py[i],
+            frame.rotate[i]);
+      } else if (frame.text[i] != null) {
+        StaticLayout textLayout = AndroidLayers.getTextLayout(frame.text[i]);
+        TextPaint textPaint = textLayout.getPaint();
+        textPaint.setColor(frame.color[i]);
+        textPaint.setAlpha(Math.round(frame.alpha[i] * 255));
+        textPaint.setTextSize(frame.textSize[i]);
+        Bitmap raster =
+            getTextRaster(frame.text[i], textLayout, frame.textSize[i], frame.scale[i]);
+        if (raster != null) {
+          renderTextRaster(
+              canvas,
+              raster,
+              textLayout,
+              frame.color[i],
+              frame.alpha[i],
+              frame.left[i],
+              frame.top[i],
+              frame.scale[i],
+              frame.px[i],
+              frame.py[i],
+              frame.rotate[i]);
+        } else {
+          renderText(
+              canvas,
+              textLayout,
+              frame.left[i],
+              frame.top[i],
+              frame.scale[i],
+              frame.px[i],
+              frame.py[i],
+              frame.rotate[i]);
+        }
+      } else {
+        renderColor(
+            canvas,
+            frame.color[i],
+            frame.left[i],
+            frame.top[i],
+            frame.right[i],
+            frame.bottom[i],
+            frame.alpha[i],
+            frame.cornerRadius[i]);
+      }
+    }
+  }
+
+  private void beginRender(Canvas canvas) {
+    mDrawnCount = 0;
+    mInvisibleCount = 0;
+    mOffBoundsCount = 0;
+    mOccludedCount = 0;
+    if (mCullingEnabled && mRecording == null && !canvas.getClipBounds(mClipBounds)) {
+      // Nothing can be drawn, but leave culling by bounds to the canvas.
+      mClipBounds.set(Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+  }
+
+  /**
+   * Find the topmost layer that hides everything beneath it.
+   * @return the index of the layer or 0 if there is none
+   */
+  private int findOccluder() {
+    for (int i = mLayers.size() - 1; i > 0; i--) {
+      LayerState layerState = mLayers.get(i);
+      if (layerState.text != null && layerState.bitmapResId == 0 && layerState.bitmap == null) {
+        continue;
+      }
+      if (!covers(
+          layerState.left,
+          layerState.top,
+          layerState.right,
+          layerState.bottom,
+          layerState.alpha,
+          layerState.scale,
+          layerState.rotate)) {
+        continue;
+      }
+      if (isOpaque(
+          layerState,
+          (Bitmap) layerState.bitmap,
+          layerState.width() * layerState.scale,
+          layerState.height() * layerState.scale,
+          layerState.cornerRadius)) {
+        return i;
+      }
+    }
+    return 0;
+  }
+
+  private int findOccluder(PackedFrame frame) {
+    for (int i = frame.size - 1; i > 0; i--) {
+      if (frame.text[i] != null && frame.image[i] == null && frame.bitmap[i] == null) {
+        continue;
+      }
+      if (!covers(
+          frame.left[i],
+          frame.top[i],
+          frame.right[i],
+          frame.bottom[i],
+          frame.alpha[i],
+          frame.scale[i],
+          frame.rotate[i])) {
+        continue;
+      }
+      if (isOpaque(
+          frame.image[i],
+          (Bitmap) frame.bitmap[i],
+          frame.width(i) * frame.scale[i],
+          frame.height(i) * frame.scale[i],
+          frame.cornerRadius[i])) {
+        return i;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Check if a fully opaque, untransformed layer frame covers the clip bounds.
+   */
+  private boolean covers(
+      float left,
+      float top,
+      float right,
+      float bottom,
+      float alpha,
+      float scale,
+      float rotate) {
+    return Math.round(alpha * 255) >= 255 &&
+        scale == 1 &&
+        rotate % 360 == 0 &&
+        left <= mClipBounds.left &&
+        top <= mClipBounds.top &&
+        right >= mClipBounds.right &&
+        bottom >= mClipBounds.bottom;
+  }
+
+  /**
+   * Check if what an image or color layer draws has no transparent pixels.
+   */
+  private boolean isOpaque(
+      LayerState source,
+      Bitmap bitmap,
+      float drawnWidth,
+      float drawnHeight,
+      float cornerRadius) {
+    if (source != null || bitmap != null) {
+      Bitmap drawn = pickBitmap(source, bitmap, drawnWidth, drawnHeight);
+      if (drawn != null) {
+        // The center crop always fills the frame.
+        return !drawn.hasAlpha();
+      }
+    }
+    // Colors and placeholders are drawn at the alpha of the layer.
+    return cornerRadius == 0;
+  }
+
+  private boolean isCulled(LayerState layerState) {
+    if (Math.round(layerState.alpha * 255) == 0) {
+      mInvisibleCount++;
+      return true;
+    }
+    mLayerBounds.getBounds(layerState, mTempRectF);
+    return isOffBounds();
+  }
+
+  private boolean isCulled(PackedFrame frame, int i) {
+    if (Math.round(frame.alpha[i] * 255) == 0) {
+      mInvisibleCount++;
+      return true;
+    }
+    if (frame.image[i] != null || frame.bitmap[i] != null) {
+      mLayerBounds.getImageBounds(
+          frame.left[i],
+          frame.top[i],
+          frame.right[i],
+          frame.bottom[i],
+          frame.scale[i],
+          frame.px[i],
+          frame.py[i],
+          frame.rotate[i],
+          mTempRectF);
+    } else if (frame.text[i] != null) {
+      mLayerBounds.getTextBounds(
+          AndroidLayers.getTextLayout(frame.text[i]),
+          frame.left[i],
+          frame.top[i],
+          frame.scale[i],
+          frame.px[i],
+          frame.py[i],
+          frame.rotate[i],
+          mTempRectF);
+    } else {
+      mTempRectF.set(frame.left[i], frame.top[i], frame.right[i], frame.bottom[i]);
+    }
+    return isOffBounds();
+  }
+
+  /**
+   * Check if the drawn bounds in mTempRectF miss the clip bounds.
+   */
+  private boolean isOffBounds() {
+    boolean offBounds = !mTempRectF.intersects(
+        mClipBounds.left,
+        mClipBounds.top,
+        mClipBounds.right,
+        mClipBounds.bottom);
+    if (offBounds) {
+      mOffBoundsCount++;
+    }
+    return offBounds;
   }
 
   private void renderLayerState(Canvas canvas, LayerState layerState) {
-    if (layerState.bitmap != null) {
-      renderAsImageLayer(canvas, layerState);
+    Bitmap bitmap = pickBitmap(
+        layerState,
+        (Bitmap) layerState.bitmap,
+        layerState.width() * layerState.scale,
+        layerState.height() * layerState.scale);
+    if (bitmap != null) {
+      renderAsImageLayer(canvas, layerState, bitmap);
+    } else if (layerState.bitmapResId != 0) {
+      renderPlaceholder(
+          canvas,
+          layerState.left,
+          layerState.top,
+          layerState.right,
+          layerState.bottom,
+          layerState.alpha,
+          layerState.cornerRadius,
+          layerState.scale,
+          layerState.px,
+          layerState.py,
+          layerState.rotate);
     } else if (layerState.text != null) {
       renderAsTextLayer(canvas, layerState);
     } else {
@@ -42,75 +475,402 @@ public class Renderer {
   }
 
   private void renderAsColorLayer(Canvas canvas, LayerState layerState) {
+    renderColor(
+        canvas,
+        layerState.color,
+        layerState.left,
+        layerState.top,
+        layerState.right,
+        layerState.bottom,
+        layerState.alpha,
+        layerState.cornerRadius);
+  }
+
+  private void renderAsImageLayer(Canvas canvas, LayerState layerState, Bitmap bitmap) {
+    renderImage(
+        canvas,
+        bitmap,
+        layerState,
+        layerState.left,
+        layerState.top,
+        layerState.right,
+        layerState.bottom,
+        layerState.alpha,
+        layerState.scale,
+        layerState.px,
+        layerState.py,
+        layerState.rotate,
+        layerState.flip,
+        layerState.mirror);
+  }
+
+  private void renderAsTextLayer(Canvas canvas, LayerState layerState) {
+    StaticLayout textLayout = AndroidLayers.getTextLayout(layerState);
+    Bitmap raster = getTextRaster(layerState, textLayout, layerState.textSize, layerState.scale);
+    if (raster != null) {
+      renderTextRaster(
+          canvas,
+          raster,
+          textLayout,
+          layerState.color,
+          layerState.alpha,
+          layerState.left,
+          layerState.top,
+          layerState.scale,
+          layerState.px,
+          layerState.py,
+          layerState.rotate);
+      return;
+    }
+    renderText(
+        canvas,
+        textLayout,
+        layerState.left,
+        layerState.top,
+        layerState.scale,
+        layerState.px,
+        layerState.py,
+        layerState.rotate);
+  }
+
+  /**
+   * Get the raster of a text layer when rasterizing text, unless its text size is being tweened
+   * away from the size of its layout.
+   */
+  private Bitmap getTextRaster(
+      LayerState source,
+      StaticLayout textLayout,
+      float textSize,
+      float scale) {
+    if (mTextRasterCache == null || textSize != source.getTextLayoutSize()) {
+      return null;
+    }
+    return mTextRasterCache.get(textLayout, scale);
+  }
+
+  /**
+   * Pick what to draw for an image layer: the variant closest to the drawn size when the layer has
+   * variants, the decoded bitmap otherwise.
+   */
+  private static Bitmap pickBitmap(
+      LayerState source,
+      Bitmap bitmap,
+      float drawnWidth,
+      float drawnHeight) {
+    if (source == null) {
+      return bitmap;
+    }
+    BitmapVariants variants = AndroidLayers.getBitmapVariants(source);
+    if (variants != null) {
+      return variants.pick(Math.abs(drawnWidth), Math.abs(drawnHeight));
+    }
+    return bitmap != null ? bitmap : AndroidLayers.getBitmap(source);
+  }
+
+  private void renderColor(
+      Canvas canvas,
+      int color,
+      float left,
+      float top,
+      float right,
+      float bottom,
+      float alpha,
+      float cornerRadius) {
+    if (cornerRadius != 0 && mLayerRasterCache != null) {
+      Bitmap raster =
+          mLayerRasterCache.getRoundRect(color, right - left, bottom - top, cornerRadius);
+      if (raster != null) {
+        renderRaster(canvas, raster, left, top, right, bottom, alpha);
+        return;
+      }
+    }
+
+    if (mRecording != null) {
+      if (cornerRadius == 0) {
+        mRecording.drawRect(left, top, right, bottom, color, alpha);
+      } else {
+        mRecording.drawRoundRect(left, top, right, bottom, cornerRadius, color, alpha);
+      }
+      return;
+    }
+
     mPaint.reset();
-    mPaint.setColor(layerState.color);
+    mPaint.setColor(color);
     mPaint.setStyle(Paint.Style.FILL);
     mPaint.setAntiAlias(true);
-    mPaint.setAlpha(Math.round(layerState.alpha * 255));
+    mPaint.setAlpha(Math.round(alpha * 255));
 
-    if (layerState.cornerRadius == 0) {
-      canvas.drawRect(layerState.left, layerState.top, layerState.right, layerState.bottom, mPaint);
+    if (cornerRadius == 0) {
+      canvas.drawRect(left, top, right, bottom, mPaint);
     } else {
-      mTempRectF.set(layerState.left, layerState.top,layerState.right, layerState.bottom);
-      canvas.drawRoundRect(mTempRectF, layerState.cornerRadius, layerState.cornerRadius, mPaint);
+      mTempRectF.set(left, top, right, bottom);
+      canvas.drawRoundRect(mTempRectF, cornerRadius, cornerRadius, mPaint);
     }
   }
 
-  private void renderAsImageLayer(Canvas canvas, LayerState layerState) {
+  private void renderPlaceholder(
+      Canvas canvas,
+      float left,
+      float top,
+      float right,
+      float bottom,
+      float alpha,
+      float cornerRadius,
+      float scale,
+      float px,
+      float py,
+      float rotate) {
+    save(canvas);
+    scale(canvas, scale, px, py);
+    rotate(canvas, rotate, px, py);
+    renderColor(canvas, mPlaceholderColor, left, top, right, bottom, alpha, cornerRadius);
+    restore(canvas);
+  }
+
+  private void renderImage(
+      Canvas canvas,
+      Bitmap bitmap,
+      LayerState image,
+      float left,
+      float top,
+      float right,
+      float bottom,
+      float alpha,
+      float scale,
+      float px,
+      float py,
+      float rotate,
+      boolean flip,
+      boolean mirror) {
+    if (mLayerRasterCache != null && image != null && image.bitmapResId != 0) {
+      Bitmap raster = mLayerRasterCache.getImage(
+          bitmap,
+          image.bitmapResId,
+          image.bitmapWidth,
+          image.bitmapHeight,
+          right - left,
+          bottom - top,
+          flip,
+          mirror,
+          scale);
+      if (raster != null) {
+        save(canvas);
+        scale(canvas, scale, px, py);
+        rotate(canvas, rotate, px, py);
+        renderRaster(canvas, raster, left, top, right, bottom, alpha);
+        restore(canvas);
+        return;
+      }
+    }
+
     mPaint.reset();
     mPaint.setFilterBitmap(true);
     mPaint.setAntiAlias(true);
-    mPaint.setAlpha(Math.round(layerState.alpha * 255));
-
-    int imageWidth = layerState.bitmap.getWidth();
-    int imageHeight = layerState.bitmap.getHeight();
-    float imageAspect = (float) imageWidth / (float) imageHeight;
-
-    float frameWidth = layerState.width();
-    float frameHeight = layerState.height();
-    float frameAspect = frameWidth / frameHeight;
+    mPaint.setAlpha(Math.round(alpha * 255));
 
     // Find the aspect ratio matching center cropped rectangle in the image bounds for the rendering
-    // frame.
-    if (imageAspect > frameAspect) {
-      // constrain width
-      int diff = Math.round((imageWidth - (imageHeight * frameAspect)) / 2f);
-      int left = diff;
-      int right = imageWidth - diff;
-      mTempRect.set(left, 0, right, imageHeight);
-    } else {
-      // constrain height
-      int diff = Math.round((imageHeight - (imageWidth / frameAspect)) / 2f);
-      int top = diff;
-      int bottom = imageHeight - diff;
-      mTempRect.set(0, top, imageWidth, bottom);
-    }
+    // frame. Variants resampled for the frame are drawn whole.
+    BitmapVariants.centerCrop(
+        bitmap.getWidth(),
+        bitmap.getHeight(),
+        (right - left) / (bottom - top),
+        mTempRect);
 
-    if (layerState.flip) {
+    if (flip) {
       mTempRect.set(mTempRect.left, mTempRect.bottom, mTempRect.right, mTempRect.top);
-    } else if (layerState.mirror) {
+    } else if (mirror) {
       mTempRect.set(mTempRect.right, mTempRect.top, mTempRect.left, mTempRect.bottom);
     }
 
     // Target rectangle is just the frame of the LayerState.
-    mTempRectF.set(layerState.left, layerState.top, layerState.right, layerState.bottom);
+    mTempRectF.set(left, top, right, bottom);
 
     // Aspect ratio cropped matching rectangle of the image is scaled to fill the LayerState
     // rectangle.
-    canvas.save();
-    canvas.scale(layerState.scale, layerState.scale, layerState.px, layerState.py);
-    canvas.rotate(layerState.rotate, layerState.px, layerState.py);
-    canvas.drawBitmap(layerState.bitmap, mTempRect, mTempRectF, mPaint);
-    canvas.restore();
+    save(canvas);
+    scale(canvas, scale, px, py);
+    rotate(canvas, rotate, px, py);
+    if (mRecording != null) {
+      mRecording.drawBitmap(
+          bitmap,
+          true,
+          mTempRect.left,
+          mTempRect.top,
+          mTempRect.right,
+          mTempRect.bottom,
+          left,
+          top,
+          right,
+          bottom,
+          Color.BLACK,
+          alpha);
+    } else {
+      canvas.drawBitmap(bitmap, mTempRect, mTempRectF, mPaint);
+    }
+    restore(canvas);
   }
 
-  private void renderAsTextLayer(Canvas canvas, LayerState layerState) {
-    canvas.save();
-    float halfHeight = layerState.getTextLayout().getHeight() / 2f;
-    canvas.translate(layerState.left, layerState.top - halfHeight);
-    canvas.scale(layerState.scale, layerState.scale, layerState.px, layerState.py);
-    canvas.rotate(layerState.rotate, layerState.px, layerState.py);
-    layerState.getTextLayout().draw(canvas);
-    canvas.restore();
+  /**
+   * Composite a layer raster over the frame of its layer.
+   */
+  private void renderRaster(
+      Canvas canvas,
+      Bitmap raster,
+      float left,
+      float top,
+      float right,
+      float bottom,
+      float alpha) {
+    if (mRecording != null) {
+      mRecording.drawBitmap(
+          raster,
+          false,
+          0,
+          0,
+          0,
+          0,
+          left,
+          top,
+          right,
+          bottom,
+          Color.BLACK,
+          alpha);
+      return;
+    }
+    mPaint.reset();
+    mPaint.setFilterBitmap(true);
+    mPaint.setAntiAlias(true);
+    mPaint.setAlpha(Math.round(alpha * 255));
+    mTempRectF.set(left, top, right, bottom);
+    canvas.drawBitmap(raster, null, mTempRectF, mPaint);
+  }
+
+  private void renderTextRaster(
+      Canvas canvas,
+      Bitmap raster,
+      StaticLayout textLayout,
+      int color,
+      float alpha,
+      float left,
+      float top,
+      float scale,
+      float px,
+      float py,
+      float rotate) {
+    mPaint.reset();
+    mPaint.setFilterBitmap(true);
+    mPaint.setAntiAlias(true);
+    // Alpha bitmaps are drawn in the color of the paint.
+    mPaint.setColor(color);
+    mPaint.setAlpha(Math.round(alpha * 255));
+
+    // The same transform as renderText, with the raster stretched over the bounds of the layout.
+    save(canvas);
+    float halfHeight = textLayout.getHeight() / 2f;
+    translate(canvas, left, top - halfHeight);
+    scale(canvas, scale, px, py);
+    rotate(canvas, rotate, px, py);
+    if (mRecording != null) {
+      mRecording.drawBitmap(
+          raster,
+          false,
+          0,
+          0,
+          0,
+          0,
+          0,
+          0,
+          textLayout.getWidth(),
+          textLayout.getHeight(),
+          color,
+          alpha);
+    } else {
+      mTempRectF.set(0, 0, textLayout.getWidth(), textLayout.getHeight());
+      canvas.drawBitmap(raster, null, mTempRectF, mPaint);
+    }
+    restore(canvas);
+  }
+
+  private void renderText(
+      Canvas canvas,
+      StaticLayout textLayout,
+      float left,
+      float top,
+      float scale,
+      float px,
+      float py,
+      float rotate) {
+    save(canvas);
+    float halfHeight = textLayout.getHeight() / 2f;
+    translate(canvas, left, top - halfHeight);
+    scale(canvas, scale, px, py);
+    rotate(canvas, rotate, px, py);
+    if (mRecording != null) {
+      // The paint of the layout was set up for this layer.
+      TextPaint paint = textLayout.getPaint();
+      mRecording.drawText(
+          textLayout,
+          textLayout.getText(),
+          textLayout.getWidth(),
+          textLayout.getHeight(),
+          paint.getTextSize(),
+          getAlignFlag(textLayout.getAlignment()),
+          paint.getColor(),
+          paint.getAlpha() / 255f);
+    } else {
+      textLayout.draw(canvas);
+    }
+    restore(canvas);
+  }
+
+  private static int getAlignFlag(Layout.Alignment alignment) {
+    if (alignment == Layout.Alignment.ALIGN_CENTER) {
+      return RenderCommandList.FLAG_ALIGN_CENTER;
+    } else if (alignment == Layout.Alignment.ALIGN_OPPOSITE) {
+      return RenderCommandList.FLAG_ALIGN_OPPOSITE;
+    }
+    return RenderCommandList.FLAG_ALIGN_NORMAL;
+  }
+
+  /* Transforms, applied to the canvas or the list being recorded. */
+
+  private void save(Canvas canvas) {
+    if (mRecording != null) {
+      mRecording.save();
+    } else {
+      canvas.save();
+    }
+  }
+
+  private void restore(Canvas canvas) {
+    if (mRecording != null) {
+      mRecording.restore();
+    } else {
+      canvas.restore();
+    }
+  }
+
+  private void translate(Canvas canvas, float dx, float dy) {
+    if (mRecording != null) {
+      mRecording.translate(dx, dy);
+    } else {
+      canvas.translate(dx, dy);
+    }
+  }
+
+  private void scale(Canvas canvas, float scale, float px, float py) {
+    if (mRecording != null) {
+      mRecording.scale(scale, px, py);
+    } else {
+      canvas.scale(scale, scale, px, py);
+    }
+  }
+
+  private void rotate(Canvas canvas, float degrees, float px, float py) {
+    if (mRecording != null) {
+      mRecording.rotate(degrees, px, py);
+    } else {
+      canvas.rotate(degrees, px, py);
+    }
   }
 }
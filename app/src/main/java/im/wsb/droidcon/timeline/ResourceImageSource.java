@@ -0,0 +1,39 @@
+// Copyright 2004-present Facebook. All Rights Reserved.
+
+package im.wsb.droidcon.timeline;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+
+/**
+ * ResourceImageSource provides the bitmaps of image layers from drawable resources, decoded and
+ * owned by the {@link BitmapCache}.
+ */
+public class ResourceImageSource implements LayerState.ImageSource {
+
+  private final Resources mResources;
+
+  public ResourceImageSource(Resources resources) {
+    mResources = resources;
+  }
+
+  @Override
+  public Object get(int resId, int reqWidth, int reqHeight) {
+    return BitmapCache.getInstance().get(mResources, resId, reqWidth, reqHeight);
+  }
+
+  @Override
+  public Object peek(int resId, int reqWidth, int reqHeight) {
+    return BitmapCache.getInstance().peek(resId, reqWidth, reqHeight);
+  }
+
+  @Override
+  public int getWidth(Object bitmap) {
+    return ((Bitmap) bitmap).getWidth();
+  }
+
+  @Override
+  public int getHeight(Object bitmap) {
+    return ((Bitmap) bitmap).getHeight();
+  }
+}
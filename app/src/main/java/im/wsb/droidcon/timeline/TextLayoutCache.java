@@ -0,0 +1,266 @@
+// Copyright 2004-present Facebook. All Rights Reserved.
+
+package im.wsb.droidcon.timeline;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.os.Process;
+import android.text.Layout;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.util.LruCache;
+
+/**
+ * TextLayoutCache is a process wide cache of {@link StaticLayout}s keyed by the text, the text
+ * size, typeface, layout width and alignment. Text layers with the same content share one layout,
+ * however many key frames and copies show them.
+ *
+ * The cache is the {@link LayerState.TextLayoutSource} of the app, so layouts are built by
+ * {@link LayerState#layoutText()} on a miss. The {@link Timeline} prewarms the cache with the
+ * text layers of the key frames around the current one on a background thread, so by the time a
+ * slide is drawn its layouts are only looked up.
+ *
+ * Lookups go through a single probe key, so looking a layout up doesn't allocate.
+ *
+ * Each cached layout owns its paint. The {@link Renderer} sets the color, alpha and text size of
+ * that paint right before drawing, so layouts must only be drawn from the main thread.
+ */
+public class TextLayoutCache implements LayerState.TextLayoutSource {
+
+  private static final int MAX_LAYOUTS = 256;
+  private static final long IDLE_TIMEOUT_MS = 1000;
+
+  private static TextLayoutCache sInstance;
+
+  private final LruCache<Key, StaticLayout> mLayouts;
+  private final ThreadPoolExecutor mExecutor;
+  /* Guarded by itself, layouts are looked up from the main and tween threads. */
+  private final Key mProbe = new Key();
+
+  /**
+   * Get the process wide cache.
+   * @return the shared cache
+   */
+  public static synchronized TextLayoutCache getInstance() {
+    if (sInstance == null) {
+      sInstance = new TextLayoutCache(MAX_LAYOUTS);
+    }
+    return sInstance;
+  }
+
+  /**
+   * @param maxLayouts how many layouts to keep before evicting the least recently used
+   */
+  public TextLayoutCache(int maxLayouts) {
+    mLayouts = new LruCache<>(maxLayouts);
+    mExecutor = new ThreadPoolExecutor(
+        1,
+        1,
+        IDLE_TIMEOUT_MS,
+        TimeUnit.MILLISECONDS,
+        new LinkedBlockingQueue<Runnable>(),
+        new ThreadFactory() {
+          @Override
+          public Thread newThread(final Runnable runnable) {
+            return new Thread(new Runnable() {
+              @Override
+              public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                runnable.run();
+              }
+            }, "TextLayoutCache");
+          }
+        });
+    mExecutor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Get the layout of a text, building it on a miss.
+   * @param text the text to lay out
+   * @param textSize the size of the text
+   * @param typeface the typeface or null for the default
+   * @param width the width to wrap the text at
+   * @param alignment the alignment of the lines
+   * @return the shared layout
+   */
+  public StaticLayout get(
+      String text,
+      float textSize,
+      Typeface typeface,
+      int width,
+      Layout.Alignment alignment) {
+    Key key;
+    synchronized (mProbe) {
+      mProbe.set(text, textSize, typeface, width, alignment);
+      StaticLayout layout = mLayouts.get(mProbe);
+      if (layout != null) {
+        return layout;
+      }
+      key = mProbe.copy();
+    }
+    return build(key);
+  }
+
+  @Override
+  public Object getTextLayout(LayerState layerState) {
+    // Layers draw their text in the default typeface.
+    return get(
+        layerState.text,
+        layerState.textSize,
+        null,
+        (int) layerState.width(),
+        AndroidLayers.toLayoutAlignment(layerState.getTextAlignment()));
+  }
+
+  @Override
+  public int getHeight(Object textLayout) {
+    return ((StaticLayout) textLayout).getHeight();
+  }
+
+  /**
+   * Lay out the text of text layers on a background thread. The layers are read on the calling
+   * thread so they may keep changing afterwards. A prewarm replaces the one still queued.
+   * @param layerStates the layers to lay out, layers without text are skipped
+   */
+  public void prewarm(List<LayerState> layerStates) {
+    final List<Key> keys = new ArrayList<>(layerStates.size());
+    synchronized (mProbe) {
+      for (LayerState layerState : layerStates) {
+        if (layerState.text == null) {
+          continue;
+        }
+        // Layers draw their text in the default typeface.
+        mProbe.set(
+            layerState.text,
+            layerState.textSize,
+            null,
+            (int) layerState.width(),
+            AndroidLayers.toLayoutAlignment(layerState.getTextAlignment()));
+        if (mLayouts.get(mProbe) == null) {
+          keys.add(mProbe.copy());
+        }
+      }
+    }
+    mExecutor.getQueue().clear();
+    if (keys.isEmpty()) {
+      return;
+    }
+    mExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        for (Key key : keys) {
+          if (mLayouts.get(key) == null) {
+            build(key);
+          }
+        }
+      }
+    });
+  }
+
+  public int hitCount() {
+    return mLayouts.hitCount();
+  }
+
+  public int missCount() {
+    return mLayouts.missCount();
+  }
+
+  public int size() {
+    return mLayouts.size();
+  }
+
+  public void evictAll() {
+    mLayouts.evictAll();
+  }
+
+  @Override
+  public String toString() {
+    return "TextLayoutCache{layouts=" + size() +
+        ", hits=" + hitCount() +
+        ", misses=" + missCount() + "}";
+  }
+
+  private StaticLayout build(Key key) {
+    TextPaint paint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+    paint.setTextSize(key.textSize);
+    paint.setTypeface(key.typeface);
+    StaticLayout layout = new StaticLayout(key.text, paint, key.width, key.alignment, 1, 0, true);
+
+    // Keep the layout another thread may have built in the meantime so layers share one copy.
+    StaticLayout previous = mLayouts.put(key, layout);
+    if (previous != null) {
+      mLayouts.put(key, previous);
+      return previous;
+    }
+    return layout;
+  }
+
+  static final class Key {
+
+    String text;
+    float textSize;
+    Typeface typeface;
+    int width;
+    Layout.Alignment alignment;
+    private int mHashCode;
+
+    void set(
+        String text,
+        float textSize,
+        Typeface typeface,
+        int width,
+        Layout.Alignment alignment) {
+      this.text = text;
+      this.textSize = textSize;
+      this.typeface = typeface;
+      this.width = width;
+      this.alignment = alignment;
+      int hashCode = text.hashCode();
+      hashCode = 31 * hashCode + Float.floatToIntBits(textSize);
+      hashCode = 31 * hashCode + (typeface != null ? typeface.hashCode() : 0);
+      hashCode = 31 * hashCode + width;
+      hashCode = 31 * hashCode + alignment.hashCode();
+      mHashCode = hashCode;
+    }
+
+    Key copy() {
+      Key copy = new Key();
+      copy.text = text;
+      copy.textSize = textSize;
+      copy.typeface = typeface;
+      copy.width = width;
+      copy.alignment = alignment;
+      copy.mHashCode = mHashCode;
+      return copy;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return mHashCode == other.mHashCode &&
+          textSize == other.textSize &&
+          width == other.width &&
+          alignment == other.alignment &&
+          (typeface == null ? other.typeface == null : typeface.equals(other.typeface)) &&
+          text.equals(other.text);
+    }
+
+    @Override
+    public int hashCode() {
+      return mHashCode;
+    }
+  }
+}
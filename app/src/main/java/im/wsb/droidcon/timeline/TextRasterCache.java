@@ -0,0 +1,110 @@
+// Copyright 2004-present Facebook. All Rights Reserved.
+
+package im.wsb.droidcon.timeline;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.util.LruCache;
+
+/**
+ * TextRasterCache keeps the glyphs of text layouts rasterized into alpha bitmaps so the
+ * {@link Renderer} can draw text that only moves, scales, rotates and fades during a transition as
+ * a single transformed bitmap instead of laying out glyphs every frame.
+ *
+ * Rasters are keyed by the {@link StaticLayout} from the {@link TextLayoutCache}, which already
+ * changes whenever the text, text size or width does. They only hold coverage, the color and alpha
+ * come from the paint they are drawn with, so color changes never rasterize again. Each layout is
+ * rasterized at the power of two at or above the largest scale it has been drawn at, up to
+ * {@link #MAX_RASTER_SCALE}.
+ *
+ * Rasters are only drawn and created on the main thread. Evicted and replaced rasters are never
+ * recycled, hardware display lists and recorded command lists may still draw them, so they are left
+ * to the garbage collector.
+ */
+public class TextRasterCache {
+
+  public static final float MAX_RASTER_SCALE = 4;
+
+  private final LruCache<StaticLayout, Bitmap> mRasters;
+
+  /**
+   * @param maxBytes how many bytes of rasters to keep before evicting the least recently used
+   */
+  public TextRasterCache(int maxBytes) {
+    mRasters = new LruCache<StaticLayout, Bitmap>(maxBytes) {
+      @Override
+      protected int sizeOf(StaticLayout key, Bitmap value) {
+        return value.getByteCount();
+      }
+    };
+  }
+
+  /**
+   * Get the raster of a text layout covering at least the provided scale, rasterizing it on a
+   * miss or when it was only rasterized for smaller scales.
+   * @param textLayout the layout to rasterize
+   * @param scale the scale the layout is drawn at
+   * @return the raster, drawn stretched over the bounds of the layout, or null if the layout is
+   *     empty or too large to cache
+   */
+  public Bitmap get(StaticLayout textLayout, float scale) {
+    int width = textLayout.getWidth();
+    int height = textLayout.getHeight();
+    if (width <= 0 || height <= 0) {
+      return null;
+    }
+
+    float rasterScale = 1;
+    while (rasterScale < Math.abs(scale) && rasterScale < MAX_RASTER_SCALE) {
+      rasterScale *= 2;
+    }
+    Bitmap raster = mRasters.get(textLayout);
+    if (raster != null && raster.getWidth() >= Math.ceil(width * rasterScale)) {
+      return raster;
+    }
+
+    int rasterWidth = (int) Math.ceil(width * rasterScale);
+    int rasterHeight = (int) Math.ceil(height * rasterScale);
+    if (rasterWidth * rasterHeight > mRasters.maxSize()) {
+      return null;
+    }
+    raster = Bitmap.createBitmap(rasterWidth, rasterHeight, Bitmap.Config.ALPHA_8);
+    Canvas canvas = new Canvas(raster);
+    canvas.scale(rasterScale, rasterScale);
+    // Only the coverage ends up in the raster.
+    TextPaint paint = textLayout.getPaint();
+    paint.setColor(Color.BLACK);
+    textLayout.draw(canvas);
+    mRasters.put(textLayout, raster);
+    return raster;
+  }
+
+  public int hitCount() {
+    return mRasters.hitCount();
+  }
+
+  public int missCount() {
+    return mRasters.missCount();
+  }
+
+  /**
+   * @return the bytes used by the cached rasters
+   */
+  public int size() {
+    return mRasters.size();
+  }
+
+  public void evictAll() {
+    mRasters.evictAll();
+  }
+
+  @Override
+  public String toString() {
+    return "TextRasterCache{bytes=" + size() + "/" + mRasters.maxSize() +
+        ", hits=" + hitCount() +
+        ", misses=" + missCount() + "}";
+  }
+}
@@ -14,7 +14,6 @@ import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Rect;
-import android.os.SystemClock;
 import android.util.Log;
 import android.util.TypedValue;
 
@@ -37,11 +36,25 @@ public abstract class Timeline implements SpringListener, Timer.Listener {
     void onFinished(Timeline timeline);
   }
 
+  /**
+   * KeyFrameSource builds the layers of key frames on demand for a Timeline that only keeps a
+   * window of key frames around the current one in memory.
+   */
+  public interface KeyFrameSource extends KeyFrameWindow.Source {
+  }
+
   protected final List<Frame> mKeyFrames = new ArrayList<>();
+  // Cached TweenPlans indexed by the key frame index of the starting frame. Forward plans tween a
+  // frame to its next frame and hold plans tween a frame to itself at either end of the timeline.
+  private final List<TweenPlan> mForwardTweenPlans = new ArrayList<>();
+  private final List<TweenPlan> mHoldTweenPlans = new ArrayList<>();
+  private final TweenContext mTweenContext = new TweenContext();
+  private final DirtyRegion mDirtyRegion = new DirtyRegion();
   private final Context mContext;
   private final Spring mProgress;
   private final CopyOnWriteArraySet<Listener> mListeners;
   private final Timer mTimer;
+  private final Clock mClock;
   private final Resources mResources;
   private boolean mUserInteracting;
   private long mUserInteractionStoppedAt;
@@ -50,9 +63,35 @@ public abstract class Timeline implements SpringListener, Timer.Listener {
   private Frame mCurrentKeyFrame;
   private Frame mFirstKeyFrame;
   private Frame mLastKeyFrame;
+  private TweenPlan mTweenPlan;
+  private float mTweenProgress;
+  /* The plan and progress the frame of the tween context was last tweened for. */
+  private TweenPlan mTweenedPlan;
+  private float mTweenedProgress;
+  // Set while the progress rests between key frames after a seek.
+  private boolean mHoldingSeekPosition;
+  /* Windowed key frames, see setKeyFrameWindow. */
+  private KeyFrameWindow mKeyFrameWindow;
+  /* Bitmap prefetching, see setBitmapLoader. */
+  private BitmapLoader mBitmapLoader;
+  private int mPrefetchRadius;
+  /* Text layout prewarming, see setTextLayoutCache. */
+  private TextLayoutCache mTextLayoutCache;
+  private int mPrewarmRadius;
+  private int mLastKeyFrameIndex;
+  private int mTravelDirection = 1;
 
   public Timeline(Context context) {
+    this(context, new AndroidClock());
+  }
+
+  /**
+   * @param context the context to load resources with
+   * @param clock the clock timed playback and user interaction are measured with
+   */
+  public Timeline(Context context, Clock clock) {
     mContext = context;
+    mClock = clock;
     mResources = context.getResources();
     mProgress = SpringSystem
         .create()
@@ -60,7 +99,7 @@ public abstract class Timeline implements SpringListener, Timer.Listener {
         .setSpringConfig(SpringConfig.fromOrigamiTensionAndFriction(30, 6.2f))
         .addListener(this);
     mListeners = new CopyOnWriteArraySet<>();
-    mTimer = new Timer();
+    mTimer = new Timer(clock);
     mTimer.addListener(this);
   }
 
@@ -79,7 +118,7 @@ public abstract class Timeline implements SpringListener, Timer.Listener {
   public void setUserInteracting(boolean userInteracting) {
     mUserInteracting = userInteracting;
     if (!mUserInteracting) {
-      mUserInteractionStoppedAt = SystemClock.uptimeMillis();
+      mUserInteractionStoppedAt = mClock.uptimeMillis();
     } else {
       mUserInteractedSinceLastSettle = false;
     }
@@ -112,11 +151,55 @@ public abstract class Timeline implements SpringListener, Timer.Listener {
    */
   public Timeline reset() {
     mCurrentKeyFrame = mFirstKeyFrame;
+    onCurrentKeyFrameChanged();
+    mHoldingSeekPosition = false;
     mTimer.reset();
     mProgress.setCurrentValue(0);
     return this;
   }
 
+  /**
+   * Jump to a position across the whole timeline without animating through the key frames in
+   * between. The integer part of the position is the index of the key frame and the fraction is
+   * the progress towards the key frame after it, so 12.37 is 37% of the way from key frame 12 to
+   * key frame 13. Seeking to a whole position settles on that key frame.
+   * @param position the position in the range of 0 - number of key frames - 1
+   * @return the Timeline for chaining
+   */
+  public Timeline seekTo(float position) {
+    if (mKeyFrames.isEmpty()) {
+      return this;
+    }
+
+    float clampedPosition = (float) SpringUtil.clamp(position, 0, mKeyFrames.size() - 1);
+    int index = (int) clampedPosition;
+    float progress = clampedPosition - index;
+
+    mTimer.reset();
+    mLastInterpolationDiscrepancy = 0;
+    mCurrentKeyFrame = mKeyFrames.get(index);
+    onCurrentKeyFrameChanged();
+    mHoldingSeekPosition = progress != 0;
+    mProgress.setCurrentValue(progress);
+    mProgress.setAtRest();
+
+    if (!mHoldingSeekPosition && !mUserInteracting) {
+      notifySettled();
+    }
+    return this;
+  }
+
+  /**
+   * Get the position across the whole timeline, the inverse of {@link #seekTo(float)}.
+   * @return the position in the range of 0 - number of key frames - 1
+   */
+  public float getPosition() {
+    if (mCurrentKeyFrame == null) {
+      return 0;
+    }
+    return mCurrentKeyFrame.index + (float) mProgress.getCurrentValue();
+  }
+
   /**
    * Get the current progress state of the timeline.
    * @return the progress in the range of 0 - number of keyframes - 1.
@@ -130,6 +213,7 @@ public abstract class Timeline implements SpringListener, Timer.Listener {
    * @param progressIncrement the amount to increment by
    */
   public void incrementProgress(float progressIncrement) {
+    mHoldingSeekPosition = false;
     if (mLastInterpolationDiscrepancy > 0) {
       progressIncrement += mLastInterpolationDiscrepancy;
       mLastInterpolationDiscrepancy = 0;
@@ -142,6 +226,7 @@ public abstract class Timeline implements SpringListener, Timer.Listener {
    * @param velocity
    */
   public void animateProgressWithVelocity(float velocity) {
+    mHoldingSeekPosition = false;
     mProgress.setVelocity(velocity);
     float progress = (float) mProgress.getCurrentValue();
 
@@ -194,6 +279,172 @@ public abstract class Timeline implements SpringListener, Timer.Listener {
     return frame;
   }
 
+  /**
+   * Add a key frame whose layers are only built by the {@link KeyFrameSource} once it comes within
+   * the window set by {@link #setKeyFrameWindow(KeyFrameSource, int, int)}.
+   * @return the created frame
+   */
+  public Frame makeLazyKeyFrame() {
+    Frame frame = new Frame();
+    frame.resident = false;
+    addKeyFrame(frame);
+    return frame;
+  }
+
+  /**
+   * Only keep the layers of a window of key frames around the current key frame in memory. Key
+   * frames within windowRadius of the current key frame are built by the source when they are not
+   * resident, and the least recently used key frames are evicted once more than
+   * maxResidentKeyFrames are resident.
+   * @param source builds the layers of key frames
+   * @param windowRadius how many key frames on either side of the current one are kept built
+   * @param maxResidentKeyFrames how many key frames may be built at once
+   * @return the Timeline for chaining
+   */
+  public Timeline setKeyFrameWindow(
+      KeyFrameSource source,
+      int windowRadius,
+      int maxResidentKeyFrames) {
+    mKeyFrameWindow = new KeyFrameWindow(
+        mKeyFrames,
+        source,
+        windowRadius,
+        maxResidentKeyFrames,
+        new KeyFrameWindow.EvictionListener() {
+          @Override
+          public void onKeyFrameEvicted(Frame frame) {
+            forgetTweenPlans(frame);
+          }
+        });
+    updateKeyFrameWindow();
+    return this;
+  }
+
+  /**
+   * Decode the bitmaps of the key frames around the current key frame in the background. Bitmaps
+   * of nearer key frames are decoded first, and ahead of those behind the direction of travel.
+   * Decodes of key frames that move out of the radius are cancelled, and the bitmaps of key frames
+   * outside of it are the first the {@link BitmapCache} evicts.
+   * @param loader the loader decoding the bitmaps or null to stop prefetching
+   * @param radius how many key frames on either side of the current one to prefetch, key frames
+   *     that are not resident are skipped
+   * @return the Timeline for chaining
+   */
+  public Timeline setBitmapLoader(BitmapLoader loader, int radius) {
+    mBitmapLoader = loader;
+    mPrefetchRadius = radius;
+    prefetchBitmaps();
+    return this;
+  }
+
+  private void onCurrentKeyFrameChanged() {
+    if (mCurrentKeyFrame != null && mCurrentKeyFrame.index != mLastKeyFrameIndex) {
+      mTravelDirection = mCurrentKeyFrame.index > mLastKeyFrameIndex ? 1 : -1;
+      mLastKeyFrameIndex = mCurrentKeyFrame.index;
+    }
+    updateKeyFrameWindow();
+    prefetchBitmaps();
+    prewarmTextLayouts();
+  }
+
+  /**
+   * Lay out the text layers of the key frames around the current key frame in the background, so
+   * their layouts are only looked up while drawing.
+   * @param cache the cache to lay out into or null to stop prewarming
+   * @param radius how many key frames on either side of the current one to prewarm, key frames
+   *     that are not resident are skipped
+   * @return the Timeline for chaining
+   */
+  public Timeline setTextLayoutCache(TextLayoutCache cache, int radius) {
+    mTextLayoutCache = cache;
+    mPrewarmRadius = radius;
+    prewarmTextLayouts();
+    return this;
+  }
+
+  private void prewarmTextLayouts() {
+    if (mTextLayoutCache == null || mCurrentKeyFrame == null) {
+      return;
+    }
+    int index = mCurrentKeyFrame.index;
+    List<LayerState> layerStates = new ArrayList<>();
+    // Nearest key frames first, ahead of those behind the direction of travel.
+    for (int distance = 0; distance <= mPrewarmRadius; distance++) {
+      addTextLayers(index + distance * mTravelDirection, layerStates);
+      if (distance > 0) {
+        addTextLayers(index - distance * mTravelDirection, layerStates);
+      }
+    }
+    mTextLayoutCache.prewarm(layerStates);
+  }
+
+  private void addTextLayers(int index, List<LayerState> out) {
+    if (index < 0 || index >= mKeyFrames.size()) {
+      return;
+    }
+    Frame frame = mKeyFrames.get(index);
+    if (!frame.resident) {
+      return;
+    }
+    for (LayerState layerState : frame.layerStates.values()) {
+      if (layerState.text != null) {
+        out.add(layerState);
+      }
+    }
+  }
+
+  private void prefetchBitmaps() {
+    if (mBitmapLoader == null || mCurrentKeyFrame == null) {
+      return;
+    }
+    int index = mCurrentKeyFrame.index;
+    mBitmapLoader.beginPrefetch();
+    for (int offset = -mPrefetchRadius; offset <= mPrefetchRadius; offset++) {
+      if (index + offset < 0 || index + offset >= mKeyFrames.size()) {
+        continue;
+      }
+      Frame frame = mKeyFrames.get(index + offset);
+      if (!frame.resident) {
+        continue;
+      }
+      int priority = Math.abs(offset) * 2 + (offset * mTravelDirection < 0 ? 1 : 0);
+      for (LayerState layerState : frame.layerStates.values()) {
+        if (layerState.bitmapResId != 0) {
+          mBitmapLoader.request(
+              layerState.bitmapResId,
+              layerState.bitmapWidth,
+              layerState.bitmapHeight,
+              priority);
+        }
+      }
+    }
+    mBitmapLoader.endPrefetch();
+  }
+
+  private void updateKeyFrameWindow() {
+    if (mKeyFrameWindow == null || mCurrentKeyFrame == null) {
+      return;
+    }
+    mKeyFrameWindow.update(mCurrentKeyFrame.index);
+  }
+
+  private Frame ensureResident(Frame frame) {
+    return mKeyFrameWindow != null ? mKeyFrameWindow.ensureResident(frame) : frame;
+  }
+
+  private void forgetTweenPlans(Frame frame) {
+    // Cached plans reference the layers of the frame.
+    if (frame.index > 0 && frame.index <= mForwardTweenPlans.size()) {
+      mForwardTweenPlans.set(frame.index - 1, null);
+    }
+    if (frame.index < mForwardTweenPlans.size()) {
+      mForwardTweenPlans.set(frame.index, null);
+    }
+    if (frame.index < mHoldTweenPlans.size()) {
+      mHoldTweenPlans.set(frame.index, null);
+    }
+  }
+
   /**
    * Just add the frame to the key frames
    * @param frame the frame to add
@@ -235,7 +486,7 @@ public abstract class Timeline implements SpringListener, Timer.Listener {
    * @return the Frame
    */
   public Frame getKeyFrame(int i) {
-    return mKeyFrames.get(i);
+    return ensureResident(mKeyFrames.get(i));
   }
 
   /**
@@ -271,15 +522,97 @@ public abstract class Timeline implements SpringListener, Timer.Listener {
   }
 
   /**
-   * Get the interpolated current frame based on the current progress
+   * Get the interpolated current frame based on the current progress. The frame is only tweened
+   * again once the progress or the key frames being tweened change, so finding the dirty bounds
+   * and drawing the same progress share one tween.
    * @return the interpolated frame
    */
   public Frame getTweenedFrame() {
-    if (mKeyFrames.isEmpty()) {
+    if (!resolveTween((float) mProgress.getCurrentValue(), true)) {
       return null;
     }
+    if (mTweenPlan == mTweenedPlan &&
+        mTweenProgress == mTweenedProgress &&
+        mTweenContext.plan == mTweenPlan) {
+      return mTweenContext.getFrame();
+    }
+    mTweenedPlan = mTweenPlan;
+    mTweenedProgress = mTweenProgress;
+    return Util.tweenFrames(mTweenContext, mTweenPlan, mTweenProgress);
+  }
 
-    float currentValue = (float) mProgress.getCurrentValue();
+  /**
+   * Find the part of the view that changes between the frame at the current progress and the
+   * frame at the progress of the previous call: the old and new drawn bounds of every layer whose
+   * properties changed in between, with their transforms applied.
+   * @param out the rect to write the dirty bounds to, empty when nothing changed
+   * @return false if the whole view should be redrawn, like when the key frames being tweened
+   *     change
+   */
+  public boolean getDirtyBounds(Rect out) {
+    if (getTweenedFrame() == null) {
+      mDirtyRegion.reset();
+      return false;
+    }
+    return mDirtyRegion.update(mTweenContext, out);
+  }
+
+  /**
+   * Get the interpolated current frame based on the current progress as a {@link PackedFrame}.
+   * The returned frame is reused by subsequent calls.
+   * @return the interpolated packed frame
+   */
+  public PackedFrame getPackedTweenedFrame() {
+    if (!resolveTween((float) mProgress.getCurrentValue(), true)) {
+      return null;
+    }
+    return Util.tweenPackedFrames(mTweenContext, mTweenPlan, mTweenProgress);
+  }
+
+  /**
+   * Ask a {@link TweenPipeline} to produce the frame for where the progress is predicted to be
+   * after the provided amount of time, typically the next vsync.
+   * @param pipeline the pipeline producing frames for this Timeline
+   * @param aheadMillis how far ahead of now to predict the progress
+   * @return false if there is nothing to tween
+   */
+  public boolean requestTweenedFrame(TweenPipeline pipeline, long aheadMillis) {
+    double predicted = mProgress.getCurrentValue() + mProgress.getVelocity() * aheadMillis / 1000.0;
+    if (!resolveTween((float) SpringUtil.clamp(predicted, -1, 1), false)) {
+      return false;
+    }
+    pipeline.request(mTweenPlan, mTweenProgress);
+    return true;
+  }
+
+  /**
+   * Get the context this Timeline tweens into.
+   * @return the tween context
+   */
+  public TweenContext getTweenContext() {
+    return mTweenContext;
+  }
+
+  /**
+   * Snapshot the counters of the LayerState pool this Timeline tweens with.
+   * @param metrics the metrics to overwrite
+   * @return the provided metrics
+   */
+  public PoolMetrics getPoolMetrics(PoolMetrics metrics) {
+    return mTweenContext.getPool().getMetrics(metrics);
+  }
+
+  /**
+   * Resolve the key frames and interpolated progress to tween for a progress value.
+   * @param currentValue the progress value around the current key frame
+   * @param trackDiscrepancy whether this is the progress being displayed, in which case the
+   *     timing function discrepancy is recorded for {@link #incrementProgress(float)}
+   * @return false if there is nothing to tween
+   */
+  private boolean resolveTween(float currentValue, boolean trackDiscrepancy) {
+    if (mKeyFrames.isEmpty()) {
+      return false;
+    }
 
     Frame currentFrame = mCurrentKeyFrame;
     Frame low = currentFrame.prior != null ? currentFrame.prior : currentFrame;
@@ -302,9 +635,36 @@ public abstract class Timeline implements SpringListener, Timer.Listener {
         !mUserInteractedSinceLastSettle) {
       interpolatedProgress = high.timingFunction.getInterpolation(progress);
     }
-    mLastInterpolationDiscrepancy = interpolatedProgress - progress;
+    if (trackDiscrepancy) {
+      mLastInterpolationDiscrepancy = interpolatedProgress - progress;
+    }
+
+    if (!low.resident || !high.resident) {
+      ensureResident(low);
+      ensureResident(high);
+    }
+    mTweenPlan = getTweenPlan(low, high);
+    mTweenProgress = interpolatedProgress;
+    return true;
+  }
 
-    return Util.tweenFrames(low, high, interpolatedProgress);
+  /**
+   * Get the cached {@link TweenPlan} between two adjacent key frames, compiling it if needed.
+   * @param low the starting key frame
+   * @param high the ending key frame, either low or the frame after it
+   * @return the plan
+   */
+  public TweenPlan getTweenPlan(Frame low, Frame high) {
+    List<TweenPlan> plans = low == high ? mHoldTweenPlans : mForwardTweenPlans;
+    while (plans.size() <= low.index) {
+      plans.add(null);
+    }
+    TweenPlan plan = plans.get(low.index);
+    if (plan == null || !plan.isValidFor(low, high)) {
+      plan = new TweenPlan(low, high);
+      plans.set(low.index, plan);
+    }
+    return plan;
   }
 
   /* SpringListener */
@@ -317,6 +677,11 @@ public abstract class Timeline implements SpringListener, Timer.Listener {
 
   @Override
   public void onSpringAtRest(Spring spring) {
+    if (mHoldingSeekPosition) {
+      // Stay at the position we were seeked to rather than snapping to the current key frame.
+      return;
+    }
+
     float currentValue = (float) spring.getCurrentValue();
     Frame toBeFrame = mCurrentKeyFrame;
     if (currentValue == 1) {
@@ -327,6 +692,7 @@ public abstract class Timeline implements SpringListener, Timer.Listener {
 
     if (toBeFrame != mCurrentKeyFrame) {
       mCurrentKeyFrame = toBeFrame;
+      onCurrentKeyFrameChanged();
     }
     mProgress.setCurrentValue(0);
 
@@ -335,6 +701,10 @@ public abstract class Timeline implements SpringListener, Timer.Listener {
       return;
     }
 
+    notifySettled();
+  }
+
+  private void notifySettled() {
     mUserInteractedSinceLastSettle = false;
 
     // Notify that we stopped at a frame.
@@ -345,7 +715,7 @@ public abstract class Timeline implements SpringListener, Timer.Listener {
       }
     }
 
-    if (spring.getCurrentValue() != frameCount() - 1) {
+    if (mProgress.getCurrentValue() != frameCount() - 1) {
       return;
     }
 
@@ -353,7 +723,6 @@ public abstract class Timeline implements SpringListener, Timer.Listener {
     for (Listener listener : mListeners) {
       listener.onFinished(this);
     }
-
   }
 
   @Override
@@ -398,6 +767,8 @@ public abstract class Timeline implements SpringListener, Timer.Listener {
       return;
     }
 
+    // Timed playback moves on from a seeked position like any other progress change.
+    mHoldingSeekPosition = false;
     float progress = (float) mProgress.getCurrentValue();
     float progressIncrement = Math.min((float) sinceLastTick / (float) duration, 1);
     float newProgress = Math.min(progress + progressIncrement, 1);
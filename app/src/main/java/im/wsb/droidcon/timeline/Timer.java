@@ -4,7 +4,6 @@ package im.wsb.droidcon.timeline;
 
 import java.util.concurrent.CopyOnWriteArraySet;
 
-import android.os.SystemClock;
 import android.view.Choreographer;
 
 public class Timer implements Choreographer.FrameCallback {
@@ -14,11 +13,23 @@ public class Timer implements Choreographer.FrameCallback {
   }
 
   private static final long CLEARED = Long.MAX_VALUE;
+  private final Clock mClock;
   private long mLastTick;
   private long mStartedAt;
   private boolean mRunning;
   private final CopyOnWriteArraySet<Listener> mListeners = new CopyOnWriteArraySet<>();
 
+  public Timer() {
+    this(new AndroidClock());
+  }
+
+  /**
+   * @param clock the clock the ticks are timed with
+   */
+  public Timer(Clock clock) {
+    mClock = clock;
+  }
+
   public void addListener(Listener listener) {
     mListeners.add(listener);
   }
@@ -32,7 +43,7 @@ public class Timer implements Choreographer.FrameCallback {
   }
 
   public Timer start() {
-    long now = SystemClock.uptimeMillis();
+    long now = mClock.uptimeMillis();
     if (mStartedAt == CLEARED) {
       mStartedAt = now;
     }
@@ -60,7 +71,7 @@ public class Timer implements Choreographer.FrameCallback {
     if (!mRunning) {
       return;
     }
-    long now = SystemClock.uptimeMillis();
+    long now = mClock.uptimeMillis();
     for (Listener listener : mListeners) {
       listener.tick(now - mLastTick, now - mStartedAt, mStartedAt, now);
     }
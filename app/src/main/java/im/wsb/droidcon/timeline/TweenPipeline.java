@@ -0,0 +1,198 @@
+// Copyright 2004-present Facebook. All Rights Reserved.
+
+package im.wsb.droidcon.timeline;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+
+/**
+ * TweenPipeline tweens frames for a {@link Timeline} on a background producer thread so the UI
+ * thread only has to draw them.
+ *
+ * The pipeline owns three {@link TweenContext} buffers. The producer tweens into the back buffer
+ * and publishes it by swapping it with the ready buffer, the consumer takes the ready buffer by
+ * swapping it with its front buffer. Both swaps are a single atomic exchange of a buffer index, so
+ * neither side ever blocks or allocates and the front buffer is never written while it is drawn.
+ */
+public class TweenPipeline {
+
+  public interface Listener {
+    /**
+     * Called on the producer thread whenever a new frame is ready to be consumed.
+     */
+    void onFrameProduced(TweenPipeline pipeline);
+  }
+
+  // Set on the ready buffer index when it holds a frame the consumer hasn't taken yet.
+  private static final int FRESH = 1 << 2;
+  private static final int INDEX_MASK = FRESH - 1;
+
+  private final TweenContext[] mBuffers =
+      new TweenContext[] {new TweenContext(), new TweenContext(), new TweenContext()};
+  private final AtomicInteger mReady = new AtomicInteger(1);
+  private final boolean mPacked;
+  private final Listener mListener;
+  private final Runnable mProduceRunnable;
+  private final AtomicBoolean mProducePosted = new AtomicBoolean();
+
+  /* Owned by the producer thread. */
+  private int mBack = 2;
+  private int mLastProducedSequence = -1;
+
+  /* Owned by the consumer thread. */
+  private int mFront = 0;
+  private boolean mHasFrame;
+
+  /* Latest request, written by the consumer thread under a sequence lock. */
+  private final AtomicInteger mRequestSequence = new AtomicInteger();
+  private volatile TweenPlan mRequestPlan;
+  private volatile float mRequestProgress;
+
+  private HandlerThread mThread;
+  private Handler mHandler;
+
+  /**
+   * @param packed whether to produce {@link PackedFrame} or {@link Frame} objects
+   * @param listener notified on the producer thread whenever a frame is ready
+   */
+  public TweenPipeline(boolean packed, Listener listener) {
+    mPacked = packed;
+    mListener = listener;
+    mProduceRunnable = new Runnable() {
+      @Override
+      public void run() {
+        produce();
+      }
+    };
+  }
+
+  /**
+   * Start the producer thread.
+   * @return the pipeline for chaining
+   */
+  public TweenPipeline start() {
+    if (mThread == null) {
+      mThread = new HandlerThread("TweenPipeline", Process.THREAD_PRIORITY_DISPLAY);
+      mThread.start();
+      mHandler = new Handler(mThread.getLooper());
+    }
+    return this;
+  }
+
+  /**
+   * Stop the producer thread. Frames that were already produced can still be consumed.
+   * @return the pipeline for chaining
+   */
+  public TweenPipeline stop() {
+    if (mThread != null) {
+      mHandler.removeCallbacks(mProduceRunnable);
+      mProducePosted.set(false);
+      mThread.quit();
+      mThread = null;
+      mHandler = null;
+    }
+    return this;
+  }
+
+  public boolean isPacked() {
+    return mPacked;
+  }
+
+  /**
+   * Ask the producer to tween the provided plan. Only the latest request is produced if the
+   * producer falls behind. Must be called from the consumer thread.
+   * @param plan the plan to tween
+   * @param progress the 0 - 1 progress to tween to
+   */
+  public void request(TweenPlan plan, float progress) {
+    int sequence = mRequestSequence.get();
+    mRequestSequence.set(sequence + 1);
+    mRequestPlan = plan;
+    mRequestProgress = progress;
+    mRequestSequence.set(sequence + 2);
+
+    Handler handler = mHandler;
+    if (handler != null && mProducePosted.compareAndSet(false, true)) {
+      handler.post(mProduceRunnable);
+    }
+  }
+
+  /**
+   * Take the most recently produced frame. Must be called from the consumer thread.
+   * @return the latest tweened frame or null if none has been produced yet
+   */
+  public Frame acquireFrame() {
+    return swapFront() ? mBuffers[mFront].getFrame() : null;
+  }
+
+  /**
+   * Take the most recently produced packed frame. Must be called from the consumer thread.
+   * @return the latest tweened packed frame or null if none has been produced yet
+   */
+  public PackedFrame acquirePackedFrame() {
+    return swapFront() ? mBuffers[mFront].getPackedFrame() : null;
+  }
+
+  /**
+   * Add up the counters of the LayerState pools of every buffer. The pools are written by the
+   * producer thread, so the result is approximate while frames are being produced.
+   * @param metrics the metrics to overwrite
+   * @return the provided metrics
+   */
+  public PoolMetrics getPoolMetrics(PoolMetrics metrics) {
+    metrics.reset();
+    PoolMetrics bufferMetrics = new PoolMetrics();
+    for (TweenContext buffer : mBuffers) {
+      metrics.add(buffer.getPool().getMetrics(bufferMetrics));
+    }
+    return metrics;
+  }
+
+  private boolean swapFront() {
+    if ((mReady.get() & FRESH) != 0) {
+      mFront = mReady.getAndSet(mFront) & INDEX_MASK;
+      mHasFrame = true;
+    }
+    return mHasFrame;
+  }
+
+  private void produce() {
+    // Clear first so a request arriving while we tween posts another run.
+    mProducePosted.set(false);
+
+    TweenPlan plan;
+    float progress;
+    int sequence;
+    while (true) {
+      sequence = mRequestSequence.get();
+      plan = mRequestPlan;
+      progress = mRequestProgress;
+      if ((sequence & 1) == 0 && sequence == mRequestSequence.get()) {
+        break;
+      }
+      // The consumer is in the middle of writing a request.
+      Thread.yield();
+    }
+
+    if (plan == null || sequence == mLastProducedSequence) {
+      return;
+    }
+    mLastProducedSequence = sequence;
+
+    TweenContext back = mBuffers[mBack];
+    if (mPacked) {
+      Util.tweenPackedFrames(back, plan, progress);
+    } else {
+      Util.tweenFrames(back, plan, progress);
+    }
+    mBack = mReady.getAndSet(mBack | FRESH) & INDEX_MASK;
+
+    if (mListener != null) {
+      mListener.onFrameProduced(this);
+    }
+  }
+}
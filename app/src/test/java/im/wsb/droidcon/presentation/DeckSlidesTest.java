@@ -0,0 +1,113 @@
+// Copyright 2004-present Facebook. All Rights Reserved.
+
+package im.wsb.droidcon.presentation;
+
+import android.util.DisplayMetrics;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import im.wsb.droidcon.presentation.slides.Slide;
+import im.wsb.droidcon.timeline.Frame;
+import im.wsb.droidcon.timeline.LayerState;
+
+import static org.junit.Assert.*;
+
+public class DeckSlidesTest {
+
+  private static final int SLIDE_COUNT = 3;
+
+  private int mCreatedSlides;
+  private DeckSlides mSlides;
+
+  @Before
+  public void setUp() {
+    mCreatedSlides = 0;
+    mSlides = new DeckSlides(new DeckSlides.Factory() {
+      @Override
+      public int size() {
+        return SLIDE_COUNT;
+      }
+
+      @Override
+      public Slide create(int index) {
+        mCreatedSlides++;
+        return new TestSlide();
+      }
+    });
+  }
+
+  @Test
+  public void consecutiveKeyFramesShareLayerNames() {
+    Frame[] keyFrames = buildKeyFrames();
+
+    // Slide i is brought in by key frame i, presented by i + 1 and exited by i + 2.
+    for (int i = 0; i < SLIDE_COUNT; i++) {
+      Set<String> names = new HashSet<>();
+      for (LayerState layerState : mSlides.get(i).getInitialLayerStates()) {
+        names.add(layerState.name);
+      }
+      assertEquals(2, names.size());
+      for (int keyFrame = i; keyFrame <= i + 2; keyFrame++) {
+        assertTrue(keyFrames[keyFrame].layerStates.keySet().containsAll(names));
+      }
+    }
+    assertEquals(4, keyFrames[1].layerStates.size());
+    assertEquals(6, keyFrames[2].layerStates.size());
+  }
+
+  @Test
+  public void createsEachSlideOnce() {
+    buildKeyFrames();
+    buildKeyFrames();
+
+    assertEquals(SLIDE_COUNT, mCreatedSlides);
+    assertSame(mSlides.get(1), mSlides.get(1));
+  }
+
+  private Frame[] buildKeyFrames() {
+    Frame[] keyFrames = new Frame[mSlides.getKeyFrameCount()];
+    for (int i = 0; i < keyFrames.length; i++) {
+      keyFrames[i] = new Frame();
+      mSlides.buildKeyFrame(i, keyFrames[i]);
+    }
+    return keyFrames;
+  }
+
+  private static class TestSlide extends Slide {
+
+    TestSlide() {
+      super(new DisplayMetrics());
+      defineLayers();
+    }
+
+    @Override
+    protected void defineLayers(Map<String, LayerState> layers) {
+      LayerState box = makeLayer("box").setFrame(0, 0, 10, 10);
+      layers.put(box.name, box);
+      LayerState label = makeLayer("label").setFrame(0, 10, 10, 20);
+      layers.put(label.name, label);
+    }
+
+    @Override
+    protected void getInitialLayerStates(Map<String, LayerState> layers) {
+      layers.get("box").setAlpha(0);
+      layers.get("label").setAlpha(0);
+    }
+
+    @Override
+    protected void getPresentedLayerStates(Map<String, LayerState> layers) {
+      layers.get("box").setAlpha(1);
+    }
+
+    @Override
+    protected void getExitedLayerStates(Map<String, LayerState> layers) {
+      layers.get("box").setAlpha(0);
+      layers.get("label").setAlpha(0);
+    }
+  }
+}
@@ -0,0 +1,124 @@
+// Copyright 2004-present Facebook. All Rights Reserved.
+
+package im.wsb.droidcon.timeline;
+
+/**
+ * BitmapFont is the 5x7 pixel font the {@link SoftwareRasterizer} draws text with. It covers
+ * digits, letters and common punctuation. Lowercase letters are drawn with the uppercase glyphs and
+ * any other character as a question mark, which is enough to see where text lands and to keep
+ * checksums stable.
+ */
+final class BitmapFont {
+
+  static final int GLYPH_WIDTH = 5;
+  static final int GLYPH_HEIGHT = 7;
+
+  // The characters of the font, each followed by its rows in hex, the top bit on the left.
+  private static final String[] GLYPHS = {
+      " 00000000000000",
+      "00E11131519110E",
+      "1040C040404040E",
+      "20E11010204081F",
+      "31F02040201110E",
+      "402060A121F0202",
+      "51F101E0101110E",
+      "606081E1E11110E",
+      "71F010204080808",
+      "80E11110E11110E",
+      "90E11110F01020C",
+      "A0E11111F111111",
+      "B1E11111E11111E",
+      "C0E11101010110E",
+      "D1C12111111121C",
+      "E1F10101E10101F",
+      "F1F10101E101010",
+      "G0E11101711110F",
+      "H1111111F111111",
+      "I0E04040404040E",
+      "J0702020202120C",
+      "K11121418141211",
+      "L1010101010101F",
+      "M111B1515111111",
+      "N11111915131111",
+      "O0E11111111110E",
+      "P1E11111E101010",
+      "Q0E11111115120D",
+      "R1E11111E141211",
+      "S0F10100E01011E",
+      "T1F040404040404",
+      "U1111111111110E",
+      "V11111111110A04",
+      "W1111111515150A",
+      "X11110A040A1111",
+      "Y1111110A040404",
+      "Z1F01020408101F",
+      ".00000000000C0C",
+      ",000000000C0408",
+      "!04040404040004",
+      "?0E110102040004",
+      ":000C0C000C0C00",
+      ";000C0C000C0408",
+      "'0C040800000000",
+      "\"0A0A0A00000000",
+      "-0000001F000000",
+      "+0004041F040400",
+      "/00010204081000",
+      "(02040808080402",
+      ")08040202020408",
+      "&0C12140815120D",
+      "%18190204081303",
+      "#0A0A1F0A1F0A0A",
+      "@0E11010D15150E",
+      "_0000000000001F",
+      "=00001F001F0000",
+      "*0004150E150400",
+      "<02040810080402",
+      ">08040201020408",
+  };
+
+  private static final int CHAR_COUNT = 128;
+
+  // The rows of each glyph, GLYPH_HEIGHT per character.
+  private static final byte[] ROWS = new byte[CHAR_COUNT * GLYPH_HEIGHT];
+  private static final boolean[] DEFINED = new boolean[CHAR_COUNT];
+
+  static {
+    for (String glyph : GLYPHS) {
+      String rows = glyph.substring(1);
+      int c = glyph.charAt(0);
+      for (int row = 0; row < GLYPH_HEIGHT; row++) {
+        ROWS[c * GLYPH_HEIGHT + row] =
+            (byte) Integer.parseInt(rows.substring(row * 2, row * 2 + 2), 16);
+      }
+      DEFINED[c] = true;
+    }
+  }
+
+  private BitmapFont() {
+  }
+
+  /**
+   * Check if a pixel of the glyph of a character is set.
+   * @param c the character
+   * @param column the column of the pixel, from 0 to GLYPH_WIDTH on the left
+   * @param row the row of the pixel, from 0 to GLYPH_HEIGHT at the top
+   * @return true if the pixel is drawn
+   */
+  static boolean isSet(char c, int column, int row) {
+    if (column < 0 || column >= GLYPH_WIDTH || row < 0 || row >= GLYPH_HEIGHT) {
+      return false;
+    }
+    int glyph = glyphOf(c);
+    return (ROWS[glyph * GLYPH_HEIGHT + row] & (1 << (GLYPH_WIDTH - 1 - column))) != 0;
+  }
+
+  private static int glyphOf(char c) {
+    if (c >= 'a' && c <= 'z') {
+      c = (char) (c - 'a' + 'A');
+    }
+    if (c < CHAR_COUNT && DEFINED[c]) {
+      return c;
+    }
+    return Character.isWhitespace(c) ? ' ' : '?';
+  }
+}
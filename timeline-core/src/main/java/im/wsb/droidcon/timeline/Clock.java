@@ -0,0 +1,25 @@
+// Copyright 2004-present Facebook. All Rights Reserved.
+
+package im.wsb.droidcon.timeline;
+
+/**
+ * The time source of timers and timelines, so they can be driven by the uptime clock on a device
+ * and by a plain or simulated clock on the JVM.
+ */
+public interface Clock {
+
+  /**
+   * A monotonic clock based on {@link System#nanoTime()}.
+   */
+  Clock SYSTEM = new Clock() {
+    @Override
+    public long uptimeMillis() {
+      return System.nanoTime() / 1000000;
+    }
+  };
+
+  /**
+   * @return the milliseconds since an arbitrary fixed point, never going backwards
+   */
+  long uptimeMillis();
+}
@@ -8,36 +8,38 @@ import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 
-import android.view.animation.Interpolator;
-import android.view.animation.LinearInterpolator;
-
 /**
  * A Frame contains an ordered map of LayerStates and meta data about the timing for that frame in
  * autoplay mode. Matching LayerState objects are tweened when moving from one key frame to the
- * next. A tween Frame is the result of this tweening operation, which can be displayed by the
- * {@link Renderer}.
+ * next. A tween Frame is the result of this tweening operation, which the app draws with its
+ * {@code Renderer}.
  */
 public class Frame {
 
-  private static final Interpolator DEFAULT_TIMING_FUNCTION = new LinearInterpolator();
+  private static final TimingFunction DEFAULT_TIMING_FUNCTION = TimingFunction.LINEAR;
 
   public final Map<String, LayerState> layerStates = new LinkedHashMap<>();
   public final Set<LayerState> removedLayerStates = new HashSet<>();
   // TODO: These will be used for performing timer driven autoplay animation.
   public long duration;
-  public Interpolator timingFunction = DEFAULT_TIMING_FUNCTION;
+  public TimingFunction timingFunction = DEFAULT_TIMING_FUNCTION;
   public Frame prior;
   public Frame next;
   public int index;
+  // Incremented whenever layers are added or removed so cached TweenPlans can detect changes.
+  public int version;
+  // False while the layers of a windowed key frame are not built, see KeyFrameWindow.
+  public boolean resident = true;
 
   /**
-   * Create a copy of a frame that can then be modified and added to the timeline.
+   * Create a copy of a frame that can then be modified and added to the timeline. Frozen layers are
+   * shared with the copy, {@link #getLayer(String)} makes a private copy once one is modified.
    * @return a copy of this frame.
    */
   public Frame copyLayerStates() {
     Frame copy = new Frame();
     for (LayerState layerState : layerStates.values()) {
-      copy.addLayerState(layerState.copy());
+      copy.addLayerState(layerState.isFrozen() ? layerState : layerState.copy());
     }
     return copy;
   }
@@ -46,11 +48,24 @@ public class Frame {
     duration = 0;
     timingFunction = DEFAULT_TIMING_FUNCTION;
     layerStates.clear();
+    version++;
+    return this;
+  }
+
+  /**
+   * Drop the layers of a key frame that is built on demand, keeping its timing.
+   * @return this frame for chaining
+   */
+  public Frame evictLayerStates() {
+    layerStates.clear();
+    removedLayerStates.clear();
+    resident = false;
+    version++;
     return this;
   }
 
-  public Frame setTimingFunction(Interpolator interpolator) {
-    timingFunction = interpolator;
+  public Frame setTimingFunction(TimingFunction timingFunction) {
+    this.timingFunction = timingFunction;
     return this;
   }
 
@@ -72,6 +87,7 @@ public class Frame {
     for (LayerState layerState : layerStates) {
       this.layerStates.put(layerState.name, layerState);
     }
+    version++;
     return this;
   }
 
@@ -79,11 +95,13 @@ public class Frame {
     for (LayerState layerState : layerStates) {
       this.layerStates.put(layerState.name, layerState);
     }
+    version++;
     return this;
   }
 
   public Frame addLayerState(LayerState layerState) {
     layerStates.put(layerState.name, layerState);
+    version++;
     return this;
   }
 
@@ -91,16 +109,24 @@ public class Frame {
     LayerState layerState = getLayer(name);
     layerStates.remove(name);
     removedLayerStates.add(layerState);
+    version++;
     return this;
   }
 
   /**
-   * Retrieve a named LayerState
+   * Retrieve a named LayerState that can be modified. A frozen layer shared with other frames is
+   * replaced by a private copy in place.
    * @param name the name of the layer state to get
    * @return the LayerState or null
    */
   public LayerState getLayer(String name) {
-    return layerStates.get(name);
+    LayerState layerState = layerStates.get(name);
+    if (layerState != null && layerState.isFrozen()) {
+      layerState = layerState.copy();
+      layerStates.put(name, layerState);
+      version++;
+    }
+    return layerState;
   }
 
   /**
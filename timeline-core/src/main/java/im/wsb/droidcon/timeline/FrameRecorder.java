@@ -0,0 +1,333 @@
+// Copyright 2004-present Facebook. All Rights Reserved.
+
+package im.wsb.droidcon.timeline;
+
+/**
+ * FrameRecorder records {@link Frame}s and {@link PackedFrame}s into a {@link RenderCommandList}
+ * on the JVM, issuing the same commands with the same transforms as the {@code Renderer} does on a
+ * device, so timeline frames can be rendered by the {@link SoftwareRasterizer} to benchmark them
+ * and pin their checksums in tests.
+ *
+ * Image layers draw the bitmap of their layer, from the {@link LayerState.ImageSource} installed
+ * for the JVM, which should provide {@link PixelBuffer}s. Layers without a loaded bitmap are drawn
+ * as a placeholder. Text layers record their text, laid out at the width of the layer the way the
+ * SoftwareRasterizer draws it. Layers are never culled or rasterized into caches.
+ */
+public class FrameRecorder {
+
+  public static final int DEFAULT_PLACEHOLDER_COLOR = 0xff202020;
+
+  private int mPlaceholderColor = DEFAULT_PLACEHOLDER_COLOR;
+  private RenderCommandList mRecording;
+  private final float[] mSourceRect = new float[4];
+
+  /**
+   * Set the color drawn for image layers whose bitmap is not loaded.
+   * @param placeholderColor the color
+   * @return the FrameRecorder for chaining
+   */
+  public FrameRecorder setPlaceholderColor(int placeholderColor) {
+    mPlaceholderColor = placeholderColor;
+    return this;
+  }
+
+  /**
+   * Record every layer of a frame.
+   * @param frame the frame to record
+   * @param out the list to record into, it is cleared first
+   */
+  public void record(Frame frame, RenderCommandList out) {
+    out.clear();
+    mRecording = out;
+    try {
+      for (LayerState layerState : frame.layerStates.values()) {
+        recordLayerState(layerState);
+      }
+    } finally {
+      mRecording = null;
+    }
+  }
+
+  /**
+   * Record every slot of a packed frame.
+   * @param frame the packed frame to record
+   * @param out the list to record into, it is cleared first
+   */
+  public void record(PackedFrame frame, RenderCommandList out) {
+    out.clear();
+    mRecording = out;
+    try {
+      for (int i = 0; i < frame.size; i++) {
+        recordSlot(frame, i);
+      }
+    } finally {
+      mRecording = null;
+    }
+  }
+
+  private void recordLayerState(LayerState layerState) {
+    Object bitmap = layerState.getBitmap();
+    if (bitmap != null) {
+      recordImage(
+          bitmap,
+          layerState.left,
+          layerState.top,
+          layerState.right,
+          layerState.bottom,
+          layerState.alpha,
+          layerState.scale,
+          layerState.px,
+          layerState.py,
+          layerState.rotate,
+          layerState.flip,
+          layerState.mirror);
+    } else if (layerState.bitmapResId != 0) {
+      recordPlaceholder(
+          layerState.left,
+          layerState.top,
+          layerState.right,
+          layerState.bottom,
+          layerState.alpha,
+          layerState.cornerRadius,
+          layerState.scale,
+          layerState.px,
+          layerState.py,
+          layerState.rotate);
+    } else if (layerState.text != null) {
+      recordText(
+          layerState.text,
+          layerState.textAlignment,
+          layerState.textSize,
+          layerState.color,
+          layerState.alpha,
+          layerState.left,
+          layerState.top,
+          layerState.width(),
+          layerState.scale,
+          layerState.px,
+          layerState.py,
+          layerState.rotate);
+    } else {
+      recordColor(
+          layerState.color,
+          layerState.left,
+          layerState.top,
+          layerState.right,
+          layerState.bottom,
+          layerState.alpha,
+          layerState.cornerRadius);
+    }
+  }
+
+  private void recordSlot(PackedFrame frame, int i) {
+    Object bitmap = frame.bitmap[i];
+    if (bitmap == null && frame.image[i] != null) {
+      bitmap = frame.image[i].getBitmap();
+    }
+    if (bitmap != null) {
+      recordImage(
+          bitmap,
+          frame.left[i],
+          frame.top[i],
+          frame.right[i],
+          frame.bottom[i],
+          frame.alpha[i],
+          frame.scale[i],
+          frame.px[i],
+          frame.py[i],
+          frame.rotate[i],
+          (frame.flags[i] & PackedFrame.FLAG_FLIP) != 0,
+          (frame.flags[i] & PackedFrame.FLAG_MIRROR) != 0);
+    } else if (frame.image[i] != null) {
+      recordPlaceholder(
+          frame.left[i],
+          frame.top[i],
+          frame.right[i],
+          frame.bottom[i],
+          frame.alpha[i],
+          frame.cornerRadius[i],
+          frame.scale[i],
+          frame.px[i],
+          frame.py[i],
+          frame.rotate[i]);
+    } else if (frame.text[i] != null) {
+      LayerState text = frame.text[i];
+      recordText(
+          text.text,
+          text.textAlignment,
+          frame.textSize[i],
+          frame.color[i],
+          frame.alpha[i],
+          frame.left[i],
+          frame.top[i],
+          frame.width(i),
+          frame.scale[i],
+          frame.px[i],
+          frame.py[i],
+          frame.rotate[i]);
+    } else {
+      recordColor(
+          frame.color[i],
+          frame.left[i],
+          frame.top[i],
+          frame.right[i],
+          frame.bottom[i],
+          frame.alpha[i],
+          frame.cornerRadius[i]);
+    }
+  }
+
+  private void recordColor(
+      int color,
+      float left,
+      float top,
+      float right,
+      float bottom,
+      float alpha,
+      float cornerRadius) {
+    if (cornerRadius == 0) {
+      mRecording.drawRect(left, top, right, bottom, color, alpha);
+    } else {
+      mRecording.drawRoundRect(left, top, right, bottom, cornerRadius, color, alpha);
+    }
+  }
+
+  private void recordPlaceholder(
+      float left,
+      float top,
+      float right,
+      float bottom,
+      float alpha,
+      float cornerRadius,
+      float scale,
+      float px,
+      float py,
+      float rotate) {
+    mRecording.save();
+    mRecording.scale(scale, px, py);
+    mRecording.rotate(rotate, px, py);
+    recordColor(mPlaceholderColor, left, top, right, bottom, alpha, cornerRadius);
+    mRecording.restore();
+  }
+
+  private void recordImage(
+      Object bitmap,
+      float left,
+      float top,
+      float right,
+      float bottom,
+      float alpha,
+      float scale,
+      float px,
+      float py,
+      float rotate,
+      boolean flip,
+      boolean mirror) {
+    // Only the size of PixelBuffers is known here, other bitmaps are drawn whole.
+    boolean hasSourceRect = bitmap instanceof PixelBuffer;
+    if (hasSourceRect) {
+      PixelBuffer pixels = (PixelBuffer) bitmap;
+      centerCrop(
+          pixels.getWidth(),
+          pixels.getHeight(),
+          (right - left) / (bottom - top),
+          mSourceRect);
+    } else {
+      mSourceRect[0] = 0;
+      mSourceRect[1] = 0;
+      mSourceRect[2] = 0;
+      mSourceRect[3] = 0;
+    }
+    float sourceLeft = mSourceRect[0];
+    float sourceTop = mSourceRect[1];
+    float sourceRight = mSourceRect[2];
+    float sourceBottom = mSourceRect[3];
+    if (flip) {
+      sourceTop = mSourceRect[3];
+      sourceBottom = mSourceRect[1];
+    } else if (mirror) {
+      sourceLeft = mSourceRect[2];
+      sourceRight = mSourceRect[0];
+    }
+
+    mRecording.save();
+    mRecording.scale(scale, px, py);
+    mRecording.rotate(rotate, px, py);
+    mRecording.drawBitmap(
+        bitmap,
+        hasSourceRect,
+        sourceLeft,
+        sourceTop,
+        sourceRight,
+        sourceBottom,
+        left,
+        top,
+        right,
+        bottom,
+        0xff000000,
+        alpha);
+    mRecording.restore();
+  }
+
+  private void recordText(
+      String text,
+      TextAlignment textAlignment,
+      float textSize,
+      int color,
+      float alpha,
+      float left,
+      float top,
+      float width,
+      float scale,
+      float px,
+      float py,
+      float rotate) {
+    float height = SoftwareRasterizer.getTextHeight(text, textSize, width);
+    mRecording.save();
+    mRecording.translate(left, top - height / 2f);
+    mRecording.scale(scale, px, py);
+    mRecording.rotate(rotate, px, py);
+    mRecording.drawText(
+        null,
+        text,
+        width,
+        height,
+        textSize,
+        getAlignFlag(textAlignment),
+        color,
+        Math.round(alpha * 255) / 255f);
+    mRecording.restore();
+  }
+
+  private static int getAlignFlag(TextAlignment alignment) {
+    switch (alignment) {
+      case NORMAL:
+        return RenderCommandList.FLAG_ALIGN_NORMAL;
+      case OPPOSITE:
+        return RenderCommandList.FLAG_ALIGN_OPPOSITE;
+      default:
+        return RenderCommandList.FLAG_ALIGN_CENTER;
+    }
+  }
+
+  /**
+   * Find the center crop of an image matching the aspect ratio of a frame, like the Renderer.
+   * @param out the left, top, right and bottom of the crop
+   */
+  private static void centerCrop(int imageWidth, int imageHeight, float frameAspect, float[] out) {
+    float imageAspect = (float) imageWidth / (float) imageHeight;
+    if (imageAspect > frameAspect) {
+      int diff = Math.round((imageWidth - (imageHeight * frameAspect)) / 2f);
+      out[0] = diff;
+      out[1] = 0;
+      out[2] = imageWidth - diff;
+      out[3] = imageHeight;
+    } else {
+      int diff = Math.round((imageHeight - (imageWidth / frameAspect)) / 2f);
+      out[0] = 0;
+      out[1] = diff;
+      out[2] = imageWidth;
+      out[3] = imageHeight - diff;
+    }
+  }
+}
@@ -0,0 +1,180 @@
+// Copyright 2004-present Facebook. All Rights Reserved.
+
+package im.wsb.droidcon.timeline;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Simple (non-synchronized) pool of objects that detects double releases in constant time.
+ *
+ * Every pool has a stamp that is unique in the process. Pooled objects carry the stamp of the pool
+ * holding them, so checking if an object is already pooled is a single comparison instead of a
+ * scan of the pool. Clearing the pool takes a new stamp, which invalidates the stamps of every
+ * previously pooled object without touching them.
+ *
+ * The pool starts at an initial capacity and doubles whenever a released object doesn't fit, up to
+ * a maximum capacity. Past that released objects are dropped.
+ *
+ * @param <T> The pooled type.
+ */
+public class GenerationalPool<T extends GenerationalPool.Poolable> implements Pool<T> {
+
+  /**
+   * An object that can be held by a {@link GenerationalPool}.
+   */
+  public interface Poolable {
+    int getPoolStamp();
+    void setPoolStamp(int stamp);
+  }
+
+  public static final int NOT_POOLED = 0;
+
+  private static final AtomicInteger NEXT_STAMP = new AtomicInteger();
+
+  private final int mMaxPoolSize;
+  private Object[] mPool;
+  private int mStamp;
+
+  protected int mPoolSize;
+
+  /* Metrics, see PoolMetrics. */
+  private long mAcquires;
+  private long mMisses;
+  private long mReleases;
+  private long mDrops;
+  private int mHighWaterMark;
+
+  /**
+   * Creates a new instance.
+   *
+   * @param initialPoolSize The initial pool capacity.
+   * @param maxPoolSize The capacity the pool may grow to.
+   *
+   * @throws IllegalArgumentException If the initial pool size is less than one or the max pool
+   *     size is less than the initial pool size.
+   */
+  public GenerationalPool(int initialPoolSize, int maxPoolSize) {
+    this(initialPoolSize, maxPoolSize, nextStamp());
+  }
+
+  GenerationalPool(int initialPoolSize, int maxPoolSize, int stamp) {
+    if (initialPoolSize <= 0) {
+      throw new IllegalArgumentException("The initial pool size must be > 0");
+    }
+    if (maxPoolSize < initialPoolSize) {
+      throw new IllegalArgumentException("The max pool size must be >= the initial pool size");
+    }
+    mPool = new Object[initialPoolSize];
+    mMaxPoolSize = maxPoolSize;
+    mStamp = stamp;
+  }
+
+  static int nextStamp() {
+    int stamp;
+    do {
+      stamp = NEXT_STAMP.incrementAndGet();
+    } while (stamp == NOT_POOLED);
+    return stamp;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public T acquire() {
+    mAcquires++;
+    if (mPoolSize > 0) {
+      final int lastPooledIndex = mPoolSize - 1;
+      T instance = (T) mPool[lastPooledIndex];
+      mPool[lastPooledIndex] = null;
+      mPoolSize--;
+      instance.setPoolStamp(NOT_POOLED);
+      return instance;
+    }
+    mMisses++;
+    return null;
+  }
+
+  @Override
+  public boolean release(T instance) {
+    if (isInPool(instance)) {
+      throw new IllegalStateException("Already in the pool!");
+    }
+    mReleases++;
+    if (mPoolSize == mPool.length && !grow()) {
+      mDrops++;
+      return false;
+    }
+    mPool[mPoolSize] = instance;
+    mPoolSize++;
+    if (mPoolSize > mHighWaterMark) {
+      mHighWaterMark = mPoolSize;
+    }
+    instance.setPoolStamp(mStamp);
+    return true;
+  }
+
+  /**
+   * Drop every pooled object.
+   */
+  public void clear() {
+    for (int i = 0; i < mPoolSize; i++) {
+      mPool[i] = null;
+    }
+    mPoolSize = 0;
+    setStamp(nextStamp());
+  }
+
+  /**
+   * Add the counters of this pool to the provided metrics.
+   * @param metrics the metrics to add to
+   * @return the provided metrics
+   */
+  public PoolMetrics collectMetrics(PoolMetrics metrics) {
+    metrics.acquires += mAcquires;
+    metrics.misses += mMisses;
+    metrics.releases += mReleases;
+    metrics.drops += mDrops;
+    metrics.size += mPoolSize;
+    metrics.highWaterMark += mHighWaterMark;
+    metrics.capacity += mPool.length;
+    metrics.maxCapacity += mMaxPoolSize;
+    return metrics;
+  }
+
+  public void resetMetrics() {
+    mAcquires = 0;
+    mMisses = 0;
+    mReleases = 0;
+    mDrops = 0;
+    mHighWaterMark = mPoolSize;
+  }
+
+  public int size() {
+    return mPoolSize;
+  }
+
+  public int capacity() {
+    return mPool.length;
+  }
+
+  public int maxCapacity() {
+    return mMaxPoolSize;
+  }
+
+  boolean isInPool(T instance) {
+    return instance.getPoolStamp() == mStamp;
+  }
+
+  void setStamp(int stamp) {
+    mStamp = stamp;
+  }
+
+  private boolean grow() {
+    if (mPool.length >= mMaxPoolSize) {
+      return false;
+    }
+    Object[] pool = new Object[Math.min(mPool.length * 2, mMaxPoolSize)];
+    System.arraycopy(mPool, 0, pool, 0, mPoolSize);
+    mPool = pool;
+    return true;
+  }
+}
@@ -0,0 +1,128 @@
+// Copyright 2004-present Facebook. All Rights Reserved.
+
+package im.wsb.droidcon.timeline;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * KeyFrameWindow keeps the layers of a window of key frames around the current one built and
+ * drops the layers of the others. Key frames within the window radius of the current key frame are
+ * built by a {@link Source} when they are not resident, and the least recently used key frames are
+ * evicted once more than the maximum are resident.
+ */
+public class KeyFrameWindow {
+
+  /**
+   * Builds the layers of key frames on demand.
+   */
+  public interface Source {
+    /**
+     * Add the layers of a key frame.
+     * @param index the index of the key frame
+     * @param frame the key frame to add the layers to, it has no layers
+     */
+    void buildKeyFrame(int index, Frame frame);
+  }
+
+  /**
+   * Told about key frames whose layers were dropped, to forget anything derived from them.
+   */
+  public interface EvictionListener {
+    void onKeyFrameEvicted(Frame frame);
+  }
+
+  private final List<Frame> mKeyFrames;
+  private final Source mSource;
+  private final int mWindowRadius;
+  private final int mMaxResidentKeyFrames;
+  private final EvictionListener mEvictionListener;
+  private final LinkedHashMap<Integer, Frame> mResidentKeyFrames;
+
+  /**
+   * @param keyFrames the key frames, indexed like {@link Frame#index}
+   * @param source builds the layers of key frames
+   * @param windowRadius how many key frames on either side of the current one are kept built
+   * @param maxResidentKeyFrames how many key frames may be built at once
+   * @param evictionListener told about evicted key frames or null
+   */
+  public KeyFrameWindow(
+      List<Frame> keyFrames,
+      Source source,
+      int windowRadius,
+      int maxResidentKeyFrames,
+      EvictionListener evictionListener) {
+    if (windowRadius < 1) {
+      throw new IllegalArgumentException("The window radius must be >= 1");
+    }
+    if (maxResidentKeyFrames < windowRadius * 2 + 1) {
+      throw new IllegalArgumentException("The resident key frames must cover the window");
+    }
+    mKeyFrames = keyFrames;
+    mSource = source;
+    mWindowRadius = windowRadius;
+    mMaxResidentKeyFrames = maxResidentKeyFrames;
+    mEvictionListener = evictionListener;
+    mResidentKeyFrames =
+        new LinkedHashMap<Integer, Frame>(maxResidentKeyFrames + 1, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<Integer, Frame> eldest) {
+            if (size() <= mMaxResidentKeyFrames) {
+              return false;
+            }
+            evict(eldest.getValue());
+            return true;
+          }
+        };
+  }
+
+  /**
+   * Build the key frames within the window of the current key frame.
+   * @param index the index of the current key frame
+   */
+  public void update(int index) {
+    // Touch from the outside in so the key frames nearest the current one are evicted last.
+    for (int distance = mWindowRadius; distance > 0; distance--) {
+      if (index - distance >= 0) {
+        ensureResident(mKeyFrames.get(index - distance));
+      }
+      if (index + distance < mKeyFrames.size()) {
+        ensureResident(mKeyFrames.get(index + distance));
+      }
+    }
+    ensureResident(mKeyFrames.get(index));
+  }
+
+  /**
+   * Build a key frame if it is not resident and mark it as the most recently used.
+   * @param frame the key frame
+   * @return the provided frame
+   */
+  public Frame ensureResident(Frame frame) {
+    if (!frame.resident) {
+      mSource.buildKeyFrame(frame.index, frame);
+      frame.resident = true;
+    }
+    mResidentKeyFrames.put(frame.index, frame);
+    return frame;
+  }
+
+  /**
+   * @return how many key frames are built
+   */
+  public int getResidentCount() {
+    return mResidentKeyFrames.size();
+  }
+
+  public int getMaxResidentKeyFrames() {
+    return mMaxResidentKeyFrames;
+  }
+
+  private void evict(Frame frame) {
+    frame.evictLayerStates();
+    if (mEvictionListener != null) {
+      mEvictionListener.onKeyFrameEvicted(frame);
+    }
+  }
+}
@@ -2,34 +2,74 @@
 
 package im.wsb.droidcon.timeline;
 
-import android.content.res.Resources;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.Color;
-import android.graphics.Paint;
-import android.text.Layout;
-import android.text.StaticLayout;
-import android.text.TextPaint;
-
-import java.util.HashMap;
-import java.util.Map;
-
 /**
- * LayerState is a bag of properties used by a {@link Renderer} to draw a shape, text, or image to a
- * Canvas. LayerStates with matching {@link LayerState#name} fields are tweened when progressing
- * through the {@link Timeline} to create transitions.
+ * LayerState is a bag of properties used by a renderer to draw a shape, text, or image. LayerStates
+ * with matching {@link LayerState#name} fields are tweened when progressing through a timeline to
+ * create transitions.
+ *
+ * Bitmaps and text layouts are platform objects the layer only holds on to. They come from the
+ * {@link ImageSource} and {@link TextLayoutSource} installed by the app, without them image layers
+ * have no bitmap and text layers keep the frame they were given.
  */
-public class LayerState {
+public class LayerState implements GenerationalPool.Poolable {
+
+  /**
+   * Provides the bitmaps of image layers, decoded from resources.
+   */
+  public interface ImageSource {
+
+    /**
+     * Get a bitmap, decoding it on a miss.
+     * @param resId the resource to decode
+     * @param reqWidth the width to decode for, 0 for the full size
+     * @param reqHeight the height to decode for, 0 for the full size
+     * @return the bitmap
+     */
+    Object get(int resId, int reqWidth, int reqHeight);
 
-  public static Resources RESOURCES;
-  private Map<Integer, Bitmap> BITMAPS = new HashMap<>();
+    /**
+     * Get a bitmap only if it is already decoded.
+     * @return the bitmap or null
+     */
+    Object peek(int resId, int reqWidth, int reqHeight);
+
+    int getWidth(Object bitmap);
+
+    int getHeight(Object bitmap);
+  }
+
+  /**
+   * Provides the text layouts of text layers.
+   */
+  public interface TextLayoutSource {
+
+    /**
+     * Get the layout of the text of a layer at its text size, width and alignment.
+     * @param layerState the text layer
+     * @return the layout
+     */
+    Object getTextLayout(LayerState layerState);
+
+    int getHeight(Object textLayout);
+  }
 
   private static final String EMPTY_NAME = "empty";
+  private static final int DEFAULT_COLOR = 0xff000000;
+
+  private static volatile ImageSource sImageSource;
+  private static volatile TextLayoutSource sTextLayoutSource;
+
   /* name */
   public String name;
 
   /* Image */
-  public Bitmap bitmap;
+  // The platform bitmap to show, from the ImageSource.
+  public Object bitmap;
+  // The drawable the bitmap is decoded from or 0, used to load and serialize the layer.
+  public int bitmapResId;
+  // The size the drawable is decoded for, 0 for its full size.
+  public int bitmapWidth;
+  public int bitmapHeight;
   public boolean flip;
   public boolean mirror;
 
@@ -44,10 +84,10 @@ public class LayerState {
   /* Text */
   public String text;
   public float textSize;
-  public Layout.Alignment textAlignment = Layout.Alignment.ALIGN_CENTER;
-  private StaticLayout mTextLayout;
-  private final TextPaint mTextPaint;
+  public TextAlignment textAlignment = TextAlignment.CENTER;
+  private Object mTextLayout;
   private boolean mTextLayoutClean;
+  private float mTextLayoutSize;
 
   /* Position */
   public float left;
@@ -57,42 +97,102 @@ public class LayerState {
 
   /* Style */
   public float alpha = 1;
-  public int color = Color.BLACK;
+  public int color = DEFAULT_COLOR;
   public float cornerRadius = 0;
 
+  /* Pooling */
+  private int mPoolStamp = GenerationalPool.NOT_POOLED;
+
+  /* Sharing */
+  private boolean mFrozen;
+
   public LayerState() {
     this(EMPTY_NAME);
   }
 
   public LayerState(String name) {
     this.name = name;
-    mTextPaint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+  }
+
+  /**
+   * Install the source of the bitmaps of image layers.
+   * @param imageSource the source or null to remove it
+   */
+  public static void setImageSource(ImageSource imageSource) {
+    sImageSource = imageSource;
+  }
+
+  /**
+   * Install the source of the layouts of text layers.
+   * @param textLayoutSource the source or null to remove it
+   */
+  public static void setTextLayoutSource(TextLayoutSource textLayoutSource) {
+    sTextLayoutSource = textLayoutSource;
   }
 
   public LayerState reset() {
+    checkMutable();
     name = null;
     bitmap = null;
+    bitmapResId = 0;
+    bitmapWidth = 0;
+    bitmapHeight = 0;
     flip = false;
     mirror = false;
     text = null;
     textSize = 0;
-    textAlignment = Layout.Alignment.ALIGN_CENTER;
-    mTextPaint.reset();
-    mTextPaint.setFlags(Paint.ANTI_ALIAS_FLAG);
+    textAlignment = TextAlignment.CENTER;
     mTextLayoutClean = false;
+    mTextLayoutSize = 0;
     left = 0;
     top = 0;
     right = 0;
     bottom = 0;
     alpha = 1;
-    color = Color.BLACK;
+    color = DEFAULT_COLOR;
     cornerRadius = 0;
+    rotate = 0;
     scale = 1;
     px = 0;
     py = 0;
     return this;
   }
 
+  @Override
+  public int getPoolStamp() {
+    return mPoolStamp;
+  }
+
+  @Override
+  public void setPoolStamp(int stamp) {
+    mPoolStamp = stamp;
+  }
+
+  /**
+   * Make this LayerState an immutable snapshot that can be shared between key frames. The setters
+   * of a frozen LayerState throw, callers that want to change it work on a {@link #copy()}, and its
+   * public fields must not be assigned either. The text is laid out before freezing since laying it
+   * out fits the frame, so the layout and frame of a snapshot never change once it is shared.
+   * @return this LayerState for chaining.
+   */
+  public LayerState freeze() {
+    if (!mFrozen) {
+      layoutText();
+      mFrozen = true;
+    }
+    return this;
+  }
+
+  public boolean isFrozen() {
+    return mFrozen;
+  }
+
+  private void checkMutable() {
+    if (mFrozen) {
+      throw new IllegalStateException("LayerState " + name + " is frozen, modify a copy instead");
+    }
+  }
+
   /**
    * Add the LayerState to the provided frame.
    * @param frame the frame to add to.
@@ -115,10 +215,12 @@ public class LayerState {
     // something dirties it. When this happens a new text layout is created it.
     copy.mTextLayout = mTextLayout;
     copy.mTextLayoutClean = mTextLayoutClean;
-    copy.mTextPaint.setTextSize(textSize);
-    copy.mTextPaint.setColor(color);
+    copy.mTextLayoutSize = mTextLayoutSize;
 
     copy.bitmap = bitmap;
+    copy.bitmapResId = bitmapResId;
+    copy.bitmapWidth = bitmapWidth;
+    copy.bitmapHeight = bitmapHeight;
     copy.alpha = alpha;
     copy.color = color;
     copy.flip = flip;
@@ -131,6 +233,7 @@ public class LayerState {
     copy.right = right;
     copy.bottom = bottom;
     copy.cornerRadius = cornerRadius;
+    copy.rotate = rotate;
     copy.scale = scale;
     copy.px = px;
     copy.py = py;
@@ -138,10 +241,15 @@ public class LayerState {
     return copy;
   }
 
-  private LayerState setBitmap(Bitmap bitmap, boolean matchFrame) {
+  private LayerState setBitmap(Object bitmap, boolean matchFrame) {
+    checkMutable();
     this.bitmap = bitmap;
+    bitmapResId = 0;
+    bitmapWidth = 0;
+    bitmapHeight = 0;
     if (matchFrame) {
-      setFrame(0, 0, bitmap.getWidth(), bitmap.getHeight());
+      ImageSource imageSource = requireImageSource();
+      setFrame(0, 0, imageSource.getWidth(bitmap), imageSource.getHeight(bitmap));
     }
     return this;
   }
@@ -151,69 +259,124 @@ public class LayerState {
   }
 
   public LayerState setBitmap(int resId, boolean matchFrame) {
-    if (!BITMAPS.containsKey(resId)) {
-      Bitmap bitmap = BitmapFactory.decodeResource(RESOURCES, resId);
-      BITMAPS.put(resId, bitmap);
+    setBitmap(requireImageSource().get(resId, 0, 0), matchFrame);
+    bitmapResId = resId;
+    return this;
+  }
+
+  /**
+   * Show a bitmap resource decoded for the provided size, without changing the frame. Only the
+   * center crop matching the aspect ratio of the size is decoded, subsampled when the resource is
+   * much larger than the size it is drawn at. The bitmap is not decoded here, it is owned by the
+   * {@link ImageSource} which may evict it and reuse its memory once it is far from the current
+   * key frame, so the layer only keeps the key to look it up while drawing.
+   * @param resId the drawable to show
+   * @param reqWidth the width the bitmap will be drawn at
+   * @param reqHeight the height the bitmap will be drawn at
+   * @return this LayerState for chaining.
+   */
+  public LayerState setBitmap(int resId, int reqWidth, int reqHeight) {
+    setBitmap(null, false);
+    bitmapResId = resId;
+    bitmapWidth = reqWidth;
+    bitmapHeight = reqHeight;
+    return this;
+  }
+
+  /**
+   * Get the bitmap to draw, looking bitmaps decoded for a size up in the {@link ImageSource}.
+   * @return the bitmap or null if it is not decoded yet
+   */
+  public Object getBitmap() {
+    if (bitmap != null || bitmapResId == 0) {
+      return bitmap;
     }
-    return setBitmap(BITMAPS.get(resId), matchFrame);
+    ImageSource imageSource = sImageSource;
+    return imageSource != null ? imageSource.peek(bitmapResId, bitmapWidth, bitmapHeight) : null;
+  }
+
+  private static ImageSource requireImageSource() {
+    ImageSource imageSource = sImageSource;
+    if (imageSource == null) {
+      throw new IllegalStateException("No ImageSource set to decode bitmaps with");
+    }
+    return imageSource;
   }
 
   public LayerState setText(String text) {
+    checkMutable();
     this.text = text;
     mTextLayoutClean = false;
     return this;
   }
 
   public LayerState setTextSize(float textSize) {
+    checkMutable();
     this.textSize = textSize;
-    mTextPaint.setTextSize(textSize);
     mTextLayoutClean = false;
     return this;
   }
 
-  public LayerState setTextAlignment(Layout.Alignment textAlignment) {
+  public LayerState setTextAlignment(TextAlignment textAlignment) {
+    checkMutable();
     this.textAlignment = textAlignment;
     mTextLayoutClean = false;
     return this;
   }
 
-  public Layout.Alignment getTextAlignment() {
+  public TextAlignment getTextAlignment() {
     return textAlignment;
   }
 
+  /**
+   * Look the text layout up in the {@link TextLayoutSource} and fit the bottom of the frame to it.
+   * Frozen LayerStates keep the layout they were frozen with.
+   * @return this LayerState for chaining.
+   */
   public LayerState layoutText() {
-    if (text == null || mTextLayoutClean) {
+    TextLayoutSource textLayoutSource = sTextLayoutSource;
+    if (text == null || mTextLayoutClean || mFrozen || textLayoutSource == null) {
       return this;
     }
 
-    mTextLayout =
-        new StaticLayout(text, mTextPaint, (int) width(), getTextAlignment(), 1, 0, true);
-    bottom = top + mTextLayout.getHeight();
+    mTextLayout = textLayoutSource.getTextLayout(this);
+    mTextLayoutSize = textSize;
+    bottom = top + textLayoutSource.getHeight(mTextLayout);
     mTextLayoutClean = true;
 
     return this;
   }
 
-  public StaticLayout getTextLayout() {
+  /**
+   * Get the text layout, laying the text out first if it changed. Layouts are shared between
+   * layers showing the same text, so they are drawn with the style of the layer set right before.
+   * @return the layout or null if there is no text, no {@link TextLayoutSource} or the LayerState
+   * was frozen without one
+   */
+  public Object getTextLayout() {
     if (!mTextLayoutClean) {
       layoutText();
     }
-
-    // Ensure the TextPaint is updated.
-    mTextPaint.setColor(color);
-    mTextPaint.setAlpha(Math.round(alpha * 255));
-    mTextPaint.setTextSize(textSize);
-
     return mTextLayout;
   }
 
+  /**
+   * Get the text size the text layout was built for. Tweened copies share the layout of the key
+   * frame they were copied from, so their text size may differ while it changes.
+   * @return the text size of the layout
+   */
+  public float getTextLayoutSize() {
+    return mTextLayoutSize;
+  }
+
   public LayerState setColor(int color) {
+    checkMutable();
     this.color = color;
-    mTextPaint.setColor(color);
     return this;
   }
 
   public LayerState setFrame(float left, float top, float right, float bottom) {
+    checkMutable();
     this.left = left;
     this.top = top;
     this.bottom = bottom;
@@ -226,6 +389,7 @@ public class LayerState {
   }
 
   public LayerState scale(float scale, float px, float py) {
+    checkMutable();
     this.scale = scale;
     this.px = px;
     this.py = py;
@@ -238,6 +402,7 @@ public class LayerState {
   }
 
   public LayerState rotate(float degrees, float px, float py) {
+    checkMutable();
     this.rotate = degrees;
     this.px = px;
     this.py = py;
@@ -314,6 +479,7 @@ public class LayerState {
   }
 
   public LayerState offsetXTo(float x) {
+    checkMutable();
     float width = right - left;
     left = x;
     right = x + width;
@@ -321,6 +487,7 @@ public class LayerState {
   }
 
   public LayerState offsetYTo(float y) {
+    checkMutable();
     float height = bottom - top;
     top = y;
     bottom = y + height;
@@ -328,6 +495,7 @@ public class LayerState {
   }
 
   public LayerState offsetBy(float x, float y) {
+    checkMutable();
     left += x;
     top += y;
     right += x;
@@ -336,21 +504,25 @@ public class LayerState {
   }
 
   public LayerState offsetLeft(float val) {
+    checkMutable();
     left += val;
     return this;
   }
 
   public LayerState offsetTop(float val) {
+    checkMutable();
     top += val;
     return this;
   }
 
   public LayerState offsetRight(float val) {
+    checkMutable();
     right += val;
     return this;
   }
 
   public LayerState offsetBottom(float val) {
+    checkMutable();
     bottom += val;
     return this;
   }
@@ -378,21 +550,25 @@ public class LayerState {
   }
 
   public LayerState setAlpha(float alpha) {
+    checkMutable();
     this.alpha = alpha;
     return this;
   }
 
   public LayerState setCornerRadius(float cornerRadius) {
+    checkMutable();
     this.cornerRadius = cornerRadius;
     return this;
   }
 
   public LayerState setFlip(boolean flip) {
+    checkMutable();
     this.flip = flip;
     return this;
   }
 
   public LayerState setMirror(boolean mirror) {
+    checkMutable();
     this.mirror = mirror;
     return this;
   }
@@ -0,0 +1,74 @@
+// Copyright 2004-present Facebook. All Rights Reserved.
+
+package im.wsb.droidcon.timeline;
+
+/**
+ * Pool of LayerState objects to reduce allocations while animations are running.
+ */
+public class LayerStatePool implements Pool<LayerState> {
+
+  private static final int MAX_POOL_SIZE = 4096;
+
+  // Exactly one of these is set.
+  private final GenerationalPool<LayerState> mPool;
+  private final StripedPool<LayerState> mStripedPool;
+
+  /**
+   * Create a pool for use by a single thread.
+   * @param initialPoolSize the initial capacity, the pool grows past it as needed
+   */
+  public LayerStatePool(int initialPoolSize) {
+    mPool = new GenerationalPool<>(initialPoolSize, Math.max(initialPoolSize, MAX_POOL_SIZE));
+    mStripedPool = null;
+  }
+
+  private LayerStatePool(StripedPool<LayerState> stripedPool) {
+    mPool = null;
+    mStripedPool = stripedPool;
+  }
+
+  /**
+   * Create a pool that can be shared by several threads tweening at the same time.
+   * @param stripeCount the number of independently locked stripes
+   * @param initialPoolSize the initial capacity of each stripe
+   * @return the pool
+   */
+  public static LayerStatePool createStriped(int stripeCount, int initialPoolSize) {
+    return new LayerStatePool(new StripedPool<LayerState>(
+        stripeCount,
+        initialPoolSize,
+        Math.max(initialPoolSize, MAX_POOL_SIZE / stripeCount)));
+  }
+
+  @Override
+  public LayerState acquire() {
+    LayerState instance = mPool != null ? mPool.acquire() : mStripedPool.acquire();
+    return instance != null ? instance : new LayerState();
+  }
+
+  @Override
+  public boolean release(LayerState instance) {
+    instance.reset();
+    return mPool != null ? mPool.release(instance) : mStripedPool.release(instance);
+  }
+
+  /**
+   * Snapshot the counters of this pool. They are always kept, so steady state animation can be
+   * confirmed to be allocation free by checking that misses stay flat.
+   * @param metrics the metrics to overwrite
+   * @return the provided metrics
+   */
+  public PoolMetrics getMetrics(PoolMetrics metrics) {
+    metrics.reset();
+    return mPool != null ? mPool.collectMetrics(metrics) : mStripedPool.collectMetrics(metrics);
+  }
+
+  public void resetMetrics() {
+    if (mPool != null) {
+      mPool.resetMetrics();
+    } else {
+      mStripedPool.resetMetrics();
+    }
+  }
+
+}
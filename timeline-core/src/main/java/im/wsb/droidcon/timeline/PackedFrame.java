@@ -0,0 +1,202 @@
+// Copyright 2004-present Facebook. All Rights Reserved.
+
+package im.wsb.droidcon.timeline;
+
+/**
+ * PackedFrame is a structure of arrays representation of the layers of a {@link Frame}. Every
+ * tweenable {@link LayerState} property lives in its own primitive column indexed by a layer slot,
+ * so tweening and rendering walk contiguous arrays instead of chasing LayerState objects.
+ */
+public class PackedFrame {
+
+  public static final int FLAG_FLIP = 1;
+  public static final int FLAG_MIRROR = 1 << 1;
+
+  private static final int DEFAULT_CAPACITY = 16;
+
+  /* Number of used slots. */
+  public int size;
+
+  /* Position */
+  public float[] left;
+  public float[] top;
+  public float[] right;
+  public float[] bottom;
+
+  /* Transform */
+  public float[] scale;
+  public float[] px;
+  public float[] py;
+  public float[] rotate;
+
+  /* Style */
+  public float[] alpha;
+  public float[] cornerRadius;
+  public float[] textSize;
+  public int[] color;
+  public int[] flags;
+
+  /* Content that is not tweened. */
+  // The platform bitmap set on each slot, see LayerState#bitmap.
+  public Object[] bitmap;
+  // The LayerState providing the loaded bitmap or variants of each slot, null for other layers.
+  public LayerState[] image;
+  // The LayerState providing the text and text layout of each slot, null for non text layers.
+  public LayerState[] text;
+
+  public PackedFrame() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  public PackedFrame(int capacity) {
+    allocate(Math.max(capacity, 1));
+  }
+
+  /**
+   * Pack every LayerState in the provided frame.
+   * @param frame the frame to pack
+   * @return a new PackedFrame with one slot per layer
+   */
+  public static PackedFrame pack(Frame frame) {
+    PackedFrame packed = new PackedFrame(frame.layerStates.size());
+    for (LayerState layerState : frame.layerStates.values()) {
+      packed.add(layerState);
+    }
+    return packed;
+  }
+
+  public PackedFrame clear() {
+    for (int i = 0; i < size; i++) {
+      bitmap[i] = null;
+      image[i] = null;
+      text[i] = null;
+    }
+    size = 0;
+    return this;
+  }
+
+  /**
+   * Make sure the columns can hold at least the provided number of slots.
+   * @param capacity the number of slots needed
+   */
+  public void ensureCapacity(int capacity) {
+    if (capacity <= left.length) {
+      return;
+    }
+    PackedFrame old = new PackedFrame(0);
+    old.adoptColumns(this);
+    allocate(Math.max(capacity, old.left.length * 2));
+    copySlots(old, 0, this, 0, old.size);
+    size = old.size;
+  }
+
+  /**
+   * Append a LayerState to the next free slot.
+   * @param layerState the layer to pack
+   * @return the slot the layer was packed into
+   */
+  public int add(LayerState layerState) {
+    ensureCapacity(size + 1);
+    int slot = size++;
+    set(slot, layerState);
+    return slot;
+  }
+
+  /**
+   * Pack a LayerState into the provided slot.
+   * @param slot the slot to write
+   * @param layerState the layer to pack
+   */
+  public void set(int slot, LayerState layerState) {
+    left[slot] = layerState.left;
+    top[slot] = layerState.top;
+    right[slot] = layerState.right;
+    bottom[slot] = layerState.bottom;
+    scale[slot] = layerState.scale;
+    px[slot] = layerState.px;
+    py[slot] = layerState.py;
+    rotate[slot] = layerState.rotate;
+    alpha[slot] = layerState.alpha;
+    cornerRadius[slot] = layerState.cornerRadius;
+    textSize[slot] = layerState.textSize;
+    color[slot] = layerState.color;
+    flags[slot] = (layerState.flip ? FLAG_FLIP : 0) | (layerState.mirror ? FLAG_MIRROR : 0);
+    bitmap[slot] = layerState.bitmap;
+    image[slot] = layerState.bitmapResId != 0 ? layerState : null;
+    text[slot] = layerState.text != null ? layerState : null;
+  }
+
+  /**
+   * Copy a range of slots between two packed frames.
+   */
+  public static void copySlots(
+      PackedFrame src,
+      int srcSlot,
+      PackedFrame dst,
+      int dstSlot,
+      int count) {
+    System.arraycopy(src.left, srcSlot, dst.left, dstSlot, count);
+    System.arraycopy(src.top, srcSlot, dst.top, dstSlot, count);
+    System.arraycopy(src.right, srcSlot, dst.right, dstSlot, count);
+    System.arraycopy(src.bottom, srcSlot, dst.bottom, dstSlot, count);
+    System.arraycopy(src.scale, srcSlot, dst.scale, dstSlot, count);
+    System.arraycopy(src.px, srcSlot, dst.px, dstSlot, count);
+    System.arraycopy(src.py, srcSlot, dst.py, dstSlot, count);
+    System.arraycopy(src.rotate, srcSlot, dst.rotate, dstSlot, count);
+    System.arraycopy(src.alpha, srcSlot, dst.alpha, dstSlot, count);
+    System.arraycopy(src.cornerRadius, srcSlot, dst.cornerRadius, dstSlot, count);
+    System.arraycopy(src.textSize, srcSlot, dst.textSize, dstSlot, count);
+    System.arraycopy(src.color, srcSlot, dst.color, dstSlot, count);
+    System.arraycopy(src.flags, srcSlot, dst.flags, dstSlot, count);
+    System.arraycopy(src.bitmap, srcSlot, dst.bitmap, dstSlot, count);
+    System.arraycopy(src.image, srcSlot, dst.image, dstSlot, count);
+    System.arraycopy(src.text, srcSlot, dst.text, dstSlot, count);
+  }
+
+  public float width(int slot) {
+    return right[slot] - left[slot];
+  }
+
+  public float height(int slot) {
+    return bottom[slot] - top[slot];
+  }
+
+  private void allocate(int capacity) {
+    left = new float[capacity];
+    top = new float[capacity];
+    right = new float[capacity];
+    bottom = new float[capacity];
+    scale = new float[capacity];
+    px = new float[capacity];
+    py = new float[capacity];
+    rotate = new float[capacity];
+    alpha = new float[capacity];
+    cornerRadius = new float[capacity];
+    textSize = new float[capacity];
+    color = new int[capacity];
+    flags = new int[capacity];
+    bitmap = new Object[capacity];
+    image = new LayerState[capacity];
+    text = new LayerState[capacity];
+  }
+
+  private void adoptColumns(PackedFrame other) {
+    left = other.left;
+    top = other.top;
+    right = other.right;
+    bottom = other.bottom;
+    scale = other.scale;
+    px = other.px;
+    py = other.py;
+    rotate = other.rotate;
+    alpha = other.alpha;
+    cornerRadius = other.cornerRadius;
+    textSize = other.textSize;
+    color = other.color;
+    flags = other.flags;
+    bitmap = other.bitmap;
+    image = other.image;
+    text = other.text;
+    size = other.size;
+  }
+}
@@ -0,0 +1,91 @@
+// Copyright 2004-present Facebook. All Rights Reserved.
+
+package im.wsb.droidcon.timeline;
+
+import java.util.zip.CRC32;
+
+/**
+ * PixelBuffer is a plain array of ARGB pixels, the target of the {@link SoftwareRasterizer} and the
+ * bitmaps it draws. Pixels are stored row by row with non premultiplied alpha, like the colors of a
+ * {@link RenderCommandList}.
+ */
+public class PixelBuffer {
+
+  private final int mWidth;
+  private final int mHeight;
+  private final int[] mPixels;
+
+  public PixelBuffer(int width, int height) {
+    this(width, height, new int[width * height]);
+  }
+
+  /**
+   * @param width the width of the buffer
+   * @param height the height of the buffer
+   * @param pixels the pixels, row by row, shared with the buffer rather than copied
+   */
+  public PixelBuffer(int width, int height, int[] pixels) {
+    if (width <= 0 || height <= 0 || pixels.length < width * height) {
+      throw new IllegalArgumentException(
+          "invalid buffer " + width + "x" + height + " with " + pixels.length + " pixels");
+    }
+    mWidth = width;
+    mHeight = height;
+    mPixels = pixels;
+  }
+
+  public int getWidth() {
+    return mWidth;
+  }
+
+  public int getHeight() {
+    return mHeight;
+  }
+
+  public int[] getPixels() {
+    return mPixels;
+  }
+
+  public int getPixel(int x, int y) {
+    return mPixels[y * mWidth + x];
+  }
+
+  public void setPixel(int x, int y, int color) {
+    mPixels[y * mWidth + x] = color;
+  }
+
+  public void fill(int color) {
+    int count = mWidth * mHeight;
+    for (int i = 0; i < count; i++) {
+      mPixels[i] = color;
+    }
+  }
+
+  /**
+   * Get a checksum of the size and pixels of the buffer, so rendered frames can be compared
+   * without keeping reference images around.
+   * @return the CRC32 of the buffer
+   */
+  public long checksum() {
+    CRC32 crc = new CRC32();
+    byte[] row = new byte[Math.max(8, mWidth * 4)];
+    putInt(row, 0, mWidth);
+    putInt(row, 4, mHeight);
+    crc.update(row, 0, 8);
+    for (int y = 0; y < mHeight; y++) {
+      int offset = y * mWidth;
+      for (int x = 0; x < mWidth; x++) {
+        putInt(row, x * 4, mPixels[offset + x]);
+      }
+      crc.update(row, 0, mWidth * 4);
+    }
+    return crc.getValue();
+  }
+
+  private static void putInt(byte[] bytes, int offset, int value) {
+    bytes[offset] = (byte) (value >>> 24);
+    bytes[offset + 1] = (byte) (value >>> 16);
+    bytes[offset + 2] = (byte) (value >>> 8);
+    bytes[offset + 3] = (byte) value;
+  }
+}
@@ -0,0 +1,24 @@
+// Copyright 2004-present Facebook. All Rights Reserved.
+
+package im.wsb.droidcon.timeline;
+
+/**
+ * A pool of reusable objects.
+ *
+ * @param <T> The pooled type.
+ */
+public interface Pool<T> {
+
+  /**
+   * @return an instance from the pool or null if it is empty
+   */
+  T acquire();
+
+  /**
+   * Return an instance to the pool.
+   * @param instance the instance to release
+   * @return true if the instance was pooled, false if the pool is full
+   * @throws IllegalStateException if the instance is already in the pool
+   */
+  boolean release(T instance);
+}
@@ -0,0 +1,70 @@
+// Copyright 2004-present Facebook. All Rights Reserved.
+
+package im.wsb.droidcon.timeline;
+
+/**
+ * PoolMetrics is a snapshot of the counters kept by a {@link GenerationalPool} or
+ * {@link StripedPool}. A pool in steady state has a flat miss count, which means no objects are
+ * being allocated.
+ */
+public class PoolMetrics {
+
+  /* Calls to acquire. */
+  public long acquires;
+  /* Acquires that found the pool empty and had to allocate a fresh object. */
+  public long misses;
+  /* Calls to release. */
+  public long releases;
+  /* Releases that were dropped because the pool was at its max capacity. */
+  public long drops;
+  /* Objects currently held by the pool. */
+  public int size;
+  /* Most objects the pool has held at once. */
+  public int highWaterMark;
+  /* Current and maximum number of objects the pool can hold. */
+  public int capacity;
+  public int maxCapacity;
+
+  public PoolMetrics reset() {
+    acquires = 0;
+    misses = 0;
+    releases = 0;
+    drops = 0;
+    size = 0;
+    highWaterMark = 0;
+    capacity = 0;
+    maxCapacity = 0;
+    return this;
+  }
+
+  /**
+   * Add the counters of another snapshot to this one.
+   * @param other the snapshot to add
+   * @return this snapshot for chaining
+   */
+  public PoolMetrics add(PoolMetrics other) {
+    acquires += other.acquires;
+    misses += other.misses;
+    releases += other.releases;
+    drops += other.drops;
+    size += other.size;
+    highWaterMark += other.highWaterMark;
+    capacity += other.capacity;
+    maxCapacity += other.maxCapacity;
+    return this;
+  }
+
+  @Override
+  public String toString() {
+    return "PoolMetrics{" +
+        "acquires=" + acquires +
+        ", misses=" + misses +
+        ", releases=" + releases +
+        ", drops=" + drops +
+        ", size=" + size +
+        ", highWaterMark=" + highWaterMark +
+        ", capacity=" + capacity +
+        ", maxCapacity=" + maxCapacity +
+        '}';
+  }
+}
@@ -0,0 +1,400 @@
+// Copyright 2004-present Facebook. All Rights Reserved.
+
+package im.wsb.droidcon.timeline;
+
+/**
+ * RenderCommandList is a recorded frame: the draws the {@code Renderer} would issue to a canvas,
+ * packed into primitive arrays instead. Each command holds the 2D affine matrix it is drawn with,
+ * its rectangle, a color and alpha, and a reference to the bitmap or text layout it draws. A
+ * {@code RenderCommandExecutor} plays a list onto a canvas, and lists can be compared with
+ * {@link #contentEquals(RenderCommandList)} to find frames that would draw the same thing.
+ *
+ * The arrays only grow, so recording into a cleared list allocates nothing once it has held a
+ * frame of the same size. The list keeps a matrix stack like a canvas, saved, restored and
+ * concatenated in the same order the Renderer transforms its canvas.
+ *
+ * This class has no Android dependencies, so recorded frames can be inspected on the JVM.
+ */
+public class RenderCommandList {
+
+  /* Commands */
+  public static final int OP_RECT = 1;
+  public static final int OP_ROUND_RECT = 2;
+  public static final int OP_BITMAP = 3;
+  public static final int OP_TEXT = 4;
+
+  /* Flags */
+  // Bitmaps draw a source rect of the bitmap rather than all of it.
+  public static final int FLAG_SOURCE_RECT = 1;
+  // Text alignment, in the two bits above the other flags.
+  public static final int FLAG_ALIGN_NORMAL = 0;
+  public static final int FLAG_ALIGN_CENTER = 1 << 1;
+  public static final int FLAG_ALIGN_OPPOSITE = 2 << 1;
+  public static final int FLAG_ALIGN_MASK = 3 << 1;
+
+  /* Matrix values, in the order of a 2D affine transform x' = a x + c y + e, y' = b x + d y + f. */
+  public static final int MATRIX_A = 0;
+  public static final int MATRIX_B = 1;
+  public static final int MATRIX_C = 2;
+  public static final int MATRIX_D = 3;
+  public static final int MATRIX_E = 4;
+  public static final int MATRIX_F = 5;
+  public static final int MATRIX_SIZE = 6;
+
+  /* Float layout of a command. */
+  private static final int FLOAT_LEFT = MATRIX_SIZE;
+  private static final int FLOAT_TOP = MATRIX_SIZE + 1;
+  private static final int FLOAT_RIGHT = MATRIX_SIZE + 2;
+  private static final int FLOAT_BOTTOM = MATRIX_SIZE + 3;
+  // The source rect of bitmaps, the corner radius of round rects or the text size of text.
+  private static final int FLOAT_EXTRA = MATRIX_SIZE + 4;
+  private static final int FLOAT_ALPHA = MATRIX_SIZE + 8;
+  private static final int FLOAT_STRIDE = MATRIX_SIZE + 9;
+
+  /* Int layout of a command. */
+  private static final int INT_OP = 0;
+  private static final int INT_COLOR = 1;
+  private static final int INT_FLAGS = 2;
+  private static final int INT_STRIDE = 3;
+
+  /* Reference layout of a command. */
+  private static final int REF_PAYLOAD = 0;
+  private static final int REF_TEXT = 1;
+  private static final int REF_STRIDE = 2;
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  private float[] mFloats = new float[INITIAL_CAPACITY * FLOAT_STRIDE];
+  private int[] mInts = new int[INITIAL_CAPACITY * INT_STRIDE];
+  private Object[] mRefs = new Object[INITIAL_CAPACITY * REF_STRIDE];
+  private int mSize;
+
+  /* Matrix stack, the current matrix is at mStackTop. */
+  private float[] mStack = new float[4 * MATRIX_SIZE];
+  private int mStackTop;
+
+  public RenderCommandList() {
+    clear();
+  }
+
+  /**
+   * Drop every command and reset the matrix to identity.
+   */
+  public void clear() {
+    // Don't hold on to bitmaps and layouts of previous frames.
+    for (int i = 0; i < mSize * REF_STRIDE; i++) {
+      mRefs[i] = null;
+    }
+    mSize = 0;
+    mStackTop = 0;
+    mStack[MATRIX_A] = 1;
+    mStack[MATRIX_B] = 0;
+    mStack[MATRIX_C] = 0;
+    mStack[MATRIX_D] = 1;
+    mStack[MATRIX_E] = 0;
+    mStack[MATRIX_F] = 0;
+  }
+
+  public int size() {
+    return mSize;
+  }
+
+  /* Matrix */
+
+  public void save() {
+    if (mStackTop + 2 * MATRIX_SIZE > mStack.length) {
+      float[] stack = new float[mStack.length * 2];
+      System.arraycopy(mStack, 0, stack, 0, mStack.length);
+      mStack = stack;
+    }
+    System.arraycopy(mStack, mStackTop, mStack, mStackTop + MATRIX_SIZE, MATRIX_SIZE);
+    mStackTop += MATRIX_SIZE;
+  }
+
+  public void restore() {
+    if (mStackTop == 0) {
+      throw new IllegalStateException("Unbalanced restore");
+    }
+    mStackTop -= MATRIX_SIZE;
+  }
+
+  public void translate(float dx, float dy) {
+    float[] m = mStack;
+    int t = mStackTop;
+    m[t + MATRIX_E] += m[t + MATRIX_A] * dx + m[t + MATRIX_C] * dy;
+    m[t + MATRIX_F] += m[t + MATRIX_B] * dx + m[t + MATRIX_D] * dy;
+  }
+
+  /**
+   * Scale around a pivot, like {@code Canvas.scale(scale, scale, px, py)}.
+   */
+  public void scale(float scale, float px, float py) {
+    translate(px, py);
+    float[] m = mStack;
+    int t = mStackTop;
+    m[t + MATRIX_A] *= scale;
+    m[t + MATRIX_B] *= scale;
+    m[t + MATRIX_C] *= scale;
+    m[t + MATRIX_D] *= scale;
+    translate(-px, -py);
+  }
+
+  /**
+   * Rotate clockwise around a pivot, like {@code Canvas.rotate(degrees, px, py)}.
+   */
+  public void rotate(float degrees, float px, float py) {
+    if (degrees == 0) {
+      return;
+    }
+    translate(px, py);
+    double radians = Math.toRadians(degrees);
+    float cos = (float) Math.cos(radians);
+    float sin = (float) Math.sin(radians);
+    float[] m = mStack;
+    int t = mStackTop;
+    float a = m[t + MATRIX_A];
+    float b = m[t + MATRIX_B];
+    float c = m[t + MATRIX_C];
+    float d = m[t + MATRIX_D];
+    m[t + MATRIX_A] = a * cos + c * sin;
+    m[t + MATRIX_B] = b * cos + d * sin;
+    m[t + MATRIX_C] = c * cos - a * sin;
+    m[t + MATRIX_D] = d * cos - b * sin;
+    translate(-px, -py);
+  }
+
+  /* Recording */
+
+  public void drawRect(float left, float top, float right, float bottom, int color, float alpha) {
+    add(OP_RECT, color, 0, alpha, left, top, right, bottom);
+  }
+
+  public void drawRoundRect(
+      float left,
+      float top,
+      float right,
+      float bottom,
+      float cornerRadius,
+      int color,
+      float alpha) {
+    int i = add(OP_ROUND_RECT, color, 0, alpha, left, top, right, bottom);
+    mFloats[i * FLOAT_STRIDE + FLOAT_EXTRA] = cornerRadius;
+  }
+
+  /**
+   * Record drawing a bitmap, or a source rect of it, stretched over a rect.
+   * @param bitmap the bitmap to draw
+   * @param hasSourceRect whether to only draw the source rect
+   * @param color the color alpha bitmaps are drawn in
+   */
+  public void drawBitmap(
+      Object bitmap,
+      boolean hasSourceRect,
+      float sourceLeft,
+      float sourceTop,
+      float sourceRight,
+      float sourceBottom,
+      float left,
+      float top,
+      float right,
+      float bottom,
+      int color,
+      float alpha) {
+    int flags = hasSourceRect ? FLAG_SOURCE_RECT : 0;
+    int i = add(OP_BITMAP, color, flags, alpha, left, top, right, bottom);
+    int f = i * FLOAT_STRIDE + FLOAT_EXTRA;
+    mFloats[f] = sourceLeft;
+    mFloats[f + 1] = sourceTop;
+    mFloats[f + 2] = sourceRight;
+    mFloats[f + 3] = sourceBottom;
+    mRefs[i * REF_STRIDE + REF_PAYLOAD] = bitmap;
+  }
+
+  /**
+   * Record drawing a laid out text whose first line starts at the origin of the matrix.
+   * @param textLayout the layout to draw
+   * @param text the text of the layout
+   * @param width the width the text is laid out at
+   * @param height the height of the layout
+   * @param textSize the size the text is drawn at
+   * @param alignFlag one of the FLAG_ALIGN constants
+   */
+  public void drawText(
+      Object textLayout,
+      CharSequence text,
+      float width,
+      float height,
+      float textSize,
+      int alignFlag,
+      int color,
+      float alpha) {
+    int i = add(OP_TEXT, color, alignFlag, alpha, 0, 0, width, height);
+    mFloats[i * FLOAT_STRIDE + FLOAT_EXTRA] = textSize;
+    mRefs[i * REF_STRIDE + REF_PAYLOAD] = textLayout;
+    mRefs[i * REF_STRIDE + REF_TEXT] = text;
+  }
+
+  /* Reading */
+
+  public int getOp(int i) {
+    return mInts[i * INT_STRIDE + INT_OP];
+  }
+
+  public int getColor(int i) {
+    return mInts[i * INT_STRIDE + INT_COLOR];
+  }
+
+  public int getFlags(int i) {
+    return mInts[i * INT_STRIDE + INT_FLAGS];
+  }
+
+  public float getAlpha(int i) {
+    return mFloats[i * FLOAT_STRIDE + FLOAT_ALPHA];
+  }
+
+  /**
+   * Copy the matrix of a command.
+   * @param i the command
+   * @param out an array of at least {@link #MATRIX_SIZE} values indexed by the MATRIX constants
+   */
+  public void getMatrix(int i, float[] out) {
+    System.arraycopy(mFloats, i * FLOAT_STRIDE, out, 0, MATRIX_SIZE);
+  }
+
+  public float getMatrixValue(int i, int value) {
+    return mFloats[i * FLOAT_STRIDE + value];
+  }
+
+  public float getLeft(int i) {
+    return mFloats[i * FLOAT_STRIDE + FLOAT_LEFT];
+  }
+
+  public float getTop(int i) {
+    return mFloats[i * FLOAT_STRIDE + FLOAT_TOP];
+  }
+
+  public float getRight(int i) {
+    return mFloats[i * FLOAT_STRIDE + FLOAT_RIGHT];
+  }
+
+  public float getBottom(int i) {
+    return mFloats[i * FLOAT_STRIDE + FLOAT_BOTTOM];
+  }
+
+  public float getCornerRadius(int i) {
+    return mFloats[i * FLOAT_STRIDE + FLOAT_EXTRA];
+  }
+
+  public float getTextSize(int i) {
+    return mFloats[i * FLOAT_STRIDE + FLOAT_EXTRA];
+  }
+
+  public float getSourceLeft(int i) {
+    return mFloats[i * FLOAT_STRIDE + FLOAT_EXTRA];
+  }
+
+  public float getSourceTop(int i) {
+    return mFloats[i * FLOAT_STRIDE + FLOAT_EXTRA + 1];
+  }
+
+  public float getSourceRight(int i) {
+    return mFloats[i * FLOAT_STRIDE + FLOAT_EXTRA + 2];
+  }
+
+  public float getSourceBottom(int i) {
+    return mFloats[i * FLOAT_STRIDE + FLOAT_EXTRA + 3];
+  }
+
+  /**
+   * @return the bitmap of a bitmap command or the layout of a text command
+   */
+  public Object getPayload(int i) {
+    return mRefs[i * REF_STRIDE + REF_PAYLOAD];
+  }
+
+  public CharSequence getText(int i) {
+    return (CharSequence) mRefs[i * REF_STRIDE + REF_TEXT];
+  }
+
+  /**
+   * Check if another list draws exactly the same commands. Bitmaps and layouts are compared by
+   * identity.
+   * @param other the list to compare with
+   * @return true if playing either list draws the same frame
+   */
+  public boolean contentEquals(RenderCommandList other) {
+    if (other == this) {
+      return true;
+    }
+    if (other == null || other.mSize != mSize) {
+      return false;
+    }
+    for (int i = mSize * INT_STRIDE - 1; i >= 0; i--) {
+      if (mInts[i] != other.mInts[i]) {
+        return false;
+      }
+    }
+    for (int i = mSize * FLOAT_STRIDE - 1; i >= 0; i--) {
+      if (mFloats[i] != other.mFloats[i]) {
+        return false;
+      }
+    }
+    for (int i = mSize * REF_STRIDE - 1; i >= 0; i--) {
+      if (mRefs[i] != other.mRefs[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Append a command drawn with the current matrix.
+   * @return the index of the command
+   */
+  private int add(
+      int op,
+      int color,
+      int flags,
+      float alpha,
+      float left,
+      float top,
+      float right,
+      float bottom) {
+    ensureCapacity(mSize + 1);
+    int i = mSize++;
+    int n = i * INT_STRIDE;
+    mInts[n + INT_OP] = op;
+    mInts[n + INT_COLOR] = color;
+    mInts[n + INT_FLAGS] = flags;
+    int f = i * FLOAT_STRIDE;
+    System.arraycopy(mStack, mStackTop, mFloats, f, MATRIX_SIZE);
+    mFloats[f + FLOAT_LEFT] = left;
+    mFloats[f + FLOAT_TOP] = top;
+    mFloats[f + FLOAT_RIGHT] = right;
+    mFloats[f + FLOAT_BOTTOM] = bottom;
+    for (int e = FLOAT_EXTRA; e < FLOAT_ALPHA; e++) {
+      mFloats[f + e] = 0;
+    }
+    mFloats[f + FLOAT_ALPHA] = alpha;
+    mRefs[i * REF_STRIDE + REF_PAYLOAD] = null;
+    mRefs[i * REF_STRIDE + REF_TEXT] = null;
+    return i;
+  }
+
+  private void ensureCapacity(int size) {
+    int capacity = mInts.length / INT_STRIDE;
+    if (size <= capacity) {
+      return;
+    }
+    int newCapacity = Math.max(size, capacity * 2);
+    float[] floats = new float[newCapacity * FLOAT_STRIDE];
+    int[] ints = new int[newCapacity * INT_STRIDE];
+    Object[] refs = new Object[newCapacity * REF_STRIDE];
+    System.arraycopy(mFloats, 0, floats, 0, mSize * FLOAT_STRIDE);
+    System.arraycopy(mInts, 0, ints, 0, mSize * INT_STRIDE);
+    System.arraycopy(mRefs, 0, refs, 0, mSize * REF_STRIDE);
+    mFloats = floats;
+    mInts = ints;
+    mRefs = refs;
+  }
+}
@@ -0,0 +1,530 @@
+// Copyright 2004-present Facebook. All Rights Reserved.
+
+package im.wsb.droidcon.timeline;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * SoftwareRasterizer draws a {@link RenderCommandList} into a {@link PixelBuffer} in plain Java, so
+ * frames recorded by the {@code Renderer} can be rendered, timed and compared by checksum on a
+ * machine without a device or GPU.
+ *
+ * The target is split into square tiles drawn in parallel. Each tile walks the commands in order
+ * and shades the pixels it shares with their transformed bounds, sampling every pixel at its
+ * center through the inverse matrix of the command. Every pixel only depends on the commands, so
+ * the output is the same for any number of threads or tile size.
+ *
+ * Filled rects, round rects and bitmaps are drawn without antialiasing, bitmaps sampled from their
+ * nearest pixel. Bitmaps are only read from {@link PixelBuffer} payloads, any other payload, like
+ * an Android bitmap recorded on a device, is drawn as a rect of {@link #PLACEHOLDER_COLOR}. Text is
+ * laid out and drawn with the built in {@link BitmapFont}, so it only approximates the layout of
+ * the device.
+ */
+public class SoftwareRasterizer {
+
+  public static final int DEFAULT_TILE_SIZE = 64;
+  public static final int PLACEHOLDER_COLOR = 0xffcccccc;
+
+  /* Text metrics in font units, a text size being GLYPH_HEIGHT + 1 units. */
+  private static final int ADVANCE_UNITS = BitmapFont.GLYPH_WIDTH + 1;
+  private static final int LINE_UNITS = BitmapFont.GLYPH_HEIGHT + 3;
+  private static final int TEXT_SIZE_UNITS = BitmapFont.GLYPH_HEIGHT + 1;
+
+  private final int mThreadCount;
+  private final int mTileSize;
+  private final ExecutorService mExecutor;
+  private final AtomicInteger mNextTile = new AtomicInteger();
+  private final AtomicInteger mShadedPixelCount = new AtomicInteger();
+  private final Runnable mTileRunnable;
+
+  /* The frame being rendered, set for the duration of render. */
+  private RenderCommandList mCommands;
+  private PixelBuffer mTarget;
+  private int mTileColumns;
+  private int mTileCount;
+  private CountDownLatch mDone;
+
+  /* Prepared commands, the inverse matrix and device bounds of each and the lines of text. */
+  private float[] mInverse = new float[0];
+  private int[] mBounds = new int[0];
+  private int[][] mLines = new int[0][];
+  private float[][] mLineOffsets = new float[0][];
+
+  private long mLastRenderNanos;
+  private int mLastShadedPixelCount;
+
+  public SoftwareRasterizer() {
+    this(Runtime.getRuntime().availableProcessors(), DEFAULT_TILE_SIZE);
+  }
+
+  /**
+   * @param threadCount how many threads draw tiles, including the one calling render
+   * @param tileSize the width and height of the tiles in pixels
+   */
+  public SoftwareRasterizer(int threadCount, int tileSize) {
+    if (threadCount < 1 || tileSize < 1) {
+      throw new IllegalArgumentException(
+          "invalid thread count " + threadCount + " or tile size " + tileSize);
+    }
+    mThreadCount = threadCount;
+    mTileSize = tileSize;
+    mTileRunnable = new Runnable() {
+      @Override
+      public void run() {
+        try {
+          renderTiles();
+        } finally {
+          mDone.countDown();
+        }
+      }
+    };
+    mExecutor = threadCount == 1 ? null : Executors.newFixedThreadPool(
+        threadCount - 1,
+        new ThreadFactory() {
+          private final AtomicInteger mCount = new AtomicInteger();
+
+          @Override
+          public Thread newThread(Runnable runnable) {
+            Thread thread =
+                new Thread(runnable, "SoftwareRasterizer #" + mCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+  }
+
+  /**
+   * Draw a list of commands over the current pixels of a buffer.
+   * @param commands the commands to draw
+   * @param target the buffer to draw into
+   */
+  public void render(RenderCommandList commands, PixelBuffer target) {
+    long start = System.nanoTime();
+    mCommands = commands;
+    mTarget = target;
+    prepare();
+    mTileColumns = (target.getWidth() + mTileSize - 1) / mTileSize;
+    mTileCount = mTileColumns * ((target.getHeight() + mTileSize - 1) / mTileSize);
+    mNextTile.set(0);
+    mShadedPixelCount.set(0);
+    try {
+      if (mExecutor == null) {
+        renderTiles();
+      } else {
+        mDone = new CountDownLatch(mThreadCount - 1);
+        for (int i = 1; i < mThreadCount; i++) {
+          mExecutor.execute(mTileRunnable);
+        }
+        renderTiles();
+        awaitTiles();
+      }
+    } finally {
+      mCommands = null;
+      mTarget = null;
+      mLastShadedPixelCount = mShadedPixelCount.get();
+      mLastRenderNanos = System.nanoTime() - start;
+    }
+  }
+
+  /**
+   * Measure the height of text laid out the way it is drawn here, standing in for the height of the
+   * text layout of a device when frames are recorded on the JVM.
+   * @param text the text
+   * @param textSize the size the text is drawn at
+   * @param width the width the text is laid out at
+   * @return the height of the lines of the text
+   */
+  public static float getTextHeight(CharSequence text, float textSize, float width) {
+    float unit = textSize / TEXT_SIZE_UNITS;
+    if (text == null || unit <= 0) {
+      return 0;
+    }
+    int lineCount = breakLines(text, getMaxChars(unit, width)).length / 2;
+    return lineCount * LINE_UNITS * unit;
+  }
+
+  /**
+   * @return how long the last render took, in nanoseconds
+   */
+  public long getLastRenderNanos() {
+    return mLastRenderNanos;
+  }
+
+  /**
+   * @return how many pixels the last render shaded, counting overdraw
+   */
+  public int getLastShadedPixelCount() {
+    return mLastShadedPixelCount;
+  }
+
+  /**
+   * Stop the tile threads, the rasterizer can't render afterwards.
+   */
+  public void shutdown() {
+    if (mExecutor != null) {
+      mExecutor.shutdown();
+    }
+  }
+
+  private void awaitTiles() {
+    boolean interrupted = false;
+    while (true) {
+      try {
+        mDone.await();
+        break;
+      } catch (InterruptedException e) {
+        // The tiles still write into the target, so wait for them anyway.
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /* Preparation */
+
+  private void prepare() {
+    int count = mCommands.size();
+    if (mBounds.length < count * 4) {
+      mInverse = new float[count * RenderCommandList.MATRIX_SIZE];
+      mBounds = new int[count * 4];
+      mLines = new int[count][];
+      mLineOffsets = new float[count][];
+    }
+    float[] matrix = new float[RenderCommandList.MATRIX_SIZE];
+    for (int i = 0; i < count; i++) {
+      mCommands.getMatrix(i, matrix);
+      if (!invert(matrix, mInverse, i * RenderCommandList.MATRIX_SIZE) ||
+          mCommands.getAlpha(i) <= 0) {
+        setEmptyBounds(i);
+        continue;
+      }
+      setDeviceBounds(i, matrix);
+      if (mCommands.getOp(i) == RenderCommandList.OP_TEXT) {
+        layoutText(i);
+      } else {
+        mLines[i] = null;
+        mLineOffsets[i] = null;
+      }
+    }
+  }
+
+  private static boolean invert(float[] m, float[] out, int offset) {
+    float a = m[RenderCommandList.MATRIX_A];
+    float b = m[RenderCommandList.MATRIX_B];
+    float c = m[RenderCommandList.MATRIX_C];
+    float d = m[RenderCommandList.MATRIX_D];
+    float e = m[RenderCommandList.MATRIX_E];
+    float f = m[RenderCommandList.MATRIX_F];
+    float det = a * d - b * c;
+    if (det == 0 || Float.isNaN(det) || Float.isInfinite(det)) {
+      return false;
+    }
+    out[offset + RenderCommandList.MATRIX_A] = d / det;
+    out[offset + RenderCommandList.MATRIX_B] = -b / det;
+    out[offset + RenderCommandList.MATRIX_C] = -c / det;
+    out[offset + RenderCommandList.MATRIX_D] = a / det;
+    out[offset + RenderCommandList.MATRIX_E] = (c * f - d * e) / det;
+    out[offset + RenderCommandList.MATRIX_F] = (b * e - a * f) / det;
+    return true;
+  }
+
+  private void setDeviceBounds(int i, float[] m) {
+    float left = mCommands.getLeft(i);
+    float top = mCommands.getTop(i);
+    float right = mCommands.getRight(i);
+    float bottom = mCommands.getBottom(i);
+    float minX = Float.POSITIVE_INFINITY;
+    float minY = Float.POSITIVE_INFINITY;
+    float maxX = Float.NEGATIVE_INFINITY;
+    float maxY = Float.NEGATIVE_INFINITY;
+    for (int corner = 0; corner < 4; corner++) {
+      float x = (corner & 1) == 0 ? left : right;
+      float y = (corner & 2) == 0 ? top : bottom;
+      float deviceX = m[RenderCommandList.MATRIX_A] * x + m[RenderCommandList.MATRIX_C] * y +
+          m[RenderCommandList.MATRIX_E];
+      float deviceY = m[RenderCommandList.MATRIX_B] * x + m[RenderCommandList.MATRIX_D] * y +
+          m[RenderCommandList.MATRIX_F];
+      minX = Math.min(minX, deviceX);
+      minY = Math.min(minY, deviceY);
+      maxX = Math.max(maxX, deviceX);
+      maxY = Math.max(maxY, deviceY);
+    }
+    int b = i * 4;
+    mBounds[b] = Math.max(0, (int) Math.floor(minX));
+    mBounds[b + 1] = Math.max(0, (int) Math.floor(minY));
+    mBounds[b + 2] = Math.min(mTarget.getWidth(), (int) Math.ceil(maxX));
+    mBounds[b + 3] = Math.min(mTarget.getHeight(), (int) Math.ceil(maxY));
+  }
+
+  private void setEmptyBounds(int i) {
+    int b = i * 4;
+    mBounds[b] = 0;
+    mBounds[b + 1] = 0;
+    mBounds[b + 2] = 0;
+    mBounds[b + 3] = 0;
+  }
+
+  /**
+   * Break the text of a command into lines that fit its width and find where each line starts for
+   * the alignment of the command.
+   */
+  private void layoutText(int i) {
+    CharSequence text = mCommands.getText(i);
+    float unit = mCommands.getTextSize(i) / TEXT_SIZE_UNITS;
+    float width = mCommands.getRight(i) - mCommands.getLeft(i);
+    if (text == null || unit <= 0) {
+      mLines[i] = new int[0];
+      mLineOffsets[i] = new float[0];
+      return;
+    }
+    int[] result = breakLines(text, getMaxChars(unit, width));
+    int lineCount = result.length / 2;
+    float[] offsets = new float[lineCount];
+    int align = mCommands.getFlags(i) & RenderCommandList.FLAG_ALIGN_MASK;
+    for (int line = 0; line < lineCount; line++) {
+      float lineWidth = (result[line * 2 + 1] - result[line * 2]) * ADVANCE_UNITS * unit;
+      if (align == RenderCommandList.FLAG_ALIGN_CENTER) {
+        offsets[line] = (width - lineWidth) / 2;
+      } else if (align == RenderCommandList.FLAG_ALIGN_OPPOSITE) {
+        offsets[line] = width - lineWidth;
+      }
+    }
+    mLines[i] = result;
+    mLineOffsets[i] = offsets;
+  }
+
+  private static int getMaxChars(float unit, float width) {
+    return Math.max(1, (int) (width / (unit * ADVANCE_UNITS)));
+  }
+
+  /**
+   * Break text into lines of at most maxChars, breaking at newlines and spaces.
+   * @return the start and end of each line, as pairs of indices into the text
+   */
+  private static int[] breakLines(CharSequence text, int maxChars) {
+    int length = text.length();
+    int[] lines = new int[8];
+    int lineCount = 0;
+    int start = 0;
+    while (true) {
+      int paragraphEnd = start;
+      while (paragraphEnd < length && text.charAt(paragraphEnd) != '\n') {
+        paragraphEnd++;
+      }
+      int lineStart = start;
+      do {
+        int end = Math.min(paragraphEnd, lineStart + maxChars);
+        int next = end;
+        if (end < paragraphEnd) {
+          // Wrap at the last space rather than in the middle of a word.
+          for (int space = end; space > lineStart; space--) {
+            if (text.charAt(space) == ' ') {
+              end = space;
+              next = space + 1;
+              break;
+            }
+          }
+        }
+        if (lineCount * 2 + 2 > lines.length) {
+          int[] grown = new int[lines.length * 2];
+          System.arraycopy(lines, 0, grown, 0, lines.length);
+          lines = grown;
+        }
+        lines[lineCount * 2] = lineStart;
+        lines[lineCount * 2 + 1] = end;
+        lineCount++;
+        lineStart = next;
+      } while (lineStart < paragraphEnd);
+      if (paragraphEnd >= length) {
+        break;
+      }
+      start = paragraphEnd + 1;
+    }
+
+    int[] result = new int[lineCount * 2];
+    System.arraycopy(lines, 0, result, 0, lineCount * 2);
+    return result;
+  }
+
+  /* Tiles */
+
+  private void renderTiles() {
+    int count = mCommands.size();
+    int shaded = 0;
+    int tile;
+    while ((tile = mNextTile.getAndIncrement()) < mTileCount) {
+      int tileLeft = (tile % mTileColumns) * mTileSize;
+      int tileTop = (tile / mTileColumns) * mTileSize;
+      int tileRight = Math.min(mTarget.getWidth(), tileLeft + mTileSize);
+      int tileBottom = Math.min(mTarget.getHeight(), tileTop + mTileSize);
+      for (int i = 0; i < count; i++) {
+        int b = i * 4;
+        int left = Math.max(tileLeft, mBounds[b]);
+        int top = Math.max(tileTop, mBounds[b + 1]);
+        int right = Math.min(tileRight, mBounds[b + 2]);
+        int bottom = Math.min(tileBottom, mBounds[b + 3]);
+        if (left < right && top < bottom) {
+          shaded += renderCommand(i, left, top, right, bottom);
+        }
+      }
+    }
+    mShadedPixelCount.addAndGet(shaded);
+  }
+
+  /**
+   * Shade the pixels of a command within a rect of the target.
+   * @return how many pixels were written
+   */
+  private int renderCommand(int i, int left, int top, int right, int bottom) {
+    int m = i * RenderCommandList.MATRIX_SIZE;
+    float ia = mInverse[m + RenderCommandList.MATRIX_A];
+    float ib = mInverse[m + RenderCommandList.MATRIX_B];
+    float ic = mInverse[m + RenderCommandList.MATRIX_C];
+    float id = mInverse[m + RenderCommandList.MATRIX_D];
+    float ie = mInverse[m + RenderCommandList.MATRIX_E];
+    float iff = mInverse[m + RenderCommandList.MATRIX_F];
+    int alpha = Math.round(Math.min(1, mCommands.getAlpha(i)) * 255);
+    int[] pixels = mTarget.getPixels();
+    int width = mTarget.getWidth();
+    int shaded = 0;
+    for (int y = top; y < bottom; y++) {
+      float sampleY = y + 0.5f;
+      int row = y * width;
+      for (int x = left; x < right; x++) {
+        float sampleX = x + 0.5f;
+        float localX = ia * sampleX + ic * sampleY + ie;
+        float localY = ib * sampleX + id * sampleY + iff;
+        int color = shade(i, localX, localY);
+        int colorAlpha = ((color >>> 24) * alpha + 127) / 255;
+        if (colorAlpha != 0) {
+          pixels[row + x] = blend((colorAlpha << 24) | (color & 0xffffff), pixels[row + x]);
+          shaded++;
+        }
+      }
+    }
+    return shaded;
+  }
+
+  /**
+   * Get the color a command draws at a point in its own coordinates.
+   * @return the color, transparent where the command doesn't draw
+   */
+  private int shade(int i, float x, float y) {
+    float left = mCommands.getLeft(i);
+    float top = mCommands.getTop(i);
+    float right = mCommands.getRight(i);
+    float bottom = mCommands.getBottom(i);
+    if (x < left || x >= right || y < top || y >= bottom) {
+      return 0;
+    }
+    // Commands are drawn in the color of their paint at the alpha of the command.
+    int color = mCommands.getColor(i) | 0xff000000;
+    switch (mCommands.getOp(i)) {
+      case RenderCommandList.OP_RECT:
+        return color;
+      case RenderCommandList.OP_ROUND_RECT:
+        return isInRoundRect(mCommands.getCornerRadius(i), left, top, right, bottom, x, y) ?
+            color :
+            0;
+      case RenderCommandList.OP_BITMAP:
+        return sampleBitmap(i, (x - left) / (right - left), (y - top) / (bottom - top));
+      case RenderCommandList.OP_TEXT:
+        return isInGlyph(i, x - left, y - top) ? color : 0;
+      default:
+        return 0;
+    }
+  }
+
+  private static boolean isInRoundRect(
+      float radius,
+      float left,
+      float top,
+      float right,
+      float bottom,
+      float x,
+      float y) {
+    radius = Math.min(radius, Math.min(right - left, bottom - top) / 2);
+    float cx = Math.max(left + radius, Math.min(right - radius, x));
+    float cy = Math.max(top + radius, Math.min(bottom - radius, y));
+    float dx = x - cx;
+    float dy = y - cy;
+    return dx * dx + dy * dy <= radius * radius;
+  }
+
+  /**
+   * Sample the bitmap of a command at a fraction of its rect.
+   */
+  private int sampleBitmap(int i, float fractionX, float fractionY) {
+    Object payload = mCommands.getPayload(i);
+    if (!(payload instanceof PixelBuffer)) {
+      return PLACEHOLDER_COLOR;
+    }
+    PixelBuffer bitmap = (PixelBuffer) payload;
+    float sourceLeft = 0;
+    float sourceTop = 0;
+    float sourceRight = bitmap.getWidth();
+    float sourceBottom = bitmap.getHeight();
+    if ((mCommands.getFlags(i) & RenderCommandList.FLAG_SOURCE_RECT) != 0) {
+      // Flipped and mirrored bitmaps have their source rect reversed.
+      sourceLeft = mCommands.getSourceLeft(i);
+      sourceTop = mCommands.getSourceTop(i);
+      sourceRight = mCommands.getSourceRight(i);
+      sourceBottom = mCommands.getSourceBottom(i);
+    }
+    int x = (int) Math.floor(sourceLeft + fractionX * (sourceRight - sourceLeft));
+    int y = (int) Math.floor(sourceTop + fractionY * (sourceBottom - sourceTop));
+    x = Math.max(0, Math.min(bitmap.getWidth() - 1, x));
+    y = Math.max(0, Math.min(bitmap.getHeight() - 1, y));
+    return bitmap.getPixel(x, y);
+  }
+
+  /**
+   * Check if a point of a text command, relative to the top left of its layout, is on a glyph.
+   */
+  private boolean isInGlyph(int i, float x, float y) {
+    int[] lines = mLines[i];
+    float unit = mCommands.getTextSize(i) / TEXT_SIZE_UNITS;
+    int line = (int) (y / (unit * LINE_UNITS));
+    if (line * 2 >= lines.length) {
+      return false;
+    }
+    float lineX = (x - mLineOffsets[i][line]) / unit;
+    // Glyphs sit one unit below the top of their line.
+    int row = (int) (y / unit) - line * LINE_UNITS - 1;
+    if (lineX < 0 || row < 0) {
+      return false;
+    }
+    int column = (int) lineX;
+    int index = lines[line * 2] + column / ADVANCE_UNITS;
+    if (index >= lines[line * 2 + 1]) {
+      return false;
+    }
+    return BitmapFont.isSet(mCommands.getText(i).charAt(index), column % ADVANCE_UNITS, row);
+  }
+
+  /**
+   * Draw a color over another with source over blending, both non premultiplied.
+   */
+  private static int blend(int source, int destination) {
+    int sourceAlpha = source >>> 24;
+    if (sourceAlpha == 255) {
+      return source;
+    }
+    int inverse = 255 - sourceAlpha;
+    int alpha = sourceAlpha + ((destination >>> 24) * inverse + 127) / 255;
+    int red = blendChannel(source >> 16, destination >> 16, sourceAlpha, inverse);
+    int green = blendChannel(source >> 8, destination >> 8, sourceAlpha, inverse);
+    int blue = blendChannel(source, destination, sourceAlpha, inverse);
+    return (alpha << 24) | (red << 16) | (green << 8) | blue;
+  }
+
+  private static int blendChannel(int source, int destination, int alpha, int inverse) {
+    return ((source & 0xff) * alpha + (destination & 0xff) * inverse + 127) / 255;
+  }
+}
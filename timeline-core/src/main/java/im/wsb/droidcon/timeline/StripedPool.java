@@ -0,0 +1,112 @@
+// Copyright 2004-present Facebook. All Rights Reserved.
+
+package im.wsb.droidcon.timeline;
+
+/**
+ * Thread safe pool made of several {@link GenerationalPool} stripes, each guarded by its own lock.
+ * Threads acquire from and release to the stripe picked by their thread id, so threads tweening
+ * at the same time rarely contend. All stripes share one stamp, so releasing an object that is
+ * already held by any stripe is still detected.
+ *
+ * @param <T> The pooled type.
+ */
+public class StripedPool<T extends GenerationalPool.Poolable> implements Pool<T> {
+
+  private final GenerationalPool<T>[] mStripes;
+
+  /**
+   * Creates a new instance.
+   *
+   * @param stripeCount The number of independently locked stripes.
+   * @param initialPoolSize The initial capacity of each stripe.
+   * @param maxPoolSize The capacity each stripe may grow to.
+   */
+  @SuppressWarnings("unchecked")
+  public StripedPool(int stripeCount, int initialPoolSize, int maxPoolSize) {
+    if (stripeCount <= 0) {
+      throw new IllegalArgumentException("The stripe count must be > 0");
+    }
+    int stamp = GenerationalPool.nextStamp();
+    mStripes = (GenerationalPool<T>[]) new GenerationalPool<?>[stripeCount];
+    for (int i = 0; i < stripeCount; i++) {
+      mStripes[i] = new GenerationalPool<>(initialPoolSize, maxPoolSize, stamp);
+    }
+  }
+
+  @Override
+  public T acquire() {
+    int home = stripeIndex();
+    for (int i = 0; i < mStripes.length; i++) {
+      // Start with our own stripe and only take from the others when it is empty.
+      GenerationalPool<T> stripe = mStripes[(home + i) % mStripes.length];
+      synchronized (stripe) {
+        if (stripe.size() > 0) {
+          return stripe.acquire();
+        }
+      }
+    }
+    // Count the miss once, on our own stripe.
+    GenerationalPool<T> stripe = mStripes[home];
+    synchronized (stripe) {
+      return stripe.acquire();
+    }
+  }
+
+  @Override
+  public boolean release(T instance) {
+    GenerationalPool<T> stripe = mStripes[stripeIndex()];
+    synchronized (stripe) {
+      return stripe.release(instance);
+    }
+  }
+
+  /**
+   * Drop every pooled object.
+   */
+  public void clear() {
+    int stamp = GenerationalPool.nextStamp();
+    for (GenerationalPool<T> stripe : mStripes) {
+      synchronized (stripe) {
+        stripe.clear();
+        stripe.setStamp(stamp);
+      }
+    }
+  }
+
+  /**
+   * Add the counters of every stripe to the provided metrics. The high water mark is the sum of
+   * the high water marks of the stripes.
+   * @param metrics the metrics to add to
+   * @return the provided metrics
+   */
+  public PoolMetrics collectMetrics(PoolMetrics metrics) {
+    for (GenerationalPool<T> stripe : mStripes) {
+      synchronized (stripe) {
+        stripe.collectMetrics(metrics);
+      }
+    }
+    return metrics;
+  }
+
+  public void resetMetrics() {
+    for (GenerationalPool<T> stripe : mStripes) {
+      synchronized (stripe) {
+        stripe.resetMetrics();
+      }
+    }
+  }
+
+  public int size() {
+    int size = 0;
+    for (GenerationalPool<T> stripe : mStripes) {
+      synchronized (stripe) {
+        size += stripe.size();
+      }
+    }
+    return size;
+  }
+
+  private int stripeIndex() {
+    return (int) (Thread.currentThread().getId() % mStripes.length);
+  }
+}
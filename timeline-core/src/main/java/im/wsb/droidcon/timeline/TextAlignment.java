@@ -0,0 +1,13 @@
+// Copyright 2004-present Facebook. All Rights Reserved.
+
+package im.wsb.droidcon.timeline;
+
+/**
+ * The alignment of the lines of a text layer, in the order of the Android layout alignments so
+ * compiled timelines keep their ordinals.
+ */
+public enum TextAlignment {
+  NORMAL,
+  OPPOSITE,
+  CENTER
+}
@@ -0,0 +1,22 @@
+// Copyright 2004-present Facebook. All Rights Reserved.
+
+package im.wsb.droidcon.timeline;
+
+/**
+ * Maps the linear progress between two key frames to the progress they are tweened at.
+ */
+public interface TimingFunction {
+
+  TimingFunction LINEAR = new TimingFunction() {
+    @Override
+    public float getInterpolation(float input) {
+      return input;
+    }
+  };
+
+  /**
+   * @param input the linear 0 - 1 progress
+   * @return the progress to tween at, which may overshoot 0 - 1
+   */
+  float getInterpolation(float input);
+}
@@ -0,0 +1,64 @@
+// Copyright 2004-present Facebook. All Rights Reserved.
+
+package im.wsb.droidcon.timeline;
+
+/**
+ * TweenContext holds the output frames and the {@link LayerState} pool used while tweening. Every
+ * {@code Timeline} owns its own context so several timelines can tween at the same time, on any
+ * thread, without sharing state. A context itself must only be used by one thread at a time.
+ */
+public class TweenContext {
+
+  private static final int DEFAULT_POOL_SIZE = 100;
+
+  final Frame frame = new Frame();
+  final PackedFrame packedFrame = new PackedFrame();
+  final LayerStatePool pool;
+
+  /* State of the last tween into frame. */
+  TweenPlan plan;
+  boolean showsEntering;
+  // The LayerStates of frame indexed like TweenPlan#order, null where not shown.
+  LayerState[] layers = new LayerState[0];
+
+  public TweenContext() {
+    this(DEFAULT_POOL_SIZE);
+  }
+
+  public TweenContext(int poolSize) {
+    this(new LayerStatePool(poolSize));
+  }
+
+  /**
+   * Create a context that acquires LayerStates from the provided pool, which may be shared with
+   * other contexts if it was created with {@link LayerStatePool#createStriped(int, int)}.
+   * @param pool the pool to use
+   */
+  public TweenContext(LayerStatePool pool) {
+    this.pool = pool;
+  }
+
+  /**
+   * The frame written to by {@link Util#tweenFrames(TweenContext, TweenPlan, float)}.
+   * @return the tween frame
+   */
+  public Frame getFrame() {
+    return frame;
+  }
+
+  /**
+   * The frame written to by {@link Util#tweenPackedFrames(TweenContext, TweenPlan, float)}.
+   * @return the packed tween frame
+   */
+  public PackedFrame getPackedFrame() {
+    return packedFrame;
+  }
+
+  /**
+   * The pool tweened LayerStates are acquired from.
+   * @return the pool
+   */
+  public LayerStatePool getPool() {
+    return pool;
+  }
+}
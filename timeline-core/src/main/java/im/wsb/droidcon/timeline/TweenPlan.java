@@ -0,0 +1,151 @@
+// Copyright 2004-present Facebook. All Rights Reserved.
+
+package im.wsb.droidcon.timeline;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A TweenPlan is the precompiled matching of {@link LayerState} objects between a current and next
+ * key {@link Frame}. Layers are matched by name once when the plan is built so that tweening on
+ * every animation tick only walks index-matched arrays.
+ */
+public class TweenPlan {
+
+  /* The key frames this plan was compiled from. */
+  public final Frame current;
+  public final Frame next;
+
+  /* Layers present in both frames. pairedCurrent[i] tweens to pairedNext[i]. */
+  public final LayerState[] pairedCurrent;
+  public final LayerState[] pairedNext;
+
+  /* Layers that only appear in the next frame. */
+  public final LayerState[] entering;
+
+  /* Layers present in both frames that are fully transparent at both ends and never drawn. */
+  public final LayerState[] hidden;
+
+  /**
+   * The z order of the tweened frame. A value >= 0 is an index into the paired arrays and a value
+   * < 0 is the complement (~) of an index into {@link #entering}.
+   */
+  public final int[] order;
+
+  private final int mCurrentVersion;
+  private final int mNextVersion;
+
+  /* Packed representation, built on first use. Slots follow the tweened z order. */
+  private volatile PackedFrame mPackedCurrent;
+  private PackedFrame mPackedNext;
+  private int[] mPackedEnteringSlots;
+
+  public TweenPlan(Frame current, Frame next) {
+    this.current = current;
+    this.next = next;
+    mCurrentVersion = current.version;
+    mNextVersion = next.version;
+
+    List<LayerState> pairedCurrent = new ArrayList<>();
+    List<LayerState> pairedNext = new ArrayList<>();
+    List<LayerState> entering = new ArrayList<>();
+    List<LayerState> hidden = new ArrayList<>();
+    int[] order = new int[next.layerStates.size()];
+    int orderCount = 0;
+
+    // Tweened layers are copies of the current and entering layers. Their text is laid out here,
+    // once per plan, so the copies share the layout instead of laying it out while drawing.
+    for (LayerState nextLayerState : next.layerStates.values()) {
+      LayerState currentLayerState = current.layerStates.get(nextLayerState.name);
+      if (currentLayerState == null) {
+        order[orderCount++] = ~entering.size();
+        entering.add(nextLayerState.layoutText());
+      } else if (currentLayerState.alpha == 0 && nextLayerState.alpha == 0) {
+        hidden.add(nextLayerState);
+      } else {
+        order[orderCount++] = pairedNext.size();
+        pairedCurrent.add(currentLayerState.layoutText());
+        pairedNext.add(nextLayerState);
+      }
+    }
+
+    this.pairedCurrent = pairedCurrent.toArray(new LayerState[pairedCurrent.size()]);
+    this.pairedNext = pairedNext.toArray(new LayerState[pairedNext.size()]);
+    this.entering = entering.toArray(new LayerState[entering.size()]);
+    this.hidden = hidden.toArray(new LayerState[hidden.size()]);
+    this.order = new int[orderCount];
+    System.arraycopy(order, 0, this.order, 0, orderCount);
+  }
+
+  /**
+   * Check if this plan still describes the provided key frames. A plan goes stale when layers are
+   * added to or removed from either frame after it was compiled.
+   * @param current the current or starting frame
+   * @param next the next or ending frame
+   * @return true if the plan can be used to tween between the frames
+   */
+  public boolean isValidFor(Frame current, Frame next) {
+    return this.current == current &&
+        this.next == next &&
+        mCurrentVersion == current.version &&
+        mNextVersion == next.version;
+  }
+
+  /**
+   * The packed layers of the current frame. Entering layers are packed with their next frame
+   * values so they hold still while tweening.
+   * @return the packed starting values
+   */
+  public PackedFrame getPackedCurrent() {
+    ensurePacked();
+    return mPackedCurrent;
+  }
+
+  /**
+   * The packed layers of the next frame.
+   * @return the packed ending values
+   */
+  public PackedFrame getPackedNext() {
+    ensurePacked();
+    return mPackedNext;
+  }
+
+  /**
+   * Slots of the packed frames holding layers that only appear in the next frame.
+   * @return the entering slots
+   */
+  public int[] getPackedEnteringSlots() {
+    ensurePacked();
+    return mPackedEnteringSlots;
+  }
+
+  private void ensurePacked() {
+    if (mPackedCurrent == null) {
+      // Plans may be shared by TweenContexts on different threads.
+      synchronized (this) {
+        if (mPackedCurrent == null) {
+          pack();
+        }
+      }
+    }
+  }
+
+  private void pack() {
+    PackedFrame packedCurrent = new PackedFrame(order.length);
+    PackedFrame packedNext = new PackedFrame(order.length);
+    int[] enteringSlots = new int[entering.length];
+    for (int i = 0; i < order.length; i++) {
+      int slot = order[i];
+      if (slot >= 0) {
+        packedCurrent.add(pairedCurrent[slot]);
+        packedNext.add(pairedNext[slot]);
+      } else {
+        packedCurrent.add(entering[~slot]);
+        enteringSlots[~slot] = packedNext.add(entering[~slot]);
+      }
+    }
+    mPackedEnteringSlots = enteringSlots;
+    mPackedNext = packedNext;
+    mPackedCurrent = packedCurrent;
+  }
+}
@@ -0,0 +1,311 @@
+// Copyright 2004-present Facebook. All Rights Reserved.
+
+package im.wsb.droidcon.timeline;
+
+import com.facebook.rebound.SpringUtil;
+
+/**
+ * Util is a collection of helpers methods for tweening Frame and LayerState objects.
+ */
+public abstract class Util {
+
+  // Only used by the deprecated methods that don't take a TweenContext.
+  private static final TweenContext SHARED_CONTEXT = new TweenContext();
+
+  /**
+   * Interpolate all of the {@link LayerState} objects that have matching names between the current
+   * and next {@link Frame} and return a Frame that holds the tweened values. Note that this
+   * handles both forward and backward progress through the com.instagram.layout.nux.timeline, but
+   * progress is always normalized to 0 - 1. The {@link TweenPlan} last tweened by the context is
+   * reused while it is valid for the frames, so tweening the same frames on consecutive calls
+   * only compiles a plan once.
+   * @param context the context holding the output frame and pool
+   * @param current the current or starting frame
+   * @param next the next or ending frame
+   * @param progress the 0 - 1 progress
+   * @return the tweened frame between the supplied key frames.
+   */
+  public static Frame tweenFrames(
+      TweenContext context,
+      Frame current,
+      Frame next,
+      float progress) {
+    TweenPlan plan = context.plan;
+    if (plan == null || !plan.isValidFor(current, next)) {
+      plan = new TweenPlan(current, next);
+    }
+    return tweenFrames(context, plan, progress);
+  }
+
+  /**
+   * Interpolate the key frames of a precompiled {@link TweenPlan} into the frame of the provided
+   * {@link TweenContext}. While the same plan is tweened on consecutive calls the LayerStates of
+   * the returned Frame are updated in place, so no layers are looked up by name and no pool
+   * traffic happens on each animation tick.
+   * @param context the context holding the output frame and pool
+   * @param plan the plan matching the current and next key frames
+   * @param progress the 0 - 1 progress
+   * @return the tweened frame between the key frames of the plan.
+   */
+  public static Frame tweenFrames(TweenContext context, TweenPlan plan, float progress) {
+    boolean showEntering = progress > 0.5f;
+    if (plan != context.plan ||
+        (showEntering != context.showsEntering && plan.entering.length > 0)) {
+      rebuildTweenFrame(context, plan, showEntering);
+    }
+
+    int[] order = plan.order;
+    LayerState[] layers = context.layers;
+    for (int i = 0; i < order.length; i++) {
+      int slot = order[i];
+      // Pairs sharing one frozen snapshot were copied when the frame was rebuilt and never change.
+      if (slot >= 0 && plan.pairedCurrent[slot] != plan.pairedNext[slot]) {
+        tweenLayerState(plan.pairedCurrent[slot], plan.pairedNext[slot], progress, layers[i]);
+      }
+    }
+
+    return context.frame;
+  }
+
+  /**
+   * @deprecated use {@link #tweenFrames(TweenContext, Frame, Frame, float)}, this tweens into a
+   *     single frame shared by every caller.
+   */
+  @Deprecated
+  public static Frame tweenFrames(Frame current, Frame next, float progress) {
+    return tweenFrames(SHARED_CONTEXT, current, next, progress);
+  }
+
+  /**
+   * @deprecated use {@link #tweenFrames(TweenContext, TweenPlan, float)}, this tweens into a
+   *     single frame shared by every caller.
+   */
+  @Deprecated
+  public static Frame tweenFrames(TweenPlan plan, float progress) {
+    return tweenFrames(SHARED_CONTEXT, plan, progress);
+  }
+
+  private static void rebuildTweenFrame(
+      TweenContext context,
+      TweenPlan plan,
+      boolean showEntering) {
+    Frame frame = context.frame;
+    LayerStatePool pool = context.pool;
+
+    // Return all the previously used LayerState objects to the pool.
+    for (LayerState layerState : frame.layerStates.values()) {
+      pool.release(layerState);
+    }
+    for (LayerState layerState : frame.removedLayerStates) {
+      pool.release(layerState);
+    }
+
+    // We use a single common frame per context for conveying the tween state to the renderer.
+    frame.reset();
+
+    int[] order = plan.order;
+    if (context.layers.length < order.length) {
+      context.layers = new LayerState[order.length];
+    }
+    for (int i = 0; i < order.length; i++) {
+      int slot = order[i];
+      LayerState layerState = null;
+      if (slot >= 0) {
+        layerState = plan.pairedCurrent[slot].copy(pool.acquire());
+        frame.addLayerState(layerState);
+      } else if (showEntering) {
+        // TODO: This makes a next LayerState visible halfway through the progress always if it
+        //       wasn't in the prior frame. It might be better to add a way to configure this.
+        layerState = plan.entering[~slot].copy(pool.acquire());
+        frame.addLayerState(layerState);
+      }
+      context.layers[i] = layerState;
+    }
+
+    context.plan = plan;
+    context.showsEntering = showEntering;
+  }
+
+  /**
+   * Interpolate between the current and next frame based on a 0 - 1 progress field. Note that this
+   * handles both forward and backward progress through the com.instagram.layout.nux.timeline,
+   * but progress is always normalized to 0 - 1.
+   * @param context the context whose pool the returned LayerState is acquired from
+   * @param current the starting or current frame
+   * @param next the ending or next frame
+   * @param progress the 0 - 1 normalized progress
+   * @return a LayerState with the tweenable values tweened for the provied progress.
+   */
+  public static LayerState tweenLayerState(
+      TweenContext context,
+      LayerState current,
+      LayerState next,
+      float progress) {
+    // Copy the current frame state into a LayerState acquired from the reuse pool.
+    return tweenLayerState(current, next, progress, context.pool.acquire());
+  }
+
+  /**
+   * @deprecated use {@link #tweenLayerState(TweenContext, LayerState, LayerState, float)}, this
+   *     acquires from a pool shared by every caller.
+   */
+  @Deprecated
+  public static LayerState tweenLayerState(LayerState current, LayerState next, float progress) {
+    return tweenLayerState(SHARED_CONTEXT, current, next, progress);
+  }
+
+  /**
+   * Interpolate between the current and next frame into an existing LayerState.
+   * @param current the starting or current frame
+   * @param next the ending or next frame
+   * @param progress the 0 - 1 normalized progress
+   * @param tweenState the LayerState to write the tweened values to
+   * @return the provided tweenState
+   */
+  public static LayerState tweenLayerState(
+      LayerState current,
+      LayerState next,
+      float progress,
+      LayerState tweenState) {
+    current.copy(tweenState);
+
+    // We don't tween these values.
+    tweenState.text = next.text;
+    tweenState.bitmap = next.bitmap;
+    tweenState.bitmapResId = next.bitmapResId;
+    tweenState.bitmapWidth = next.bitmapWidth;
+    tweenState.bitmapHeight = next.bitmapHeight;
+    tweenState.flip = progress > 0.5 ? next.flip : current.flip;
+    tweenState.mirror = progress > 0.5 ? next.mirror : current.mirror;
+
+    tweenState.color = tweenColor(progress, current.color, next.color);
+    tweenState.textSize = tweenFloat(progress, current.textSize, next.textSize);
+    tweenState.left = tweenFloat(progress, current.left, next.left);
+    tweenState.top = tweenFloat(progress, current.top, next.top);
+    tweenState.right = tweenFloat(progress, current.right, next.right);
+    tweenState.bottom = tweenFloat(progress, current.bottom, next.bottom);
+    tweenState.alpha = tweenAlpha(progress, current.alpha, next.alpha);
+    tweenState.cornerRadius = tweenFloat(progress, current.cornerRadius, next.cornerRadius);
+    tweenState.scale = tweenFloat(progress, current.scale, next.scale);
+    tweenState.px = tweenFloat(progress, current.px, next.px);
+    tweenState.py = tweenFloat(progress, current.py, next.py);
+    tweenState.rotate = tweenFloat(progress, current.rotate, next.rotate);
+
+    return tweenState;
+  }
+
+  /**
+   * Interpolate the key frames of a precompiled {@link TweenPlan} into a {@link PackedFrame}. Each
+   * tweenable property is interpolated in a single pass over its packed column.
+   * @param plan the plan matching the current and next key frames
+   * @param progress the 0 - 1 progress
+   * @param out the packed frame to write the tweened values to
+   * @return the provided out frame
+   */
+  public static PackedFrame tweenPackedFrames(TweenPlan plan, float progress, PackedFrame out) {
+    PackedFrame current = plan.getPackedCurrent();
+    PackedFrame next = plan.getPackedNext();
+    int size = current.size;
+    out.ensureCapacity(size);
+    out.size = size;
+
+    float clampedProgress = (float) SpringUtil.clamp(progress, 0, 1);
+    tweenColumn(progress, current.left, next.left, out.left, size);
+    tweenColumn(progress, current.top, next.top, out.top, size);
+    tweenColumn(progress, current.right, next.right, out.right, size);
+    tweenColumn(progress, current.bottom, next.bottom, out.bottom, size);
+    tweenColumn(progress, current.scale, next.scale, out.scale, size);
+    tweenColumn(progress, current.px, next.px, out.px, size);
+    tweenColumn(progress, current.py, next.py, out.py, size);
+    tweenColumn(progress, current.rotate, next.rotate, out.rotate, size);
+    tweenColumn(progress, current.cornerRadius, next.cornerRadius, out.cornerRadius, size);
+    tweenColumn(progress, current.textSize, next.textSize, out.textSize, size);
+    tweenColumn(clampedProgress, current.alpha, next.alpha, out.alpha, size);
+    tweenColorColumn(clampedProgress, current.color, next.color, out.color, size);
+
+    // We don't tween these values.
+    System.arraycopy(progress > 0.5 ? next.flags : current.flags, 0, out.flags, 0, size);
+    System.arraycopy(next.bitmap, 0, out.bitmap, 0, size);
+    System.arraycopy(next.image, 0, out.image, 0, size);
+    System.arraycopy(next.text, 0, out.text, 0, size);
+
+    // Layers that weren't in the prior frame show up halfway through the progress.
+    if (progress <= 0.5f) {
+      int[] enteringSlots = plan.getPackedEnteringSlots();
+      for (int i = 0; i < enteringSlots.length; i++) {
+        out.alpha[enteringSlots[i]] = 0;
+      }
+    }
+
+    return out;
+  }
+
+  /**
+   * Interpolate the key frames of a precompiled {@link TweenPlan} into the packed frame of the
+   * provided {@link TweenContext}.
+   * @param context the context holding the output frame
+   * @param plan the plan matching the current and next key frames
+   * @param progress the 0 - 1 progress
+   * @return the packed frame of the context
+   */
+  public static PackedFrame tweenPackedFrames(
+      TweenContext context,
+      TweenPlan plan,
+      float progress) {
+    return tweenPackedFrames(plan, progress, context.packedFrame);
+  }
+
+  private static void tweenColumn(
+      float progress,
+      float[] start,
+      float[] end,
+      float[] out,
+      int size) {
+    for (int i = 0; i < size; i++) {
+      out[i] = start[i] + (end[i] - start[i]) * progress;
+    }
+  }
+
+  private static void tweenColorColumn(
+      float progress,
+      int[] start,
+      int[] end,
+      int[] out,
+      int size) {
+    for (int i = 0; i < size; i++) {
+      int startColor = start[i];
+      int endColor = end[i];
+      out[i] = startColor == endColor ? startColor : tweenArgb(progress, startColor, endColor);
+    }
+  }
+
+  /**
+   * Channel by channel interpolation matching the Android ArgbEvaluator.
+   */
+  private static int tweenArgb(float progress, int startColor, int endColor) {
+    int a = (startColor >>> 24) + (int) (progress * ((endColor >>> 24) - (startColor >>> 24)));
+    int r = ((startColor >> 16) & 0xff) +
+        (int) (progress * (((endColor >> 16) & 0xff) - ((startColor >> 16) & 0xff)));
+    int g = ((startColor >> 8) & 0xff) +
+        (int) (progress * (((endColor >> 8) & 0xff) - ((startColor >> 8) & 0xff)));
+    int b = (startColor & 0xff) + (int) (progress * ((endColor & 0xff) - (startColor & 0xff)));
+    return (a << 24) | (r << 16) | (g << 8) | b;
+  }
+
+  /* Interpolation Helpers */
+
+  public static float tweenFloat(float progress, float start, float end) {
+    return (float) SpringUtil.mapValueFromRangeToRange(progress, 0, 1, start, end);
+  }
+
+  public static int tweenColor(float progress, int start, int end) {
+    progress = (float) SpringUtil.clamp(progress, 0, 1);
+    return tweenArgb(progress, start, end);
+  }
+
+  public static float tweenAlpha(float progress, float start, float end) {
+    progress = (float) SpringUtil.clamp(progress, 0, 1);
+    return (float) SpringUtil.mapValueFromRangeToRange(progress, 0, 1, start, end);
+  }
+
+}
@@ -0,0 +1,125 @@
+// Copyright 2004-present Facebook. All Rights Reserved.
+
+package im.wsb.droidcon.timeline;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class KeyFrameWindowTest {
+
+  // Mirrors the windowing PresentationTimeline uses for decks above 64 key frames.
+  private static final int KEY_FRAME_COUNT = 65 * 2;
+  private static final int KEY_FRAME_WINDOW_RADIUS = 2;
+  private static final int MAX_RESIDENT_KEY_FRAMES = 8;
+
+  private List<Frame> mKeyFrames;
+  private List<Frame> mEvicted;
+  private int mBuildCount;
+  private KeyFrameWindow mWindow;
+
+  @Before
+  public void setUp() {
+    mKeyFrames = new ArrayList<>();
+    for (int i = 0; i < KEY_FRAME_COUNT; i++) {
+      Frame frame = new Frame();
+      frame.index = i;
+      frame.resident = false;
+      mKeyFrames.add(frame);
+    }
+    mEvicted = new ArrayList<>();
+    mWindow = new KeyFrameWindow(
+        mKeyFrames,
+        new KeyFrameWindow.Source() {
+          @Override
+          public void buildKeyFrame(int index, Frame frame) {
+            mBuildCount++;
+            frame.addLayerState(new LayerState("layer").setText("key frame " + index));
+          }
+        },
+        KEY_FRAME_WINDOW_RADIUS,
+        MAX_RESIDENT_KEY_FRAMES,
+        new KeyFrameWindow.EvictionListener() {
+          @Override
+          public void onKeyFrameEvicted(Frame frame) {
+            mEvicted.add(frame);
+          }
+        });
+  }
+
+  @Test
+  public void playingThroughKeepsResidentCountBounded() {
+    for (int i = 0; i < KEY_FRAME_COUNT; i++) {
+      seek(i);
+    }
+    assertTrue(mBuildCount >= KEY_FRAME_COUNT);
+    assertFalse(mEvicted.isEmpty());
+  }
+
+  @Test
+  public void seekingKeepsResidentCountBounded() {
+    int[] seeks = {0, KEY_FRAME_COUNT - 1, 64, 3, 65, 66, 10, KEY_FRAME_COUNT / 2, 1, 100, 99};
+    for (int index : seeks) {
+      seek(index);
+    }
+  }
+
+  @Test
+  public void currentWindowIsBuilt() {
+    seek(70);
+    for (int i = 70 - KEY_FRAME_WINDOW_RADIUS; i <= 70 + KEY_FRAME_WINDOW_RADIUS; i++) {
+      Frame frame = mKeyFrames.get(i);
+      assertTrue(frame.resident);
+      assertEquals("key frame " + i, frame.getLayer("layer").text);
+    }
+  }
+
+  @Test
+  public void evictedKeyFramesDropTheirLayers() {
+    seek(0);
+    seek(KEY_FRAME_COUNT / 2);
+    seek(KEY_FRAME_COUNT - 1);
+    assertFalse(mEvicted.isEmpty());
+    for (Frame frame : mEvicted) {
+      assertFalse(frame.resident);
+      assertTrue(frame.layerStates.isEmpty());
+    }
+  }
+
+  @Test
+  public void evictedKeyFramesAreRebuiltOnReturn() {
+    seek(0);
+    seek(KEY_FRAME_COUNT / 2);
+    seek(KEY_FRAME_COUNT - 1);
+    int builds = mBuildCount;
+    seek(0);
+    assertTrue(mBuildCount > builds);
+    assertEquals("key frame 0", mKeyFrames.get(0).getLayer("layer").text);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void residentKeyFramesMustCoverTheWindow() {
+    new KeyFrameWindow(mKeyFrames, null, 4, 8, null);
+  }
+
+  private void seek(int index) {
+    mWindow.update(index);
+    // Tweening towards the next key frame makes it resident too.
+    if (index + 1 < KEY_FRAME_COUNT) {
+      mWindow.ensureResident(mKeyFrames.get(index + 1));
+    }
+    assertTrue(mWindow.getResidentCount() <= MAX_RESIDENT_KEY_FRAMES);
+    int resident = 0;
+    for (Frame frame : mKeyFrames) {
+      if (frame.resident) {
+        resident++;
+      }
+    }
+    assertTrue(resident <= MAX_RESIDENT_KEY_FRAMES);
+    assertTrue(mKeyFrames.get(index).resident);
+  }
+}
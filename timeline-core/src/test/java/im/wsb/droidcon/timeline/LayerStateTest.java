@@ -0,0 +1,96 @@
+// Copyright 2004-present Facebook. All Rights Reserved.
+
+package im.wsb.droidcon.timeline;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LayerStateTest {
+
+  private static final float EPSILON = 1e-4f;
+
+  @Before
+  public void setUp() {
+    LayerState.setTextLayoutSource(new TestTextLayoutSource(20));
+  }
+
+  @After
+  public void tearDown() {
+    LayerState.setTextLayoutSource(null);
+  }
+
+  @Test
+  public void freezeLaysTheTextOut() {
+    LayerState layerState = new LayerState("title")
+        .setText("title")
+        .setTextSize(12)
+        .setFrame(0, 10, 100, 10)
+        .freeze();
+
+    assertEquals(30, layerState.bottom, EPSILON);
+    assertEquals(12, layerState.getTextLayoutSize(), EPSILON);
+    assertEquals("title@12.0", layerState.getTextLayout());
+  }
+
+  @Test
+  public void frozenLayoutNeverChanges() {
+    LayerState layerState = new LayerState("title")
+        .setText("title")
+        .setTextSize(12)
+        .setFrame(0, 10, 100, 10)
+        .freeze();
+    LayerState.setTextLayoutSource(new TestTextLayoutSource(50));
+
+    layerState.layoutText();
+
+    assertEquals(30, layerState.bottom, EPSILON);
+    assertEquals("title@12.0", layerState.getTextLayout());
+  }
+
+  @Test
+  public void copiesOfFrozenLayersLayTheirTextOutAgain() {
+    LayerState frozen = new LayerState("title")
+        .setText("title")
+        .setTextSize(12)
+        .setFrame(0, 10, 100, 10)
+        .freeze();
+    LayerState.setTextLayoutSource(new TestTextLayoutSource(50));
+
+    LayerState copy = frozen.copy().setTextSize(24);
+
+    assertFalse(copy.isFrozen());
+    assertEquals("title@24.0", copy.getTextLayout());
+    assertEquals(60, copy.bottom, EPSILON);
+    assertEquals(30, frozen.bottom, EPSILON);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void settersOfFrozenLayersThrow() {
+    new LayerState("box").freeze().setAlpha(0.5f);
+  }
+
+  /**
+   * Lays text out as its text and size, with a fixed height.
+   */
+  private static class TestTextLayoutSource implements LayerState.TextLayoutSource {
+
+    private final int mHeight;
+
+    TestTextLayoutSource(int height) {
+      mHeight = height;
+    }
+
+    @Override
+    public Object getTextLayout(LayerState layerState) {
+      return layerState.text + "@" + layerState.textSize;
+    }
+
+    @Override
+    public int getHeight(Object textLayout) {
+      return mHeight;
+    }
+  }
+}
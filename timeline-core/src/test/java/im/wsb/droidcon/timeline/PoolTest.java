@@ -0,0 +1,279 @@
+// Copyright 2004-present Facebook. All Rights Reserved.
+
+package im.wsb.droidcon.timeline;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PoolTest {
+
+  private static class Item implements GenerationalPool.Poolable {
+
+    private int mPoolStamp;
+
+    @Override
+    public int getPoolStamp() {
+      return mPoolStamp;
+    }
+
+    @Override
+    public void setPoolStamp(int stamp) {
+      mPoolStamp = stamp;
+    }
+  }
+
+  /* GenerationalPool */
+
+  @Test
+  public void acquireReturnsReleasedItemsLastInFirstOut() {
+    GenerationalPool<Item> pool = new GenerationalPool<>(4, 4);
+    Item first = new Item();
+    Item second = new Item();
+    assertTrue(pool.release(first));
+    assertTrue(pool.release(second));
+    assertSame(second, pool.acquire());
+    assertSame(first, pool.acquire());
+    assertNull(pool.acquire());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void doubleReleaseThrows() {
+    GenerationalPool<Item> pool = new GenerationalPool<>(4, 4);
+    Item item = new Item();
+    pool.release(item);
+    pool.release(item);
+  }
+
+  @Test
+  public void acquiredItemsCanBeReleasedAgain() {
+    GenerationalPool<Item> pool = new GenerationalPool<>(4, 4);
+    Item item = new Item();
+    pool.release(item);
+    assertSame(item, pool.acquire());
+    assertEquals(GenerationalPool.NOT_POOLED, item.getPoolStamp());
+    assertTrue(pool.release(item));
+  }
+
+  @Test
+  public void itemsOfAClearedPoolCanBeReleasedAgain() {
+    GenerationalPool<Item> pool = new GenerationalPool<>(4, 4);
+    Item item = new Item();
+    pool.release(item);
+    pool.clear();
+    assertEquals(0, pool.size());
+    assertTrue(pool.release(item));
+  }
+
+  @Test
+  public void itemsPooledElsewhereAreNotDoubleReleases() {
+    GenerationalPool<Item> pool = new GenerationalPool<>(4, 4);
+    GenerationalPool<Item> other = new GenerationalPool<>(4, 4);
+    Item item = new Item();
+    other.release(item);
+    assertTrue(pool.release(item));
+  }
+
+  @Test
+  public void growsUpToTheMaxCapacityThenDrops() {
+    GenerationalPool<Item> pool = new GenerationalPool<>(2, 5);
+    for (int i = 0; i < 5; i++) {
+      assertTrue(pool.release(new Item()));
+    }
+    assertEquals(5, pool.capacity());
+    assertFalse(pool.release(new Item()));
+    assertEquals(5, pool.size());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void initialSizeMustBePositive() {
+    new GenerationalPool<Item>(0, 4);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void maxSizeMustCoverInitialSize() {
+    new GenerationalPool<Item>(4, 2);
+  }
+
+  /* PoolMetrics */
+
+  @Test
+  public void metricsCountAcquiresMissesReleasesAndDrops() {
+    GenerationalPool<Item> pool = new GenerationalPool<>(1, 2);
+    pool.acquire();
+    pool.release(new Item());
+    pool.release(new Item());
+    pool.release(new Item());
+    pool.acquire();
+
+    PoolMetrics metrics = pool.collectMetrics(new PoolMetrics());
+    assertEquals(2, metrics.acquires);
+    assertEquals(1, metrics.misses);
+    assertEquals(3, metrics.releases);
+    assertEquals(1, metrics.drops);
+    assertEquals(1, metrics.size);
+    assertEquals(2, metrics.highWaterMark);
+    assertEquals(2, metrics.capacity);
+    assertEquals(2, metrics.maxCapacity);
+  }
+
+  @Test
+  public void resetMetricsKeepsTheCurrentSizeAsHighWaterMark() {
+    GenerationalPool<Item> pool = new GenerationalPool<>(4, 4);
+    pool.release(new Item());
+    pool.release(new Item());
+    pool.acquire();
+    pool.resetMetrics();
+
+    PoolMetrics metrics = pool.collectMetrics(new PoolMetrics());
+    assertEquals(0, metrics.acquires);
+    assertEquals(0, metrics.releases);
+    assertEquals(1, metrics.size);
+    assertEquals(1, metrics.highWaterMark);
+  }
+
+  @Test
+  public void metricsAddAndReset() {
+    PoolMetrics a = new PoolMetrics();
+    a.acquires = 3;
+    a.misses = 1;
+    a.size = 2;
+    PoolMetrics b = new PoolMetrics();
+    b.acquires = 4;
+    b.drops = 5;
+    b.size = 1;
+
+    a.add(b);
+    assertEquals(7, a.acquires);
+    assertEquals(1, a.misses);
+    assertEquals(5, a.drops);
+    assertEquals(3, a.size);
+
+    a.reset();
+    assertEquals(0, a.acquires);
+    assertEquals(0, a.drops);
+    assertEquals(0, a.size);
+  }
+
+  /* StripedPool */
+
+  @Test
+  public void stripedPoolRoundTrips() {
+    StripedPool<Item> pool = new StripedPool<>(4, 2, 8);
+    Item item = new Item();
+    assertTrue(pool.release(item));
+    assertEquals(1, pool.size());
+    assertSame(item, pool.acquire());
+    assertNull(pool.acquire());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void stripedPoolDetectsDoubleReleases() {
+    StripedPool<Item> pool = new StripedPool<>(4, 2, 8);
+    Item item = new Item();
+    pool.release(item);
+    pool.release(item);
+  }
+
+  @Test
+  public void stripedPoolDetectsDoubleReleasesAcrossStripes() throws InterruptedException {
+    final StripedPool<Item> pool = new StripedPool<>(64, 2, 8);
+    final Item item = new Item();
+    pool.release(item);
+    final AtomicReference<Throwable> thrown = new AtomicReference<>();
+    // Another thread most likely maps to another stripe, the shared stamp still catches it.
+    Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          pool.release(item);
+        } catch (Throwable t) {
+          thrown.set(t);
+        }
+      }
+    });
+    thread.start();
+    thread.join();
+    assertTrue(thrown.get() instanceof IllegalStateException);
+  }
+
+  @Test
+  public void stripedPoolTakesFromOtherStripesWhenItsOwnIsEmpty() throws InterruptedException {
+    final StripedPool<Item> pool = new StripedPool<>(64, 2, 8);
+    final List<Item> released = new ArrayList<>();
+    final CountDownLatch done = new CountDownLatch(1);
+    Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        for (int i = 0; i < 3; i++) {
+          Item item = new Item();
+          released.add(item);
+          pool.release(item);
+        }
+        done.countDown();
+      }
+    });
+    thread.start();
+    done.await();
+    for (int i = 0; i < 3; i++) {
+      assertTrue(released.contains(pool.acquire()));
+    }
+    assertNull(pool.acquire());
+  }
+
+  @Test
+  public void stripedPoolSumsTheMetricsOfItsStripes() {
+    StripedPool<Item> pool = new StripedPool<>(4, 2, 8);
+    pool.acquire();
+    pool.release(new Item());
+    PoolMetrics metrics = pool.collectMetrics(new PoolMetrics());
+    assertEquals(1, metrics.acquires);
+    assertEquals(1, metrics.misses);
+    assertEquals(1, metrics.releases);
+    assertEquals(1, metrics.size);
+    assertEquals(4 * 2, metrics.capacity);
+    assertEquals(4 * 8, metrics.maxCapacity);
+
+    pool.resetMetrics();
+    metrics = pool.collectMetrics(metrics.reset());
+    assertEquals(0, metrics.acquires);
+    assertEquals(1, metrics.size);
+  }
+
+  @Test
+  public void clearedStripedPoolAcceptsItsItemsAgain() {
+    StripedPool<Item> pool = new StripedPool<>(4, 2, 8);
+    Item item = new Item();
+    pool.release(item);
+    pool.clear();
+    assertEquals(0, pool.size());
+    assertTrue(pool.release(item));
+  }
+
+  /* LayerStatePool */
+
+  @Test
+  public void layerStatePoolResetsReleasedLayers() {
+    LayerStatePool pool = new LayerStatePool(4);
+    LayerState layerState = new LayerState("layer").setAlpha(0.5f).rotate(45, 10, 10);
+    pool.release(layerState);
+    LayerState acquired = pool.acquire();
+    assertSame(layerState, acquired);
+    assertNull(acquired.name);
+    assertEquals(1, acquired.alpha, 0);
+    assertEquals(0, acquired.rotate, 0);
+  }
+
+  @Test
+  public void layerStatePoolAllocatesWhenEmpty() {
+    LayerStatePool pool = LayerStatePool.createStriped(2, 4);
+    assertNotNull(pool.acquire());
+    PoolMetrics metrics = pool.getMetrics(new PoolMetrics());
+    assertEquals(1, metrics.misses);
+  }
+}
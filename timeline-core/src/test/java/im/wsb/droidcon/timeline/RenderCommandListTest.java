@@ -0,0 +1,237 @@
+// Copyright 2004-present Facebook. All Rights Reserved.
+
+package im.wsb.droidcon.timeline;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RenderCommandListTest {
+
+  private static final float EPSILON = 1e-4f;
+
+  private RenderCommandList mList;
+
+  @Before
+  public void setUp() {
+    mList = new RenderCommandList();
+  }
+
+  @Test
+  public void recordsIdentityMatrixByDefault() {
+    mList.drawRect(0, 0, 10, 10, 0xffff0000, 1);
+    assertMatrix(0, 1, 0, 0, 1, 0, 0);
+  }
+
+  @Test
+  public void translateMovesTheOrigin() {
+    mList.translate(5, 7);
+    mList.translate(1, 1);
+    mList.drawRect(0, 0, 10, 10, 0xffff0000, 1);
+    assertMatrix(0, 1, 0, 0, 1, 6, 8);
+  }
+
+  @Test
+  public void scaleKeepsThePivotInPlace() {
+    mList.scale(2, 10, 20);
+    mList.drawRect(0, 0, 10, 10, 0xffff0000, 1);
+    assertMatrix(0, 2, 0, 0, 2, -10, -20);
+    assertMapsTo(0, 10, 20, 10, 20);
+    assertMapsTo(0, 11, 20, 12, 20);
+  }
+
+  @Test
+  public void rotateTurnsClockwiseAroundThePivot() {
+    mList.rotate(90, 10, 10);
+    mList.drawRect(0, 0, 10, 10, 0xffff0000, 1);
+    assertMapsTo(0, 10, 10, 10, 10);
+    // With y pointing down a clockwise quarter turn maps +x to +y.
+    assertMapsTo(0, 11, 10, 10, 11);
+    assertMapsTo(0, 10, 11, 9, 10);
+  }
+
+  @Test
+  public void rotateByZeroIsIgnored() {
+    mList.rotate(0, 10, 10);
+    mList.drawRect(0, 0, 10, 10, 0xffff0000, 1);
+    assertMatrix(0, 1, 0, 0, 1, 0, 0);
+  }
+
+  @Test
+  public void transformsConcatenateLikeACanvas() {
+    // Translate, then scale around the center of a 10x10 layer, then rotate it.
+    mList.translate(100, 0);
+    mList.scale(2, 5, 5);
+    mList.rotate(180, 5, 5);
+    mList.drawRect(0, 0, 10, 10, 0xffff0000, 1);
+    assertMapsTo(0, 5, 5, 105, 5);
+    assertMapsTo(0, 0, 0, 115, 15);
+    assertMapsTo(0, 10, 10, 95, -5);
+  }
+
+  @Test
+  public void restoreReturnsToTheSavedMatrix() {
+    mList.translate(5, 5);
+    mList.save();
+    mList.scale(3, 0, 0);
+    mList.rotate(45, 0, 0);
+    mList.drawRect(0, 0, 10, 10, 0xffff0000, 1);
+    mList.restore();
+    mList.drawRect(0, 0, 10, 10, 0xffff0000, 1);
+    assertMatrix(1, 1, 0, 0, 1, 5, 5);
+  }
+
+  @Test
+  public void saveGrowsTheStack() {
+    for (int i = 0; i < 32; i++) {
+      mList.save();
+      mList.translate(1, 0);
+    }
+    mList.drawRect(0, 0, 1, 1, 0xffff0000, 1);
+    for (int i = 0; i < 32; i++) {
+      mList.restore();
+    }
+    mList.drawRect(0, 0, 1, 1, 0xffff0000, 1);
+    assertMatrix(0, 1, 0, 0, 1, 32, 0);
+    assertMatrix(1, 1, 0, 0, 1, 0, 0);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void unbalancedRestoreThrows() {
+    mList.restore();
+  }
+
+  @Test
+  public void clearResetsTheMatrixAndCommands() {
+    mList.save();
+    mList.translate(5, 5);
+    mList.drawBitmap(new Object(), false, 0, 0, 0, 0, 0, 0, 10, 10, 0, 1);
+    mList.clear();
+    assertEquals(0, mList.size());
+    mList.drawRect(0, 0, 10, 10, 0xffff0000, 1);
+    assertMatrix(0, 1, 0, 0, 1, 0, 0);
+  }
+
+  @Test
+  public void recordsCommandProperties() {
+    Object bitmap = new Object();
+    Object layout = new Object();
+    mList.drawRoundRect(1, 2, 3, 4, 5, 0xff00ff00, 0.5f);
+    mList.drawBitmap(bitmap, true, 6, 7, 8, 9, 10, 11, 12, 13, 0xff000000, 0.25f);
+    mList.drawText(
+        layout,
+        "text",
+        100,
+        20,
+        12,
+        RenderCommandList.FLAG_ALIGN_CENTER,
+        0xff0000ff,
+        1);
+
+    assertEquals(3, mList.size());
+    assertEquals(RenderCommandList.OP_ROUND_RECT, mList.getOp(0));
+    assertEquals(5, mList.getCornerRadius(0), 0);
+    assertEquals(0xff00ff00, mList.getColor(0));
+    assertEquals(0.5f, mList.getAlpha(0), 0);
+
+    assertEquals(RenderCommandList.OP_BITMAP, mList.getOp(1));
+    assertEquals(RenderCommandList.FLAG_SOURCE_RECT, mList.getFlags(1));
+    assertSame(bitmap, mList.getPayload(1));
+    assertEquals(6, mList.getSourceLeft(1), 0);
+    assertEquals(9, mList.getSourceBottom(1), 0);
+    assertEquals(10, mList.getLeft(1), 0);
+    assertEquals(13, mList.getBottom(1), 0);
+
+    assertEquals(RenderCommandList.OP_TEXT, mList.getOp(2));
+    assertSame(layout, mList.getPayload(2));
+    assertEquals("text", mList.getText(2));
+    assertEquals(12, mList.getTextSize(2), 0);
+    assertEquals(100, mList.getRight(2), 0);
+    assertEquals(RenderCommandList.FLAG_ALIGN_CENTER, mList.getFlags(2));
+  }
+
+  @Test
+  public void listsRecordingTheSameDrawsAreEqual() {
+    Object bitmap = new Object();
+    RenderCommandList other = new RenderCommandList();
+    recordScene(mList, bitmap, 1);
+    recordScene(other, bitmap, 1);
+    assertTrue(mList.contentEquals(other));
+    assertTrue(other.contentEquals(mList));
+    assertTrue(mList.contentEquals(mList));
+  }
+
+  @Test
+  public void listsDifferingInAnyPropertyAreNotEqual() {
+    Object bitmap = new Object();
+    RenderCommandList other = new RenderCommandList();
+    recordScene(mList, bitmap, 1);
+
+    recordScene(other, bitmap, 0.5f);
+    assertFalse(mList.contentEquals(other));
+
+    // Payloads are compared by identity.
+    other.clear();
+    recordScene(other, new Object(), 1);
+    assertFalse(mList.contentEquals(other));
+
+    other.clear();
+    recordScene(other, bitmap, 1);
+    other.drawRect(0, 0, 1, 1, 0, 1);
+    assertFalse(mList.contentEquals(other));
+
+    assertFalse(mList.contentEquals(null));
+  }
+
+  @Test
+  public void listsDifferingInTheirMatrixAreNotEqual() {
+    RenderCommandList other = new RenderCommandList();
+    mList.drawRect(0, 0, 10, 10, 0xffff0000, 1);
+    other.rotate(1, 5, 5);
+    other.drawRect(0, 0, 10, 10, 0xffff0000, 1);
+    assertFalse(mList.contentEquals(other));
+  }
+
+  @Test
+  public void reusedListsCompareOnlyTheirCommands() {
+    Object bitmap = new Object();
+    RenderCommandList other = new RenderCommandList();
+    // Grow past the initial capacity, then record a smaller frame into the same arrays.
+    for (int i = 0; i < 40; i++) {
+      other.drawRect(i, i, i + 1, i + 1, i, 1);
+    }
+    other.clear();
+    recordScene(other, bitmap, 1);
+    recordScene(mList, bitmap, 1);
+    assertTrue(mList.contentEquals(other));
+    assertNull(other.getPayload(5));
+  }
+
+  private static void recordScene(RenderCommandList list, Object bitmap, float alpha) {
+    list.drawRect(0, 0, 100, 100, 0xff000000, 1);
+    list.save();
+    list.scale(1.5f, 50, 50);
+    list.rotate(30, 50, 50);
+    list.drawBitmap(bitmap, false, 0, 0, 0, 0, 10, 10, 90, 90, 0, alpha);
+    list.restore();
+    list.drawText(null, "hello", 80, 10, 8, RenderCommandList.FLAG_ALIGN_NORMAL, 0xffffffff, 1);
+  }
+
+  private void assertMatrix(int i, float a, float b, float c, float d, float e, float f) {
+    float[] matrix = new float[RenderCommandList.MATRIX_SIZE];
+    mList.getMatrix(i, matrix);
+    assertArrayEquals(new float[] {a, b, c, d, e, f}, matrix, EPSILON);
+  }
+
+  private void assertMapsTo(int i, float x, float y, float expectedX, float expectedY) {
+    float[] m = new float[RenderCommandList.MATRIX_SIZE];
+    mList.getMatrix(i, m);
+    float mappedX = m[RenderCommandList.MATRIX_A] * x + m[RenderCommandList.MATRIX_C] * y +
+        m[RenderCommandList.MATRIX_E];
+    float mappedY = m[RenderCommandList.MATRIX_B] * x + m[RenderCommandList.MATRIX_D] * y +
+        m[RenderCommandList.MATRIX_F];
+    assertEquals(expectedX, mappedX, EPSILON);
+    assertEquals(expectedY, mappedY, EPSILON);
+  }
+}
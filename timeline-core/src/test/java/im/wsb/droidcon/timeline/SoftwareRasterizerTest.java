@@ -0,0 +1,214 @@
+// Copyright 2004-present Facebook. All Rights Reserved.
+
+package im.wsb.droidcon.timeline;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SoftwareRasterizerTest {
+
+  private static final int WIDTH = 128;
+  private static final int HEIGHT = 96;
+  private static final int IMAGE_RES_ID = 1;
+  private static final int[] THREAD_COUNTS = {1, 2, 4};
+  private static final int[] TILE_SIZES = {7, 16, SoftwareRasterizer.DEFAULT_TILE_SIZE};
+
+  private static final long RECT_CHECKSUM = 1004461279L;
+  private static final long ROUND_RECT_CHECKSUM = 1195917137L;
+  private static final long ROTATED_BITMAP_CHECKSUM = 3310600862L;
+  private static final long TEXT_CHECKSUM = 2715916875L;
+
+  private final FrameRecorder mRecorder = new FrameRecorder();
+
+  @Before
+  public void setUp() {
+    LayerState.setImageSource(new TestImageSource());
+  }
+
+  @After
+  public void tearDown() {
+    LayerState.setImageSource(null);
+  }
+
+  @Test
+  public void rectSceneMatchesPinnedChecksum() {
+    Frame frame = new Frame().addLayerStates(
+        new LayerState("background")
+            .setColor(0xff3366cc)
+            .setFrame(8, 8, 120, 88),
+        new LayerState("overlay")
+            .setColor(0xffff8800)
+            .setFrame(40, 20, 100, 70)
+            .setAlpha(0.5f));
+    assertScene(frame, RECT_CHECKSUM);
+  }
+
+  @Test
+  public void roundRectSceneMatchesPinnedChecksum() {
+    Frame frame = new Frame().addLayerStates(
+        new LayerState("card")
+            .setColor(0xff22aa44)
+            .setFrame(10, 10, 118, 86)
+            .setCornerRadius(16),
+        new LayerState("badge")
+            .setColor(0xffffffff)
+            .setFrame(80, 16, 110, 40)
+            .setCornerRadius(12)
+            .setAlpha(0.75f));
+    assertScene(frame, ROUND_RECT_CHECKSUM);
+  }
+
+  @Test
+  public void rotatedBitmapSceneMatchesPinnedChecksum() {
+    Frame frame = new Frame().addLayerStates(
+        new LayerState("photo")
+            .setBitmap(IMAGE_RES_ID, false)
+            .setFrame(24, 16, 104, 80)
+            .rotate(30, 64, 48),
+        new LayerState("mirrored")
+            .setBitmap(IMAGE_RES_ID, false)
+            .setFrame(4, 60, 36, 92)
+            .setMirror(true)
+            .setAlpha(0.5f));
+    assertScene(frame, ROTATED_BITMAP_CHECKSUM);
+  }
+
+  @Test
+  public void textSceneMatchesPinnedChecksum() {
+    Frame frame = new Frame().addLayerStates(
+        new LayerState("title")
+            .setText("HELLO DROIDCON")
+            .setTextSize(14)
+            .setColor(0xffffffff)
+            .setFrame(8, 24, 120, 24),
+        new LayerState("body")
+            .setText("Timelines tween key frames, layer by layer.")
+            .setTextSize(7)
+            .setTextAlignment(TextAlignment.NORMAL)
+            .setColor(0xffffcc00)
+            .setFrame(8, 64, 120, 64)
+            .rotate(-10, 64, 64));
+    assertScene(frame, TEXT_CHECKSUM);
+  }
+
+  @Test
+  public void packedFramesRenderLikeFrames() {
+    Frame frame = new Frame().addLayerStates(
+        new LayerState("card")
+            .setColor(0xff22aa44)
+            .setFrame(10, 10, 118, 86)
+            .setCornerRadius(16),
+        new LayerState("photo")
+            .setBitmap(IMAGE_RES_ID, false)
+            .setFrame(24, 16, 104, 80)
+            .rotate(30, 64, 48),
+        new LayerState("title")
+            .setText("PACKED")
+            .setTextSize(14)
+            .setColor(0xffffffff)
+            .setFrame(8, 24, 120, 24));
+    RenderCommandList commands = new RenderCommandList();
+    mRecorder.record(frame, commands);
+    RenderCommandList packedCommands = new RenderCommandList();
+    mRecorder.record(PackedFrame.pack(frame), packedCommands);
+
+    assertTrue(commands.contentEquals(packedCommands));
+    assertEquals(render(commands, 1, SoftwareRasterizer.DEFAULT_TILE_SIZE),
+        render(packedCommands, 1, SoftwareRasterizer.DEFAULT_TILE_SIZE));
+  }
+
+  @Test
+  public void unloadedBitmapsDrawAsPlaceholders() {
+    LayerState.setImageSource(null);
+    Frame frame = new Frame().addLayerStates(
+        new LayerState("photo")
+            .setBitmap(IMAGE_RES_ID, 80, 64)
+            .setFrame(24, 16, 104, 80));
+    RenderCommandList commands = new RenderCommandList();
+    mRecorder.setPlaceholderColor(0xffff0000).record(frame, commands);
+    PixelBuffer target = new PixelBuffer(WIDTH, HEIGHT);
+    target.fill(0xff000000);
+    SoftwareRasterizer rasterizer = new SoftwareRasterizer(1, SoftwareRasterizer.DEFAULT_TILE_SIZE);
+    try {
+      rasterizer.render(commands, target);
+    } finally {
+      rasterizer.shutdown();
+    }
+
+    assertEquals(0xffff0000, target.getPixel(64, 48));
+    assertEquals(0xff000000, target.getPixel(4, 4));
+  }
+
+  private void assertScene(Frame frame, long expectedChecksum) {
+    RenderCommandList commands = new RenderCommandList();
+    mRecorder.record(frame, commands);
+    long checksum = render(commands, 1, SoftwareRasterizer.DEFAULT_TILE_SIZE);
+    for (int threadCount : THREAD_COUNTS) {
+      for (int tileSize : TILE_SIZES) {
+        assertEquals(
+            "checksum with " + threadCount + " threads and " + tileSize + "px tiles",
+            checksum,
+            render(commands, threadCount, tileSize));
+      }
+    }
+    assertEquals(expectedChecksum, checksum);
+  }
+
+  private static long render(RenderCommandList commands, int threadCount, int tileSize) {
+    PixelBuffer target = new PixelBuffer(WIDTH, HEIGHT);
+    target.fill(0xff000000);
+    SoftwareRasterizer rasterizer = new SoftwareRasterizer(threadCount, tileSize);
+    try {
+      rasterizer.render(commands, target);
+    } finally {
+      rasterizer.shutdown();
+    }
+    return target.checksum();
+  }
+
+  /**
+   * Provides a 40x32 gradient with a marked corner, so flips, mirrors and rotations all change the
+   * rendered pixels.
+   */
+  private static class TestImageSource implements LayerState.ImageSource {
+
+    private final PixelBuffer mImage;
+
+    TestImageSource() {
+      mImage = new PixelBuffer(40, 32);
+      for (int y = 0; y < mImage.getHeight(); y++) {
+        for (int x = 0; x < mImage.getWidth(); x++) {
+          mImage.setPixel(x, y, 0xff000000 | (x * 6) << 16 | (y * 8) << 8 | 0x80);
+        }
+      }
+      for (int y = 0; y < 8; y++) {
+        for (int x = 0; x < 8; x++) {
+          mImage.setPixel(x, y, 0xffffffff);
+        }
+      }
+    }
+
+    @Override
+    public Object get(int resId, int reqWidth, int reqHeight) {
+      return mImage;
+    }
+
+    @Override
+    public Object peek(int resId, int reqWidth, int reqHeight) {
+      return mImage;
+    }
+
+    @Override
+    public int getWidth(Object bitmap) {
+      return ((PixelBuffer) bitmap).getWidth();
+    }
+
+    @Override
+    public int getHeight(Object bitmap) {
+      return ((PixelBuffer) bitmap).getHeight();
+    }
+  }
+}
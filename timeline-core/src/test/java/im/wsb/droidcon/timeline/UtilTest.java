@@ -0,0 +1,300 @@
+// Copyright 2004-present Facebook. All Rights Reserved.
+
+package im.wsb.droidcon.timeline;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class UtilTest {
+
+  private static final float EPSILON = 1e-4f;
+  private static final int[] COLORS = {
+      0x00000000,
+      0xff000000,
+      0xffffffff,
+      0x80ff8000,
+      0xff3b5998,
+      0x40123456,
+      0xfffedcba,
+  };
+  private static final float[] PROGRESSES = {0, 0.1f, 0.25f, 1 / 3f, 0.5f, 0.7f, 0.99f, 1};
+
+  /* Interpolation helpers */
+
+  @Test
+  public void tweenFloatInterpolatesAndExtrapolates() {
+    assertEquals(10, Util.tweenFloat(0, 10, 20), EPSILON);
+    assertEquals(15, Util.tweenFloat(0.5f, 10, 20), EPSILON);
+    assertEquals(20, Util.tweenFloat(1, 10, 20), EPSILON);
+    // Springs overshoot, positions follow them past the key frames.
+    assertEquals(22, Util.tweenFloat(1.2f, 10, 20), EPSILON);
+    assertEquals(8, Util.tweenFloat(-0.2f, 10, 20), EPSILON);
+  }
+
+  @Test
+  public void tweenAlphaClampsProgress() {
+    assertEquals(0.5f, Util.tweenAlpha(0.5f, 0, 1), EPSILON);
+    assertEquals(1, Util.tweenAlpha(1.5f, 0, 1), EPSILON);
+    assertEquals(0, Util.tweenAlpha(-0.5f, 0, 1), EPSILON);
+  }
+
+  @Test
+  public void tweenColorMatchesArgbEvaluator() {
+    for (int start : COLORS) {
+      for (int end : COLORS) {
+        for (float progress : PROGRESSES) {
+          assertEquals(
+              "tween " + Integer.toHexString(start) + " to " + Integer.toHexString(end) +
+                  " at " + progress,
+              argbEvaluator(progress, start, end),
+              Util.tweenColor(progress, start, end));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void tweenColorKnownValues() {
+    assertEquals(0xff7f7f7f, Util.tweenColor(0.5f, 0xff000000, 0xffffffff));
+    assertEquals(0x7f000000, Util.tweenColor(0.5f, 0x00000000, 0xff000000));
+    // Channels are truncated towards the start color.
+    assertEquals(0xffc0003f, Util.tweenColor(0.25f, 0xffff0000, 0xff0000ff));
+  }
+
+  @Test
+  public void tweenColorClampsProgress() {
+    assertEquals(0xffffffff, Util.tweenColor(1.3f, 0xff000000, 0xffffffff));
+    assertEquals(0xff000000, Util.tweenColor(-0.3f, 0xff000000, 0xffffffff));
+  }
+
+  @Test
+  public void packedColorsMatchArgbEvaluator() {
+    Frame current = new Frame();
+    Frame next = new Frame();
+    for (int i = 0; i < COLORS.length; i++) {
+      current.addLayerState(new LayerState("layer" + i).setColor(COLORS[i]));
+      next.addLayerState(new LayerState("layer" + i).setColor(COLORS[COLORS.length - 1 - i]));
+    }
+    TweenPlan plan = new TweenPlan(current, next);
+    for (float progress : PROGRESSES) {
+      PackedFrame packed = Util.tweenPackedFrames(new TweenContext(), plan, progress);
+      for (int i = 0; i < COLORS.length; i++) {
+        assertEquals(
+            argbEvaluator(progress, COLORS[i], COLORS[COLORS.length - 1 - i]),
+            packed.color[i]);
+      }
+    }
+  }
+
+  /* Layer tweening */
+
+  @Test
+  public void tweenLayerStateInterpolatesEveryTweenedProperty() {
+    LayerState current = new LayerState("layer")
+        .setFrame(0, 0, 100, 50)
+        .setAlpha(0)
+        .setColor(0xff000000)
+        .setCornerRadius(0)
+        .rotate(0, 50, 25);
+    current.setTextSize(10);
+    LayerState next = new LayerState("layer")
+        .setFrame(100, 50, 300, 150)
+        .setAlpha(1)
+        .setColor(0xffffffff)
+        .setCornerRadius(10)
+        .rotate(90, 200, 100);
+    next.setTextSize(30);
+
+    LayerState tweened = Util.tweenLayerState(current, next, 0.5f, new LayerState());
+    assertEquals("layer", tweened.name);
+    assertEquals(50, tweened.left, EPSILON);
+    assertEquals(25, tweened.top, EPSILON);
+    assertEquals(200, tweened.right, EPSILON);
+    assertEquals(100, tweened.bottom, EPSILON);
+    assertEquals(0.5f, tweened.alpha, EPSILON);
+    assertEquals(0xff7f7f7f, tweened.color);
+    assertEquals(5, tweened.cornerRadius, EPSILON);
+    assertEquals(20, tweened.textSize, EPSILON);
+    assertEquals(45, tweened.rotate, EPSILON);
+    assertEquals(125, tweened.px, EPSILON);
+    assertEquals(62.5f, tweened.py, EPSILON);
+  }
+
+  @Test
+  public void tweenLayerStateSwitchesDiscreteProperties() {
+    LayerState current = new LayerState("layer").setFlip(false).setMirror(true);
+    current.text = "before";
+    LayerState next = new LayerState("layer").setFlip(true).setMirror(false);
+    next.text = "after";
+
+    LayerState early = Util.tweenLayerState(current, next, 0.25f, new LayerState());
+    assertFalse(early.flip);
+    assertTrue(early.mirror);
+    // Content comes from the next key frame right away.
+    assertEquals("after", early.text);
+
+    LayerState late = Util.tweenLayerState(current, next, 0.75f, new LayerState());
+    assertTrue(late.flip);
+    assertFalse(late.mirror);
+  }
+
+  /* Frame tweening */
+
+  @Test
+  public void tweenFramesTweensPairedLayersInNextFrameOrder() {
+    Frame current = new Frame()
+        .addLayerStates(
+            new LayerState("a").setFrame(0, 0, 10, 10),
+            new LayerState("b").setFrame(0, 0, 10, 10));
+    Frame next = new Frame()
+        .addLayerStates(
+            new LayerState("b").setFrame(10, 10, 20, 20),
+            new LayerState("a").setFrame(20, 20, 30, 30));
+    TweenContext context = new TweenContext();
+
+    Frame tweened = Util.tweenFrames(context, new TweenPlan(current, next), 0.5f);
+    assertSame(context.getFrame(), tweened);
+    assertArrayEquals(new Object[] {"b", "a"}, tweened.layerStates.keySet().toArray());
+    assertEquals(5, tweened.getLayer("b").left, EPSILON);
+    assertEquals(10, tweened.getLayer("a").left, EPSILON);
+  }
+
+  @Test
+  public void tweenFramesShowsEnteringLayersPastHalfway() {
+    Frame current = new Frame().addLayerStates(new LayerState("a"));
+    Frame next = new Frame().addLayerStates(new LayerState("a"), new LayerState("entering"));
+    TweenPlan plan = new TweenPlan(current, next);
+    TweenContext context = new TweenContext();
+
+    assertNull(Util.tweenFrames(context, plan, 0.4f).getLayer("entering"));
+    assertNotNull(Util.tweenFrames(context, plan, 0.6f).getLayer("entering"));
+    assertNull(Util.tweenFrames(context, plan, 0.4f).getLayer("entering"));
+  }
+
+  @Test
+  public void tweenFramesDropsLayersHiddenAtBothEnds() {
+    Frame current = new Frame().addLayerStates(new LayerState("hidden").setAlpha(0));
+    Frame next = new Frame().addLayerStates(new LayerState("hidden").setAlpha(0));
+    TweenPlan plan = new TweenPlan(current, next);
+    assertEquals(1, plan.hidden.length);
+    assertTrue(Util.tweenFrames(new TweenContext(), plan, 0.5f).layerStates.isEmpty());
+  }
+
+  @Test
+  public void tweenFramesUpdatesLayersInPlaceWhileThePlanIsTheSame() {
+    Frame current = new Frame().addLayerStates(new LayerState("a").setFrame(0, 0, 10, 10));
+    Frame next = new Frame().addLayerStates(new LayerState("a").setFrame(10, 0, 20, 10));
+    TweenPlan plan = new TweenPlan(current, next);
+    TweenContext context = new TweenContext();
+
+    LayerState first = Util.tweenFrames(context, plan, 0.1f).getLayer("a");
+    context.getPool().resetMetrics();
+    for (int i = 2; i < 10; i++) {
+      Frame tweened = Util.tweenFrames(context, plan, i / 10f);
+      assertSame(first, tweened.getLayer("a"));
+      assertEquals(i, first.left, EPSILON);
+    }
+    PoolMetrics metrics = context.getPool().getMetrics(new PoolMetrics());
+    assertEquals(0, metrics.acquires);
+    assertEquals(0, metrics.releases);
+  }
+
+  @Test
+  public void tweenFramesReusesThePlanOfTheSameFrames() {
+    Frame current = new Frame().addLayerStates(new LayerState("a").setFrame(0, 0, 10, 10));
+    Frame next = new Frame().addLayerStates(new LayerState("a").setFrame(10, 0, 20, 10));
+    TweenContext context = new TweenContext();
+
+    LayerState first = Util.tweenFrames(context, current, next, 0.1f).getLayer("a");
+    context.getPool().resetMetrics();
+    Frame tweened = Util.tweenFrames(context, current, next, 0.5f);
+    assertSame(first, tweened.getLayer("a"));
+    assertEquals(5, first.left, EPSILON);
+    assertEquals(0, context.getPool().getMetrics(new PoolMetrics()).acquires);
+
+    // Changing a frame invalidates the plan.
+    next.addLayerState(new LayerState("b").setFrame(0, 0, 10, 10));
+    assertNotNull(Util.tweenFrames(context, current, next, 0.6f).getLayer("b"));
+  }
+
+  @Test
+  public void tweenFramesReusesPooledLayersWhenThePlanChanges() {
+    Frame a = new Frame().addLayerStates(new LayerState("x"), new LayerState("y"));
+    Frame b = new Frame().addLayerStates(new LayerState("x"), new LayerState("y"));
+    TweenPlan forward = new TweenPlan(a, b);
+    TweenPlan back = new TweenPlan(b, a);
+    TweenContext context = new TweenContext();
+
+    Util.tweenFrames(context, forward, 0.5f);
+    Util.tweenFrames(context, back, 0.5f);
+    context.getPool().resetMetrics();
+    for (int i = 0; i < 10; i++) {
+      Util.tweenFrames(context, i % 2 == 0 ? forward : back, 0.5f);
+    }
+    PoolMetrics metrics = context.getPool().getMetrics(new PoolMetrics());
+    assertEquals(20, metrics.acquires);
+    assertEquals(0, metrics.misses);
+  }
+
+  @Test
+  public void contextsTweenIndependently() {
+    Frame current = new Frame().addLayerStates(new LayerState("a").setFrame(0, 0, 10, 10));
+    Frame next = new Frame().addLayerStates(new LayerState("a").setFrame(10, 0, 20, 10));
+    TweenPlan plan = new TweenPlan(current, next);
+    TweenContext first = new TweenContext();
+    TweenContext second = new TweenContext();
+
+    Frame firstFrame = Util.tweenFrames(first, plan, 0.2f);
+    Frame secondFrame = Util.tweenFrames(second, plan, 0.8f);
+    assertNotSame(firstFrame, secondFrame);
+    assertEquals(2, firstFrame.getLayer("a").left, EPSILON);
+    assertEquals(8, secondFrame.getLayer("a").left, EPSILON);
+  }
+
+  @Test
+  public void packedFramesMatchTweenedFrames() {
+    Frame current = new Frame()
+        .addLayerStates(
+            new LayerState("a").setFrame(0, 0, 10, 10).setAlpha(0.2f).rotate(30, 5, 5),
+            new LayerState("b").setFrame(5, 5, 15, 15).setColor(0xff102030));
+    Frame next = new Frame()
+        .addLayerStates(
+            new LayerState("a").setFrame(40, 0, 60, 30).setAlpha(1).rotate(-30, 50, 15),
+            new LayerState("b").setFrame(0, 0, 5, 5).setColor(0xff302010));
+    TweenPlan plan = new TweenPlan(current, next);
+    for (float progress : PROGRESSES) {
+      Frame frame = Util.tweenFrames(new TweenContext(), plan, progress);
+      PackedFrame packed = Util.tweenPackedFrames(new TweenContext(), plan, progress);
+      assertEquals(frame.layerStates.size(), packed.size);
+      int slot = 0;
+      for (LayerState layerState : frame.layerStates.values()) {
+        assertEquals(layerState.left, packed.left[slot], EPSILON);
+        assertEquals(layerState.bottom, packed.bottom[slot], EPSILON);
+        assertEquals(layerState.alpha, packed.alpha[slot], EPSILON);
+        assertEquals(layerState.rotate, packed.rotate[slot], EPSILON);
+        assertEquals(layerState.px, packed.px[slot], EPSILON);
+        assertEquals(layerState.color, packed.color[slot]);
+        slot++;
+      }
+    }
+  }
+
+  /**
+   * The integer ArgbEvaluator of the Android framework before API 22.
+   */
+  private static int argbEvaluator(float fraction, int startValue, int endValue) {
+    int startA = (startValue >> 24) & 0xff;
+    int startR = (startValue >> 16) & 0xff;
+    int startG = (startValue >> 8) & 0xff;
+    int startB = startValue & 0xff;
+    int endA = (endValue >> 24) & 0xff;
+    int endR = (endValue >> 16) & 0xff;
+    int endG = (endValue >> 8) & 0xff;
+    int endB = endValue & 0xff;
+    return (startA + (int) (fraction * (endA - startA))) << 24 |
+        (startR + (int) (fraction * (endR - startR))) << 16 |
+        (startG + (int) (fraction * (endG - startG))) << 8 |
+        (startB + (int) (fraction * (endB - startB)));
+  }
+}